@@ -18,11 +18,34 @@ package com.google.android.gms.samples.wallet;
 
 import android.app.Application;
 import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BikestoreApplication extends Application {
 
+    private static final String TAG = "BikestoreApplication";
     private static final String USER_PREFS = "com.google.android.gms.samples.wallet.USER_PREFS";
     private static final String KEY_USERNAME = "com.google.android.gms.samples.wallet.KEY_USERNAME";
+    private static final String OUTBOX_FILE = "transaction_outbox";
+    private static final String ORDER_JOURNAL_DIRECTORY = "orders";
+    private static final String CHECKOUT_TRACE_FILE = "checkout_trace.txt";
+    private static final String METRICS_FILE = "metrics.txt";
+    private static final String EVENT_LOG_FILE = "events.log";
+    private static final int EVENT_LOG_CAPACITY = 4096;
+    private static final String CATALOG_FILE = "catalog";
+    private static final int SEARCH_INDEX_SEGMENT_SIZE = 10000;
     private String mUserName;
 
     // Not being saved in shared preferences to let users try new addresses
@@ -31,11 +54,100 @@ public class BikestoreApplication extends Application {
 
     private SharedPreferences mPrefs;
 
+    private GoogleApiClientManager mApiClientManager;
+
+    private TransactionOutbox mTransactionOutbox;
+
+    private OrderJournal mOrderJournal;
+
+    // replaced by a newer catalog when a sync completes, without blocking readers
+    private volatile CatalogStore mCatalogStore;
+
+    private SearchIndex mSearchIndex;
+
+    private ImageLoader mImageLoader;
+
+    private final CheckoutPrewarmer mCheckoutPrewarmer = new CheckoutPrewarmer(this);
+
+    private final ReadyToPayCache mReadyToPayCache =
+            new ReadyToPayCache(Constants.READY_TO_PAY_CACHE_TTL_MILLIS);
+    private final ReadyToPayStats mReadyToPayStats = new ReadyToPayStats();
+    private final MetricsRegistry mMetricsRegistry = new MetricsRegistry();
+    private final EventLog mEventLog = new EventLog(EVENT_LOG_CAPACITY);
+    private final CheckoutTracer mCheckoutTracer = new CheckoutTracer(mMetricsRegistry);
+    private final SingleFlight<String, FullWalletConfirmationButtonFragment.LoadFullWalletResult>
+            mLoadFullWalletFlights =
+            new SingleFlight<String, FullWalletConfirmationButtonFragment.LoadFullWalletResult>();
+
+    private final DrawableResolver mDrawableResolver = new DrawableResolver();
+
+    private final MaskedWalletRequestCache mMaskedWalletRequestCache =
+            new MaskedWalletRequestCache();
+
+    // Loads the pages of the item list, and nothing else, so that the catalog sync, the search
+    // index build and the checkout prewarming on the background executor never hold them up
+    private final ExecutorService mPageLoadExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "BikestorePageLoad");
+                }
+            });
+
+    // Runs work such as building Wallet requests ahead of time off the UI thread
+    private final ExecutorService mBackgroundExecutor =
+            Executors.newFixedThreadPool(2, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                            "BikestoreBackground-" + mCount.incrementAndGet());
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
     @Override
     public void onCreate() {
         super.onCreate();
         mPrefs = getSharedPreferences(USER_PREFS, MODE_PRIVATE);
         mUserName = mPrefs.getString(KEY_USERNAME, null);
+        mEventLog.setErrorListener(new EventLog.ErrorListener() {
+            @Override
+            public void onError(IOException e) {
+                Log.w(TAG, "EventLog", e);
+            }
+        });
+        mEventLog.start(new File(getFilesDir(), EVENT_LOG_FILE));
+
+        // Connect to Google Play services while the first screen is still being laid out
+        mApiClientManager = new GoogleApiClientManager(this, mEventLog);
+        mApiClientManager.warmUp();
+
+        // Deliver payments and transaction statuses left over from a previous process
+        URL merchantServerUrl;
+        try {
+            merchantServerUrl = new URL(Constants.MERCHANT_SERVER_URL + "/transactions");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException("Invalid merchant server URL", e);
+        }
+        mTransactionOutbox = new TransactionOutbox(new File(getFilesDir(), OUTBOX_FILE),
+                new MerchantServerSink(merchantServerUrl),
+                new WalletNotifySink(this, mMetricsRegistry));
+        mTransactionOutbox.setErrorListener(new TransactionOutbox.ErrorListener() {
+            @Override
+            public void onError(IOException e) {
+                Log.w(TAG, "TransactionOutbox", e);
+            }
+        });
+        mTransactionOutbox.start();
+
+        mOrderJournal = new OrderJournal(new File(getFilesDir(), ORDER_JOURNAL_DIRECTORY),
+                Constants.ORDER_JOURNAL_RETENTION_MILLIS);
+        mOrderJournal.start();
+
+        syncCatalog();
     }
 
     public boolean isLoggedIn() {
@@ -45,11 +157,13 @@ public class BikestoreApplication extends Application {
     public void login(String userName) {
         mUserName = userName;
         mPrefs.edit().putString(KEY_USERNAME, mUserName).commit();
+        mReadyToPayCache.invalidate();
     }
 
     public void logout() {
         mUserName = null;
         mPrefs.edit().remove(KEY_USERNAME).commit();
+        mReadyToPayCache.invalidate();
     }
 
     public String getAccountName() {
@@ -64,4 +178,229 @@ public class BikestoreApplication extends Application {
         this.mAddressValidForPromo = addressValidForPromo;
     }
 
+    public MaskedWalletRequestCache getMaskedWalletRequestCache() {
+        return mMaskedWalletRequestCache;
+    }
+
+    public GoogleApiClientManager getApiClientManager() {
+        return mApiClientManager;
+    }
+
+    public CheckoutPrewarmer getCheckoutPrewarmer() {
+        return mCheckoutPrewarmer;
+    }
+
+    public ReadyToPayCache getReadyToPayCache() {
+        return mReadyToPayCache;
+    }
+
+    public ReadyToPayStats getReadyToPayStats() {
+        return mReadyToPayStats;
+    }
+
+    public CheckoutTracer getCheckoutTracer() {
+        return mCheckoutTracer;
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return mMetricsRegistry;
+    }
+
+    /**
+     * @return the log of checkout events, written to {@code events.log} in the files directory.
+     */
+    public EventLog getEventLog() {
+        return mEventLog;
+    }
+
+    /**
+     * Writes the checkout stage latencies to {@code checkout_trace.txt} and a snapshot of all
+     * metrics to {@code metrics.txt} in the files directory, in the background. Pull them with
+     * {@code adb shell run-as <package> cat files/<file>}.
+     */
+    public void dumpMetrics() {
+        final File traceFile = new File(getFilesDir(), CHECKOUT_TRACE_FILE);
+        final File metricsFile = new File(getFilesDir(), METRICS_FILE);
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCheckoutTracer.writeTo(traceFile);
+                    writeFile(metricsFile, mMetricsRegistry.snapshot().toString());
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot write metrics", e);
+                }
+            }
+        });
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return in-flight {@code Wallet.Payments.loadFullWallet} calls, keyed by Google transaction
+     *         id.
+     */
+    public SingleFlight<String, FullWalletConfirmationButtonFragment.LoadFullWalletResult>
+            getLoadFullWalletFlights() {
+        return mLoadFullWalletFlights;
+    }
+
+    /**
+     * @return the items for sale. The catalog file is written from
+     *         {@link Constants#ITEMS_FOR_SALE} the first time the app runs, or if it cannot be
+     *         read.
+     */
+    public CatalogStore getCatalogStore() {
+        CatalogStore catalogStore = mCatalogStore;
+        if (catalogStore == null) {
+            synchronized (this) {
+                if (mCatalogStore == null) {
+                    mCatalogStore = openCatalogStore();
+                }
+                catalogStore = mCatalogStore;
+            }
+        }
+        return catalogStore;
+    }
+
+    private CatalogStore openCatalogStore() {
+        File file = new File(getFilesDir(), CATALOG_FILE);
+        try {
+            if (file.exists()) {
+                try {
+                    return CatalogStore.open(file, mDrawableResolver);
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot read the catalog, writing the bundled one", e);
+                }
+            }
+            writeBundledCatalog(file);
+            return CatalogStore.open(file, mDrawableResolver);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open the catalog", e);
+        }
+    }
+
+    /**
+     * Fetches the changes to the catalog from the merchant server in the background. Updated
+     * prices and new items are shown right away. If items were removed, the ids of the items
+     * after them change, and screens pass ids to each other, so the new catalog is only used
+     * from the next launch.
+     */
+    private void syncCatalog() {
+        final CatalogSync catalogSync;
+        try {
+            catalogSync = new CatalogSync(new URL(Constants.MERCHANT_SERVER_URL + "/catalog"),
+                    new File(getFilesDir(), CATALOG_FILE), mDrawableResolver);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException("Invalid merchant server URL", e);
+        }
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CatalogSync.Result result = catalogSync.sync(getCatalogStore());
+                    if (result != null && !result.idsChanged) {
+                        mCatalogStore = result.catalogStore;
+                        // requests built from the old prices would charge the old totals
+                        mMaskedWalletRequestCache.invalidate();
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot sync the catalog", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the search index of the current catalog. It is built in the background the first
+     *         time it is asked for, and searches only find the items indexed so far.
+     */
+    public synchronized SearchIndex getSearchIndex() {
+        CatalogStore catalogStore = getCatalogStore();
+        if (mSearchIndex == null || mSearchIndex.getCatalogStore() != catalogStore) {
+            if (mSearchIndex != null) {
+                mSearchIndex.close();
+            }
+            final SearchIndex searchIndex = new SearchIndex(catalogStore);
+            mBackgroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    searchIndex.build(SEARCH_INDEX_SEGMENT_SIZE);
+                }
+            });
+            mSearchIndex = searchIndex;
+        }
+        return mSearchIndex;
+    }
+
+    /**
+     * @return the loader of item images, shared by all screens so that they share its caches.
+     */
+    public synchronized ImageLoader getImageLoader() {
+        if (mImageLoader == null) {
+            mImageLoader = new ImageLoader(this);
+        }
+        return mImageLoader;
+    }
+
+    private void writeBundledCatalog(File file) throws IOException {
+        CatalogStore.Writer writer = new CatalogStore.Writer(file);
+        try {
+            for (int i = 0; i < Constants.ITEMS_FOR_SALE.length; i++) {
+                ItemInfo item = Constants.ITEMS_FOR_SALE[i];
+                writer.add("bike-" + i, item,
+                        getResources().getResourceEntryName(item.imageResourceId));
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Resolves the image names of the catalog to drawables of the app, which are looked up by
+     * name only once.
+     */
+    private class DrawableResolver implements CatalogStore.ImageResolver {
+
+        private final ConcurrentHashMap<String, Integer> mResourceIds =
+                new ConcurrentHashMap<String, Integer>();
+
+        @Override
+        public int getImageResourceId(String image) {
+            Integer resourceId = mResourceIds.get(image);
+            if (resourceId == null) {
+                resourceId = getResources().getIdentifier(image, "drawable", getPackageName());
+                mResourceIds.put(image, resourceId);
+            }
+            return resourceId;
+        }
+    }
+
+    public TransactionOutbox getTransactionOutbox() {
+        return mTransactionOutbox;
+    }
+
+    public OrderJournal getOrderJournal() {
+        return mOrderJournal;
+    }
+
+    public ExecutorService getBackgroundExecutor() {
+        return mBackgroundExecutor;
+    }
+
+    /**
+     * @return the executor of the item list's page loads, which the user is waiting for.
+     */
+    public ExecutorService getPageLoadExecutor() {
+        return mPageLoadExecutor;
+    }
+
 }
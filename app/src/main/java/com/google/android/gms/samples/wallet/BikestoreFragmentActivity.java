@@ -108,6 +108,8 @@ public abstract class BikestoreFragmentActivity extends FragmentActivity {
     }
 
     protected void handleError(int errorCode) {
+        ((BikestoreApplication) getApplication()).getMetricsRegistry()
+                .increment(MetricsRegistry.WALLET_ERROR, errorCode);
         switch (errorCode) {
             case WalletConstants.ERROR_CODE_SPENDING_LIMIT_EXCEEDED:
                 Toast.makeText(this, getString(R.string.spending_limit_exceeded, errorCode),
@@ -16,7 +16,8 @@
 
 package com.google.android.gms.samples.wallet;
 
-import android.graphics.drawable.Drawable;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
@@ -32,6 +33,7 @@ import android.widget.TextView;
 public class CartDetailFragment extends Fragment {
 
     private int mItemId;
+    private ImageLoader.Request mImageRequest;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -44,19 +46,25 @@ public class CartDetailFragment extends Fragment {
             LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_cart_detail, container, false);
 
-        ItemInfo itemInfo = Constants.ITEMS_FOR_SALE[mItemId];
+        ItemInfo itemInfo = getApplication().getCatalogStore().getItem(mItemId);
 
-        TextView itemName = (TextView) view.findViewById(R.id.text_item_name);
+        final TextView itemName = (TextView) view.findViewById(R.id.text_item_name);
         itemName.setText(itemInfo.name);
 
-        Drawable itemImage = getResources().getDrawable(itemInfo.imageResourceId);
-        int imageSize = getResources().getDimensionPixelSize(R.dimen.image_thumbnail_size);
-        int actualWidth = itemImage.getIntrinsicWidth();
-        int actualHeight = itemImage.getIntrinsicHeight();
-        int scaledHeight = imageSize;
-        int scaledWidth = (int) (((float) actualWidth / actualHeight) * scaledHeight);
-        itemImage.setBounds(0, 0, scaledWidth, scaledHeight);
-        itemName.setCompoundDrawables(itemImage, null, null, null);
+        final int imageSize = getResources().getDimensionPixelSize(R.dimen.image_thumbnail_size);
+        mImageRequest = getApplication().getImageLoader().load(itemInfo, 0, imageSize,
+                new ImageLoader.Callback() {
+                    @Override
+                    public void onImageLoaded(Bitmap bitmap) {
+                        mImageRequest = null;
+                        BitmapDrawable itemImage = new BitmapDrawable(getResources(), bitmap);
+                        int scaledHeight = imageSize;
+                        int scaledWidth = (int) (((float) bitmap.getWidth() / bitmap.getHeight())
+                                * scaledHeight);
+                        itemImage.setBounds(0, 0, scaledWidth, scaledHeight);
+                        itemName.setCompoundDrawables(itemImage, null, null, null);
+                    }
+                });
 
         TextView itemPrice = (TextView) view.findViewById(R.id.text_item_price);
         itemPrice.setText(Util.formatPrice(getActivity(), itemInfo.priceMicros));
@@ -75,6 +83,15 @@ public class CartDetailFragment extends Fragment {
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        if (mImageRequest != null) {
+            mImageRequest.cancel();
+            mImageRequest = null;
+        }
+        super.onDestroyView();
+    }
+
     private BikestoreApplication getApplication() {
       return (BikestoreApplication) getActivity().getApplication();
   }
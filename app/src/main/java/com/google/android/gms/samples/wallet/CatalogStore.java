@@ -0,0 +1,476 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The items for sale, read from a memory-mapped catalog file.
+ *
+ * The file holds a header, fixed-width columns of prices, a table of string offsets and the
+ * strings themselves:
+ * <pre>
+ * int magic "CTLG", int format version, int item count, int reserved, long catalog version
+ * long priceMicros[count]
+ * long shippingPriceMicros[count]
+ * int stringOffsets[count * STRING_COUNT + 1]   relative to the start of the strings
+ * byte strings[]                                UTF-8
+ * </pre>
+ * so opening a catalog only reads its header, and an item is decoded from the mapped file the
+ * first time it is asked for. The most recently used items are kept in a small LRU cache, so
+ * the heap used does not grow with the size of the catalog.
+ *
+ * Items are identified by their index in the file, which is what {@link Constants#EXTRA_ITEM_ID}
+ * holds. Catalog files are written with a {@link Writer}.
+ */
+public class CatalogStore {
+
+    private static final int MAGIC = 0x43544c47; // "CTLG"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_LENGTH = 24;
+
+    private static final int STRING_SKU = 0;
+    private static final int STRING_NAME = 1;
+    private static final int STRING_DESCRIPTION = 2;
+    private static final int STRING_CURRENCY_CODE = 3;
+    private static final int STRING_SELLER_DATA = 4;
+    private static final int STRING_IMAGE = 5;
+    private static final int STRING_COUNT = 6;
+
+    private static final int DEFAULT_CACHE_SIZE = 256;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Maps the image names stored in the catalog to drawable resources. Images that are URLs
+     * are downloaded instead, see {@link ItemInfo#imageUrl}.
+     */
+    public interface ImageResolver {
+        /**
+         * @return the drawable resource id of {@code image}, or 0 if there is none.
+         */
+        int getImageResourceId(String image);
+    }
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+    private final int mShippingOffset;
+    private final int mStringOffsetsOffset;
+    private final int mStringsOffset;
+    private final ImageResolver mImageResolver;
+    private final ItemCache mCache;
+
+    private CatalogStore(ByteBuffer buffer, ImageResolver imageResolver, int cacheSize)
+            throws IOException {
+        if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog file");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported catalog format " + buffer.getInt(4));
+        }
+        mBuffer = buffer;
+        mCount = buffer.getInt(8);
+        mShippingOffset = HEADER_LENGTH + mCount * 8;
+        mStringOffsetsOffset = mShippingOffset + mCount * 8;
+        mStringsOffset = mStringOffsetsOffset + (mCount * STRING_COUNT + 1) * 4;
+        if (mCount < 0 || mStringsOffset > buffer.capacity()
+                || mStringsOffset + stringOffset(mCount * STRING_COUNT) != buffer.capacity()) {
+            throw new IOException("Corrupt catalog file");
+        }
+        mImageResolver = imageResolver;
+        mCache = new ItemCache(cacheSize);
+    }
+
+    /**
+     * Maps a catalog file into memory. The file must not be modified while it is open; new
+     * versions of the catalog are written to another file and renamed over it.
+     *
+     * @param imageResolver resolves the image names of the items, or {@code null} to leave their
+     *                      {@link ItemInfo#imageResourceId} at 0.
+     */
+    public static CatalogStore open(File file, ImageResolver imageResolver) throws IOException {
+        return open(file, imageResolver, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize number of decoded items to keep.
+     */
+    public static CatalogStore open(File file, ImageResolver imageResolver, int cacheSize)
+            throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // the mapping stays valid once the file is closed
+            return new CatalogStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                    imageResolver, cacheSize);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return version of the merchant's catalog feed this catalog was written from, 0 for the
+     *         catalog bundled with the app.
+     */
+    public long getVersion() {
+        return mBuffer.getLong(16);
+    }
+
+    /**
+     * @return number of items in the catalog.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @param id index of the item, from 0 to {@link #getCount()} - 1.
+     */
+    public ItemInfo getItem(int id) {
+        checkId(id);
+        Integer key = id;
+        ItemInfo item;
+        synchronized (mCache) {
+            item = mCache.get(key);
+        }
+        if (item == null) {
+            // decoded outside the lock: two threads may decode the same item, which is harmless
+            item = decode(id);
+            synchronized (mCache) {
+                mCache.put(key, item);
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Decodes a range of items without keeping them in the cache, for callers that keep pages
+     * of items themselves.
+     *
+     * @param start id of the first item.
+     * @param count number of items, which must all be in the catalog.
+     */
+    public ItemInfo[] getItems(int start, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative count " + count);
+        }
+        if (count > 0) {
+            checkId(start);
+            checkId(start + count - 1);
+        }
+        ItemInfo[] items = new ItemInfo[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = decode(start + i);
+        }
+        return items;
+    }
+
+    /**
+     * @return the stock keeping unit identifying the item across catalog versions.
+     */
+    public String getSku(int id) {
+        checkId(id);
+        return readString(id, STRING_SKU);
+    }
+
+    /**
+     * @return the price of the item, read without decoding the whole item.
+     */
+    public long getPriceMicros(int id) {
+        checkId(id);
+        return mBuffer.getLong(HEADER_LENGTH + id * 8);
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= mCount) {
+            throw new IndexOutOfBoundsException("No item " + id + " in a catalog of " + mCount);
+        }
+    }
+
+    private ItemInfo decode(int id) {
+        String image = readString(id, STRING_IMAGE);
+        boolean remote = image.startsWith("http://") || image.startsWith("https://");
+        return new ItemInfo(readString(id, STRING_SKU), readString(id, STRING_NAME),
+                readString(id, STRING_DESCRIPTION), mBuffer.getLong(HEADER_LENGTH + id * 8),
+                mBuffer.getLong(mShippingOffset + id * 8),
+                readString(id, STRING_CURRENCY_CODE), readString(id, STRING_SELLER_DATA),
+                !remote && mImageResolver != null ? mImageResolver.getImageResourceId(image) : 0,
+                remote ? image : null);
+    }
+
+    private int stringOffset(int index) {
+        return mBuffer.getInt(mStringOffsetsOffset + index * 4);
+    }
+
+    private String readString(int id, int string) {
+        return new String(readStringBytes(id, string, null), UTF_8);
+    }
+
+    /**
+     * @param bytes array to read into if it is large enough, or {@code null}.
+     * @return the UTF-8 bytes of the string, at the start of {@code bytes} or of a new array;
+     *         their length is {@link #stringLength}.
+     */
+    private byte[] readStringBytes(int id, int string, byte[] bytes) {
+        int index = id * STRING_COUNT + string;
+        int start = stringOffset(index);
+        int length = stringOffset(index + 1) - start;
+        if (bytes == null || bytes.length < length) {
+            bytes = new byte[length];
+        }
+        // a duplicate has a position of its own, so concurrent reads do not interfere
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(mStringsOffset + start);
+        buffer.get(bytes, 0, length);
+        return bytes;
+    }
+
+    private int stringLength(int id, int string) {
+        int index = id * STRING_COUNT + string;
+        return stringOffset(index + 1) - stringOffset(index);
+    }
+
+    /**
+     * Writes catalog files.
+     *
+     * Each column is streamed to a scratch file next to the catalog file as items are added,
+     * and the columns are then copied into the catalog file one after the other, so that the
+     * heap used does not grow with the size of the catalog. Close the writer once done with it,
+     * whether or not the catalog was committed, to delete the scratch files.
+     */
+    public static class Writer implements Closeable {
+
+        private static final int COPY_BUFFER_SIZE = 8192;
+
+        private final File mFile;
+        private final File[] mColumnFiles;
+        private final DataOutputStream mPrices;
+        private final DataOutputStream mShippingPrices;
+        private final DataOutputStream mStringOffsets;
+        private final DataOutputStream mStrings;
+        private long mVersion;
+        private int mCount;
+        private int mStringsLength;
+        private byte[] mCopyBuffer = new byte[COPY_BUFFER_SIZE];
+        private boolean mClosed;
+
+        /**
+         * @param file catalog file to write, which is only replaced by {@link #commit}.
+         */
+        public Writer(File file) throws IOException {
+            mFile = file;
+            String[] columns = {"prices", "shipping", "offsets", "strings"};
+            mColumnFiles = new File[columns.length];
+            DataOutputStream[] outs = new DataOutputStream[columns.length];
+            try {
+                for (int i = 0; i < columns.length; i++) {
+                    mColumnFiles[i] = new File(file.getPath() + "." + columns[i] + ".tmp");
+                    outs[i] = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(mColumnFiles[i])));
+                }
+            } catch (IOException e) {
+                for (int i = 0; i < columns.length; i++) {
+                    if (outs[i] != null) {
+                        outs[i].close();
+                    }
+                    if (mColumnFiles[i] != null) {
+                        mColumnFiles[i].delete();
+                    }
+                }
+                throw e;
+            }
+            mPrices = outs[0];
+            mShippingPrices = outs[1];
+            mStringOffsets = outs[2];
+            mStrings = outs[3];
+        }
+
+        /**
+         * @param version version of the merchant's catalog feed the items come from.
+         */
+        public Writer setVersion(long version) {
+            mVersion = version;
+            return this;
+        }
+
+        /**
+         * Adds an item. Its id is the number of items added before it.
+         *
+         * @param image name of the item's image, passed to the {@link ImageResolver}.
+         */
+        public Writer add(String sku, ItemInfo item, String image) throws IOException {
+            mPrices.writeLong(item.priceMicros);
+            mShippingPrices.writeLong(item.shippingPriceMicros);
+            // in the order of the STRING_* indexes
+            writeString(encode(sku));
+            writeString(encode(item.name));
+            writeString(encode(item.description));
+            writeString(encode(item.currencyCode));
+            writeString(encode(item.sellerData));
+            writeString(encode(image));
+            mCount++;
+            return this;
+        }
+
+        /**
+         * Adds an item of another catalog. Its prices and strings are copied as they are,
+         * without decoding the item or resolving its image.
+         */
+        public Writer add(CatalogStore catalogStore, int id) throws IOException {
+            catalogStore.checkId(id);
+            mPrices.writeLong(catalogStore.getPriceMicros(id));
+            mShippingPrices.writeLong(
+                    catalogStore.mBuffer.getLong(catalogStore.mShippingOffset + id * 8));
+            for (int string = 0; string < STRING_COUNT; string++) {
+                mCopyBuffer = catalogStore.readStringBytes(id, string, mCopyBuffer);
+                mStringOffsets.writeInt(mStringsLength);
+                int length = catalogStore.stringLength(id, string);
+                mStrings.write(mCopyBuffer, 0, length);
+                mStringsLength += length;
+            }
+            mCount++;
+            return this;
+        }
+
+        /**
+         * @return number of items added.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Writes the catalog to a temporary file that is then renamed to the catalog file, so
+         * that readers never see a partial catalog. No items can be added afterwards.
+         */
+        public void commit() throws IOException {
+            mStringOffsets.writeInt(mStringsLength);
+            closeColumns();
+
+            File tempFile = new File(mFile.getPath() + ".tmp");
+            FileOutputStream fileOut = new FileOutputStream(tempFile);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(mCount);
+                out.writeInt(0);
+                out.writeLong(mVersion);
+                for (File columnFile : mColumnFiles) {
+                    copy(columnFile, out);
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            if (!tempFile.renameTo(mFile)) {
+                throw new IOException("Cannot rename " + tempFile + " to " + mFile);
+            }
+        }
+
+        /**
+         * Deletes the scratch files, leaving the catalog file as it is if the writer was not
+         * committed.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                closeColumns();
+            } finally {
+                for (File columnFile : mColumnFiles) {
+                    columnFile.delete();
+                }
+            }
+        }
+
+        private void writeString(byte[] bytes) throws IOException {
+            mStringOffsets.writeInt(mStringsLength);
+            mStrings.write(bytes);
+            mStringsLength += bytes.length;
+        }
+
+        private void closeColumns() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            IOException failure = null;
+            for (DataOutputStream out : new DataOutputStream[] {
+                    mPrices, mShippingPrices, mStringOffsets, mStrings}) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    failure = failure != null ? failure : e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void copy(File from, OutputStream out) throws IOException {
+            InputStream in = new FileInputStream(from);
+            try {
+                int count;
+                while ((count = in.read(mCopyBuffer)) != -1) {
+                    out.write(mCopyBuffer, 0, count);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        private static byte[] encode(String value) {
+            return (value != null ? value : "").getBytes(UTF_8);
+        }
+    }
+
+    /**
+     * The most recently used decoded items, keyed by index.
+     */
+    private static class ItemCache extends LinkedHashMap<Integer, ItemInfo> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int mMaxSize;
+
+        ItemCache(int maxSize) {
+            super(maxSize, 0.75f, true);
+            mMaxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ItemInfo> eldest) {
+            return size() > mMaxSize;
+        }
+    }
+}
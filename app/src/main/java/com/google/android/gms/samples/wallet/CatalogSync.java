@@ -0,0 +1,221 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Brings a {@link CatalogStore} up to date with the merchant's catalog feed.
+ *
+ * The feed is newline-delimited JSON: a header line with the version of the catalog and the
+ * version the changes are relative to, 0 for a full catalog, followed by one line per item:
+ * <pre>
+ * {"version": 42, "since": 40}
+ * {"sku": "bike-0", "name": "...", "description": "...", "priceMicros": 300000000,
+ *  "shippingPriceMicros": 9990000, "currencyCode": "USD", "sellerData": "...", "image": "..."}
+ * {"sku": "bike-1", "removed": true}
+ * </pre>
+ * A sync asks for the changes since the version of the local catalog, with the version as the
+ * {@code If-None-Match} ETag so that an unchanged catalog costs a 304 and no body. The feed is
+ * read line by line and the changes are applied to a copy of the local catalog, streamed to a
+ * new file that is renamed over the old one, and the caller swaps the new {@link CatalogStore} in.
+ * Readers of the old store are never blocked: its mapping stays valid after the rename.
+ *
+ * If the feed sends changes relative to another version, the full catalog is requested instead.
+ */
+public class CatalogSync {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    // returned by apply() when the feed has changes relative to another version than the
+    // local catalog's
+    private static final Result NOT_APPLICABLE = new Result(null, 0, false);
+
+    /**
+     * The catalog after a sync.
+     */
+    public static class Result {
+        public final CatalogStore catalogStore;
+        // number of items added, changed or removed
+        public final int changeCount;
+        // whether items were removed or reordered, so that ids now refer to other items
+        public final boolean idsChanged;
+
+        Result(CatalogStore catalogStore, int changeCount, boolean idsChanged) {
+            this.catalogStore = catalogStore;
+            this.changeCount = changeCount;
+            this.idsChanged = idsChanged;
+        }
+    }
+
+    private final URL mFeedUrl;
+    private final File mFile;
+    private final CatalogStore.ImageResolver mImageResolver;
+
+    /**
+     * @param feedUrl URL of the merchant's catalog feed.
+     * @param file catalog file to write.
+     * @param imageResolver passed to the new {@link CatalogStore}.
+     */
+    public CatalogSync(URL feedUrl, File file, CatalogStore.ImageResolver imageResolver) {
+        mFeedUrl = feedUrl;
+        mFile = file;
+        mImageResolver = imageResolver;
+    }
+
+    /**
+     * Fetches the changes to {@code current} and writes the updated catalog. Must not be called
+     * on the main thread.
+     *
+     * @return the updated catalog, or {@code null} if {@code current} is up to date.
+     */
+    public Result sync(CatalogStore current) throws IOException {
+        long version = current.getVersion();
+        if (version > 0) {
+            Result result = fetch(current, version);
+            if (result != NOT_APPLICABLE) {
+                return result;
+            }
+        }
+        return fetch(current, 0);
+    }
+
+    /**
+     * @param sinceVersion version to ask for the changes since, or 0 for the full catalog.
+     * @return the updated catalog, {@code null} if {@code current} is up to date, or
+     *         {@link #NOT_APPLICABLE} if the feed sent changes that do not apply to it.
+     */
+    private Result fetch(CatalogStore current, long sinceVersion) throws IOException {
+        URL url = sinceVersion > 0 ? new URL(mFeedUrl + "?since=" + sinceVersion) : mFeedUrl;
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            if (sinceVersion > 0) {
+                connection.setRequestProperty("If-None-Match", "\"" + sinceVersion + "\"");
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Catalog feed returned HTTP " + responseCode);
+            }
+
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), "UTF-8"), 8192);
+            try {
+                return apply(current, reader);
+            } catch (JSONException e) {
+                throw new IOException("Invalid catalog feed: " + e.getMessage());
+            } finally {
+                reader.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private Result apply(CatalogStore current, BufferedReader reader)
+            throws IOException, JSONException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new IOException("Empty catalog feed");
+        }
+        JSONObject header = new JSONObject(line);
+        long version = header.getLong("version");
+        long sinceVersion = header.getLong("since");
+        if (sinceVersion != 0 && sinceVersion != current.getVersion()) {
+            return NOT_APPLICABLE;
+        }
+
+        CatalogStore.Writer writer = new CatalogStore.Writer(mFile).setVersion(version);
+        try {
+            int changeCount = 0;
+            boolean idsChanged;
+            if (sinceVersion == 0) {
+                // a full catalog is written item by item to the columns of the writer, which
+                // keeps none of them in memory; ids are unchanged if it starts with the items
+                // of the current catalog, in the same order
+                idsChanged = false;
+                while ((line = reader.readLine()) != null) {
+                    JSONObject item = new JSONObject(line);
+                    String sku = item.getString("sku");
+                    int id = writer.getCount();
+                    if (id < current.getCount() && !sku.equals(current.getSku(id))) {
+                        idsChanged = true;
+                    }
+                    addItem(writer, sku, item);
+                    changeCount++;
+                }
+                idsChanged |= writer.getCount() < current.getCount();
+            } else {
+                // changes are few: they are read first, then merged with the current items,
+                // which are copied as they are without being decoded
+                Map<String, JSONObject> changes = new LinkedHashMap<String, JSONObject>();
+                while ((line = reader.readLine()) != null) {
+                    JSONObject item = new JSONObject(line);
+                    changes.put(item.getString("sku"), item);
+                }
+                changeCount = changes.size();
+                idsChanged = false;
+                for (int id = 0; id < current.getCount(); id++) {
+                    String sku = current.getSku(id);
+                    JSONObject item = changes.remove(sku);
+                    if (item == null) {
+                        writer.add(current, id);
+                    } else if (item.optBoolean("removed")) {
+                        idsChanged = true;
+                    } else {
+                        addItem(writer, sku, item);
+                    }
+                }
+                // new items come last, so that the ids of the current items are kept
+                for (JSONObject item : changes.values()) {
+                    if (!item.optBoolean("removed")) {
+                        addItem(writer, item.getString("sku"), item);
+                    }
+                }
+            }
+
+            writer.commit();
+            return new Result(CatalogStore.open(mFile, mImageResolver), changeCount, idsChanged);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void addItem(CatalogStore.Writer writer, String sku, JSONObject item)
+            throws IOException, JSONException {
+        writer.add(sku, new ItemInfo(item.getString("name"), item.optString("description"),
+                item.getLong("priceMicros"), item.getLong("shippingPriceMicros"),
+                item.getString("currencyCode"), item.optString("sellerData"), 0),
+                item.optString("image"));
+    }
+}
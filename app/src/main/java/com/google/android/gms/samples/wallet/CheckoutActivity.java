@@ -19,7 +19,9 @@ package com.google.android.gms.samples.wallet;
 import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.Intent;
+import android.content.IntentSender.SendIntentException;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.v4.app.Fragment;
 import android.util.Log;
@@ -41,6 +43,7 @@ import com.google.android.gms.wallet.fragment.SupportWalletFragment;
 import com.google.android.gms.wallet.fragment.WalletFragmentInitParams;
 import com.google.android.gms.wallet.fragment.WalletFragmentMode;
 import com.google.android.gms.wallet.fragment.WalletFragmentOptions;
+import com.google.android.gms.wallet.fragment.WalletFragmentState;
 import com.google.android.gms.wallet.fragment.WalletFragmentStyle;
 
 /**
@@ -58,6 +61,10 @@ public class CheckoutActivity extends BikestoreFragmentActivity implements
 
     private static final String TAG = "CheckoutActivity";
     private static final int REQUEST_CODE_MASKED_WALLET = 1001;
+    private static final int REQUEST_CODE_RESOLVE_ERR = 1003;
+
+    // The buy button options are the same for every item, built once and shared
+    private static WalletFragmentOptions sBuyButtonOptions;
 
     private SupportWalletFragment mWalletFragment;
     private int mItemId;
@@ -66,23 +73,44 @@ public class CheckoutActivity extends BikestoreFragmentActivity implements
     private CheckBox mStripeCheckbox;
     private boolean mUseStripe = false;
     private GoogleApiClient mGoogleApiClient;
+    private PaymentsProvider mPaymentsProvider;
     private ProgressDialog mProgressDialog;
+    private boolean mResolvingError;
+    // Result of isReadyToPay the buttons currently reflect, null until known
+    private Boolean mIsReadyToPayShown;
+    // Result of isReadyToPay that arrived after onSaveInstanceState, shown once resumed
+    private Boolean mPendingReadyToPay;
+    private boolean mStateSaved;
+    private boolean mDestroyed;
+    private final Handler mHandler = new Handler();
+    private final Runnable mReadyToPayDeadline = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "isReadyToPay:deadline exceeded");
+            ((BikestoreApplication) getApplication()).getReadyToPayStats()
+                    .recordDeadlineExceeded();
+            showRegularCheckoutFallback();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_checkout);
 
-        // [START basic_google_api_client]
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wallet.API, new Wallet.WalletOptions.Builder()
-                        .setEnvironment(Constants.WALLET_ENVIRONMENT)
-                        .build())
-                .enableAutoManage(this, this)
-                .build();
-        // [END basic_google_api_client]
+        // The Wallet client is shared by the application and usually already connected
+        mGoogleApiClient = ((BikestoreApplication) getApplication()).getApiClientManager()
+                .acquire(GoogleApiClientManager.CLIENT_WALLET);
+        mGoogleApiClient.registerConnectionFailedListener(this);
+        mPaymentsProvider = new PlayServicesPaymentsProvider(mGoogleApiClient);
 
         mItemId = getIntent().getIntExtra(Constants.EXTRA_ITEM_ID, 0);
+        if (savedInstanceState == null) {
+            ((BikestoreApplication) getApplication()).getCheckoutPrewarmer()
+                    .onCheckoutStarted(mItemId);
+            ((BikestoreApplication) getApplication()).getCheckoutTracer()
+                    .begin(CheckoutTracer.STAGE_TIME_TO_PURCHASE);
+        }
         mReturnToShopping = (Button) findViewById(R.id.button_return_to_shopping);
         mReturnToShopping.setOnClickListener(this);
         mContinueCheckout = (Button) findViewById(R.id.button_regular_checkout);
@@ -91,46 +119,180 @@ public class CheckoutActivity extends BikestoreFragmentActivity implements
         mStripeCheckbox = (CheckBox) findViewById(R.id.checkbox_stripe);
         mStripeCheckbox.setOnCheckedChangeListener(this);
 
-        // Check if user is ready to use Android Pay
+        // Check if user is ready to use Android Pay. A cached result is shown right away and
+        // only re-checked in the background once it has expired.
+        BikestoreApplication application = (BikestoreApplication) getApplication();
+        ReadyToPayCache readyToPayCache = application.getReadyToPayCache();
+        String accountName = application.getAccountName();
+        Boolean isReadyToPay = readyToPayCache.get(accountName);
+        if (isReadyToPay == null) {
+            showProgressDialog();
+            if (Constants.READY_TO_PAY_DEADLINE_MILLIS > 0) {
+                mHandler.postDelayed(mReadyToPayDeadline, Constants.READY_TO_PAY_DEADLINE_MILLIS);
+            }
+            checkIsReadyToPay();
+        } else {
+            showReadyToPay(isReadyToPay);
+            if (!readyToPayCache.isFresh(accountName)) {
+                checkIsReadyToPay();
+            }
+        }
+    }
+
+    /**
+     * Adds the {@link Wallet#API} to a client built by {@link GoogleApiClientManager}.
+     */
+    static GoogleApiClient.Builder addWalletApi(GoogleApiClient.Builder builder) {
+        // [START basic_google_api_client]
+        return builder.addApi(Wallet.API, new Wallet.WalletOptions.Builder()
+                .setEnvironment(Constants.WALLET_ENVIRONMENT)
+                .build());
+        // [END basic_google_api_client]
+    }
+
+    private void checkIsReadyToPay() {
+        final BikestoreApplication application = (BikestoreApplication) getApplication();
+        final String accountName = application.getAccountName();
+        final long startNanos = System.nanoTime();
+
+        mPaymentsProvider.isReadyToPay(new PaymentsProvider.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean isReadyToPay) {
+                if (mDestroyed) {
+                    // Still worth caching for the next checkout page
+                    application.getReadyToPayCache().put(accountName, isReadyToPay);
+                    return;
+                }
+                onReadyToPayAnswered(startNanos);
+                application.getMetricsRegistry().increment(MetricsRegistry.READY_TO_PAY_RESULT,
+                        isReadyToPay ? 1 : 0);
+                application.getEventLog().log(EventLog.EVENT_READY_TO_PAY, isReadyToPay ? 1 : 0);
+                application.getReadyToPayCache().put(accountName, isReadyToPay);
+                // Show Android Pay buttons and hide regular checkout button, or show a message
+                // that Android Pay cannot be used yet and a traditional checkout button
+                showReadyToPay(isReadyToPay);
+            }
+
+            @Override
+            public void onError(int errorCode) {
+                if (mDestroyed) {
+                    return;
+                }
+                onReadyToPayAnswered(startNanos);
+                Log.e(TAG, "isReadyToPay:" + errorCode);
+                application.getMetricsRegistry().increment(MetricsRegistry.READY_TO_PAY_RESULT,
+                        errorCode);
+                showRegularCheckoutFallback();
+            }
+        });
+    }
+
+    /**
+     * Asks Google Play services whether the user can pay with Android Pay, for
+     * {@link PlayServicesPaymentsProvider#isReadyToPay(PaymentsProvider.Callback)}. Must be called
+     * on the main thread.
+     */
+    static void isReadyToPay(GoogleApiClient googleApiClient,
+            final PaymentsProvider.Callback<Boolean> callback) {
         // [START is_ready_to_pay]
-        showProgressDialog();
-        Wallet.Payments.isReadyToPay(mGoogleApiClient).setResultCallback(
+        Wallet.Payments.isReadyToPay(googleApiClient).setResultCallback(
                 new ResultCallback<BooleanResult>() {
                     @Override
                     public void onResult(@NonNull BooleanResult booleanResult) {
-                        hideProgressDialog();
-
                         if (booleanResult.getStatus().isSuccess()) {
-                            if (booleanResult.getValue()) {
-                                // Show Android Pay buttons and hide regular checkout button
-                                // [START_EXCLUDE]
-                                Log.d(TAG, "isReadyToPay:true");
-                                createAndAddWalletFragment();
-                                findViewById(R.id.button_regular_checkout)
-                                        .setVisibility(View.GONE);
-                                // [END_EXCLUDE]
-                            } else {
-                                // Hide Android Pay buttons, show a message that Android Pay
-                                // cannot be used yet, and display a traditional checkout button
-                                // [START_EXCLUDE]
-                                Log.d(TAG, "isReadyToPay:false:" + booleanResult.getStatus());
-                                findViewById(R.id.layout_android_pay_checkout)
-                                        .setVisibility(View.GONE);
-                                findViewById(R.id.android_pay_message)
-                                        .setVisibility(View.VISIBLE);
-                                findViewById(R.id.button_regular_checkout)
-                                        .setVisibility(View.VISIBLE);
-                                // [END_EXCLUDE]
-                            }
+                            // true to show Android Pay buttons, false to show a message that
+                            // Android Pay cannot be used yet and a traditional checkout button
+                            callback.onResult(booleanResult.getValue());
                         } else {
                             // Error making isReadyToPay call
-                            Log.e(TAG, "isReadyToPay:" + booleanResult.getStatus());
+                            callback.onError(booleanResult.getStatus().getStatusCode());
                         }
                     }
                 });
         // [END is_ready_to_pay]
     }
 
+    private void onReadyToPayAnswered(long startNanos) {
+        long latencyNanos = System.nanoTime() - startNanos;
+        BikestoreApplication application = (BikestoreApplication) getApplication();
+        application.getReadyToPayStats().recordCall(latencyNanos);
+        application.getCheckoutTracer().record(CheckoutTracer.STAGE_READY_TO_PAY, latencyNanos);
+        mHandler.removeCallbacks(mReadyToPayDeadline);
+        hideProgressDialog();
+    }
+
+    private void showReadyToPay(boolean isReadyToPay) {
+        if (mStateSaved) {
+            // The wallet fragment cannot be committed any more, wait for onResumeFragments
+            mPendingReadyToPay = isReadyToPay;
+            return;
+        }
+        if (mIsReadyToPayShown != null && mIsReadyToPayShown == isReadyToPay) {
+            // Already showing the right buttons, e.g. a cached result was confirmed
+            return;
+        }
+        mIsReadyToPayShown = isReadyToPay;
+
+        if (isReadyToPay) {
+            createAndAddWalletFragment();
+            findViewById(R.id.layout_android_pay_checkout).setVisibility(View.VISIBLE);
+            findViewById(R.id.android_pay_message).setVisibility(View.GONE);
+            findViewById(R.id.button_regular_checkout).setVisibility(View.GONE);
+        } else {
+            findViewById(R.id.layout_android_pay_checkout).setVisibility(View.GONE);
+            findViewById(R.id.android_pay_message).setVisibility(View.VISIBLE);
+            findViewById(R.id.button_regular_checkout).setVisibility(View.VISIBLE);
+        }
+    }
+
+    /**
+     * Offers the regular checkout button while it is not known whether the user can use
+     * Android Pay. {@link #showReadyToPay(boolean)} replaces it if a result comes in later.
+     */
+    private void showRegularCheckoutFallback() {
+        hideProgressDialog();
+        if (mIsReadyToPayShown != null) {
+            return;
+        }
+        findViewById(R.id.layout_android_pay_checkout).setVisibility(View.GONE);
+        findViewById(R.id.android_pay_message).setVisibility(View.GONE);
+        findViewById(R.id.button_regular_checkout).setVisibility(View.VISIBLE);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        mStateSaved = true;
+    }
+
+    @Override
+    protected void onResumeFragments() {
+        super.onResumeFragments();
+        mStateSaved = false;
+        if (mPendingReadyToPay != null) {
+            boolean isReadyToPay = mPendingReadyToPay;
+            mPendingReadyToPay = null;
+            showReadyToPay(isReadyToPay);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mDestroyed = true;
+        mHandler.removeCallbacks(mReadyToPayDeadline);
+        if (mProgressDialog != null) {
+            mProgressDialog.dismiss();
+        }
+        BikestoreApplication application = (BikestoreApplication) getApplication();
+        ReadyToPayStats stats = application.getReadyToPayStats();
+        application.getEventLog().log(EventLog.EVENT_READY_TO_PAY_STATS,
+                stats.getLatency().getCount(), stats.getDeadlineExceededCount());
+        mGoogleApiClient.unregisterConnectionFailedListener(this);
+        ((BikestoreApplication) getApplication()).getApiClientManager()
+                .release(GoogleApiClientManager.CLIENT_WALLET);
+    }
+
     // [START on_activity_result]
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
@@ -141,9 +303,14 @@ public class CheckoutActivity extends BikestoreFragmentActivity implements
         }
         switch (requestCode) {
             case REQUEST_CODE_MASKED_WALLET:
+                ((BikestoreApplication) getApplication()).getMetricsRegistry()
+                        .increment(MetricsRegistry.MASKED_WALLET_RESULT, resultCode);
                 switch (resultCode) {
                     case Activity.RESULT_OK:
                         if (data != null) {
+                            ((BikestoreApplication) getApplication()).getCheckoutTracer()
+                                    .endAndBegin(CheckoutTracer.STAGE_MASKED_WALLET,
+                                            CheckoutTracer.STAGE_CONFIRMATION);
                             MaskedWallet maskedWallet =
                                     data.getParcelableExtra(WalletConstants.EXTRA_MASKED_WALLET);
                             launchConfirmationPage(maskedWallet);
@@ -159,6 +326,13 @@ public class CheckoutActivity extends BikestoreFragmentActivity implements
                         break;
                 }
                 break;
+            case REQUEST_CODE_RESOLVE_ERR:
+                mResolvingError = false;
+                if (resultCode == Activity.RESULT_OK) {
+                    ((BikestoreApplication) getApplication()).getApiClientManager()
+                            .reconnect(GoogleApiClientManager.CLIENT_WALLET);
+                }
+                break;
             default:
                 super.onActivityResult(requestCode, resultCode, data);
                 break;
@@ -209,34 +383,23 @@ public class CheckoutActivity extends BikestoreFragmentActivity implements
     }
 
     private void createAndAddWalletFragment() {
-        // [START fragment_style_and_options]
-        WalletFragmentStyle walletFragmentStyle = new WalletFragmentStyle()
-                .setBuyButtonText(WalletFragmentStyle.BuyButtonText.BUY_WITH)
-                .setBuyButtonAppearance(WalletFragmentStyle.BuyButtonAppearance.ANDROID_PAY_DARK)
-                .setBuyButtonWidth(WalletFragmentStyle.Dimension.MATCH_PARENT);
+        mWalletFragment = SupportWalletFragment.newInstance(getBuyButtonOptions());
 
-        WalletFragmentOptions walletFragmentOptions = WalletFragmentOptions.newBuilder()
-                .setEnvironment(Constants.WALLET_ENVIRONMENT)
-                .setFragmentStyle(walletFragmentStyle)
-                .setTheme(WalletConstants.THEME_LIGHT)
-                .setMode(WalletFragmentMode.BUY_BUTTON)
-                .build();
-        mWalletFragment = SupportWalletFragment.newInstance(walletFragmentOptions);
-        // [END fragment_style_and_options]
-
-        // Now initialize the Wallet Fragment
-        String accountName = ((BikestoreApplication) getApplication()).getAccountName();
+        // Now initialize the Wallet Fragment. Requests are cached by the application, so
+        // toggling the processor or recreating this activity reuses an already built request.
+        BikestoreApplication application = (BikestoreApplication) getApplication();
+        String accountName = application.getAccountName();
+        MaskedWalletRequestCache requestCache = application.getMaskedWalletRequestCache();
+        ShoppingCart cart = ShoppingCart.of(application.getCatalogStore().getItem(mItemId));
         MaskedWalletRequest maskedWalletRequest;
         if (mUseStripe) {
             // Stripe integration
-            maskedWalletRequest = WalletUtil.createStripeMaskedWalletRequest(
-                    Constants.ITEMS_FOR_SALE[mItemId],
+            maskedWalletRequest = requestCache.getStripeRequest(cart,
                     getString(R.string.stripe_publishable_key),
                     getString(R.string.stripe_version));
         } else {
             // Direct integration
-            maskedWalletRequest = WalletUtil.createMaskedWalletRequest(
-                    Constants.ITEMS_FOR_SALE[mItemId],
+            maskedWalletRequest = requestCache.getDirectRequest(cart,
                     getString(R.string.public_key));
         }
 
@@ -252,6 +415,44 @@ public class CheckoutActivity extends BikestoreFragmentActivity implements
                 .replace(R.id.dynamic_wallet_button_fragment, mWalletFragment)
                 .commit();
         // [END params_builder]
+
+        mWalletFragment.setOnStateChangedListener(
+                new SupportWalletFragment.OnStateChangedListener() {
+                    @Override
+                    public void onStateChanged(SupportWalletFragment fragment, int oldState,
+                            int newState, Bundle extras) {
+                        // the fragment starts processing when the buy button is tapped
+                        if (newState == WalletFragmentState.PROCESSING) {
+                            ((BikestoreApplication) getApplication()).getCheckoutTracer()
+                                    .begin(CheckoutTracer.STAGE_MASKED_WALLET);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @return the options of the buy button, also built ahead by {@link CheckoutPrewarmer}.
+     *         Must be called on the main thread.
+     */
+    static WalletFragmentOptions getBuyButtonOptions() {
+        if (sBuyButtonOptions == null) {
+            // [START fragment_style_and_options]
+            WalletFragmentStyle walletFragmentStyle = new WalletFragmentStyle()
+                    .setBuyButtonText(WalletFragmentStyle.BuyButtonText.BUY_WITH)
+                    .setBuyButtonAppearance(
+                            WalletFragmentStyle.BuyButtonAppearance.ANDROID_PAY_DARK)
+                    .setBuyButtonWidth(WalletFragmentStyle.Dimension.MATCH_PARENT);
+
+            WalletFragmentOptions walletFragmentOptions = WalletFragmentOptions.newBuilder()
+                    .setEnvironment(Constants.WALLET_ENVIRONMENT)
+                    .setFragmentStyle(walletFragmentStyle)
+                    .setTheme(WalletConstants.THEME_LIGHT)
+                    .setMode(WalletFragmentMode.BUY_BUTTON)
+                    .build();
+            // [END fragment_style_and_options]
+            sBuyButtonOptions = walletFragmentOptions;
+        }
+        return sBuyButtonOptions;
     }
 
     private void launchConfirmationPage(MaskedWallet maskedWallet) {
@@ -269,6 +470,22 @@ public class CheckoutActivity extends BikestoreFragmentActivity implements
     @Override
     public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
         Log.e(TAG, "onConnectionFailed:" + connectionResult.getErrorMessage());
+        ((BikestoreApplication) getApplication()).getMetricsRegistry()
+                .increment(MetricsRegistry.CONNECTION_FAILURE, connectionResult.getErrorCode());
+        if (mResolvingError) {
+            return;
+        }
+        if (connectionResult.hasResolution()) {
+            // e.g. Google Play services needs to be updated, let the user fix it and reconnect
+            try {
+                mResolvingError = true;
+                connectionResult.startResolutionForResult(this, REQUEST_CODE_RESOLVE_ERR);
+                return;
+            } catch (SendIntentException e) {
+                mResolvingError = false;
+                Log.w(TAG, "onConnectionFailed:resolution", e);
+            }
+        }
         Toast.makeText(this, "Google Play Services error", Toast.LENGTH_SHORT).show();
     }
 
@@ -0,0 +1,163 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wallet.fragment.WalletFragmentOptions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Speculatively prepares the checkout page for the item the user is looking at.
+ *
+ * When an item is shown, {@link #prewarm(int, String)} refreshes the cached
+ * {@code isReadyToPay} result if needed and builds the direct integration
+ * {@link com.google.android.gms.wallet.MaskedWalletRequest} for the item in the background, so
+ * that {@link CheckoutActivity} finds both in the application's caches. The buy button
+ * {@link WalletFragmentOptions}, shared by every checkout page, are built at the same time.
+ *
+ * {@link CheckoutActivity} reports each entry through {@link #onCheckoutStarted(int)}; an entry
+ * for the item that was last pre-warmed counts as a hit, anything else as a miss. A pre-warm that
+ * failed, or is older than {@link Constants#READY_TO_PAY_CACHE_TTL_MILLIS}, is forgotten, so it
+ * neither counts as a hit nor keeps the item from being pre-warmed again.
+ *
+ * Enabled with {@link Constants#PREWARM_CHECKOUT}. Must be called on the main thread.
+ */
+public class CheckoutPrewarmer {
+
+    private static final String TAG = "CheckoutPrewarmer";
+
+    private static final int NO_ITEM = -1;
+
+    private final BikestoreApplication mApplication;
+    private int mPrewarmedItemId = NO_ITEM;
+    // SystemClock.elapsedRealtime() of the last pre-warm
+    private long mPrewarmedAtMillis;
+    private boolean mReadyToPayInFlight;
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    public CheckoutPrewarmer(BikestoreApplication application) {
+        mApplication = application;
+    }
+
+    /**
+     * Starts preparing the checkout page for an item.
+     *
+     * @param itemId id of the item in the {@link CatalogStore}
+     * @param publicKey base64-encoded public encryption key used for direct integration.
+     */
+    public void prewarm(final int itemId, final String publicKey) {
+        if (!Constants.PREWARM_CHECKOUT || isPrewarmed(itemId)) {
+            return;
+        }
+        mPrewarmedItemId = itemId;
+        mPrewarmedAtMillis = SystemClock.elapsedRealtime();
+
+        refreshReadyToPay(itemId);
+        CheckoutActivity.getBuyButtonOptions();
+
+        final ShoppingCart cart = ShoppingCart.of(mApplication.getCatalogStore().getItem(itemId));
+        mApplication.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mApplication.getMaskedWalletRequestCache().getDirectRequest(cart, publicKey);
+                } catch (IllegalArgumentException e) {
+                    // Not configured, CheckoutActivity reports this when it builds the request
+                    Log.w(TAG, "prewarm:" + e.getMessage());
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            forget(itemId);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Records whether the checkout page for {@code itemId} was pre-warmed.
+     */
+    public void onCheckoutStarted(int itemId) {
+        if (!Constants.PREWARM_CHECKOUT) {
+            return;
+        }
+
+        if (isPrewarmed(itemId)) {
+            mHitCount.incrementAndGet();
+        } else {
+            mMissCount.incrementAndGet();
+        }
+        mApplication.getEventLog().log(EventLog.EVENT_CHECKOUT_PREWARM, mHitCount.get(),
+                mMissCount.get());
+    }
+
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    public int getMissCount() {
+        return mMissCount.get();
+    }
+
+    private boolean isPrewarmed(int itemId) {
+        return itemId == mPrewarmedItemId && SystemClock.elapsedRealtime() - mPrewarmedAtMillis
+                < Constants.READY_TO_PAY_CACHE_TTL_MILLIS;
+    }
+
+    private void forget(int itemId) {
+        if (itemId == mPrewarmedItemId) {
+            mPrewarmedItemId = NO_ITEM;
+        }
+    }
+
+    private void refreshReadyToPay(final int itemId) {
+        final String accountName = mApplication.getAccountName();
+        if (mReadyToPayInFlight || mApplication.getReadyToPayCache().isFresh(accountName)) {
+            return;
+        }
+
+        mReadyToPayInFlight = true;
+        final GoogleApiClientManager clientManager = mApplication.getApiClientManager();
+        GoogleApiClient client = clientManager.acquire(GoogleApiClientManager.CLIENT_WALLET);
+        new PlayServicesPaymentsProvider(client).isReadyToPay(
+                new PaymentsProvider.Callback<Boolean>() {
+                    @Override
+                    public void onResult(Boolean isReadyToPay) {
+                        mReadyToPayInFlight = false;
+                        clientManager.release(GoogleApiClientManager.CLIENT_WALLET);
+                        mApplication.getReadyToPayCache().put(accountName, isReadyToPay);
+                    }
+
+                    @Override
+                    public void onError(int errorCode) {
+                        mReadyToPayInFlight = false;
+                        clientManager.release(GoogleApiClientManager.CLIENT_WALLET);
+                        forget(itemId);
+                    }
+                });
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times each hop of the checkout funnel, from the checkout page to the order complete page, so
+ * that the hop dominating the time to purchase can be found.
+ *
+ * A stage is timed from {@link #begin(int)} to {@link #end(int)} with {@link System#nanoTime()},
+ * which is monotonic, and the duration is recorded in a {@link LatencyHistogram} per stage. The
+ * stages span several activities, so the tracer lives in the application. Beginning or ending a
+ * stage takes one atomic operation and never allocates; a stage that was not begun is not
+ * recorded when it ends, e.g. when the process was restarted in between.
+ *
+ * The histograms are registered in a {@link MetricsRegistry} as {@code checkout.<stage>}.
+ */
+public class CheckoutTracer {
+
+    /** From calling {@code isReadyToPay} to its result. */
+    public static final int STAGE_READY_TO_PAY = 0;
+    /** From tapping the buy button to the masked wallet result, including the user's choice. */
+    public static final int STAGE_MASKED_WALLET = 1;
+    /** From the masked wallet result to the confirmation page being shown. */
+    public static final int STAGE_CONFIRMATION = 2;
+    /** From calling {@code loadFullWallet} to the full wallet result. */
+    public static final int STAGE_FULL_WALLET = 3;
+    /** From the full wallet result to the order complete page being shown. */
+    public static final int STAGE_ORDER_COMPLETE = 4;
+    /** From the checkout page being created to the order complete page being shown. */
+    public static final int STAGE_TIME_TO_PURCHASE = 5;
+
+    private static final String[] STAGE_NAMES = {
+            "isReadyToPay",
+            "maskedWallet",
+            "confirmation",
+            "loadFullWallet",
+            "orderComplete",
+            "timeToPurchase",
+    };
+
+    public static final int STAGE_COUNT = STAGE_NAMES.length;
+
+    // 0 when the stage has not begun
+    private final AtomicLongArray mBeginNanos = new AtomicLongArray(STAGE_COUNT);
+    private final LatencyHistogram[] mLatencies = new LatencyHistogram[STAGE_COUNT];
+
+    public CheckoutTracer(MetricsRegistry metricsRegistry) {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mLatencies[i] = metricsRegistry.histogram("checkout." + STAGE_NAMES[i]);
+        }
+    }
+
+    /**
+     * Begins timing {@code stage}, restarting it if it had already begun.
+     */
+    public void begin(int stage) {
+        mBeginNanos.set(stage, nonZero(System.nanoTime()));
+    }
+
+    /**
+     * Ends timing {@code stage} and records its duration, if it had begun.
+     *
+     * @return whether a duration was recorded.
+     */
+    public boolean end(int stage) {
+        return endAt(stage, System.nanoTime());
+    }
+
+    /**
+     * Ends {@code endedStage} and begins {@code begunStage} at the same instant, for stages that
+     * follow each other.
+     */
+    public void endAndBegin(int endedStage, int begunStage) {
+        long now = nonZero(System.nanoTime());
+        endAt(endedStage, now);
+        mBeginNanos.set(begunStage, now);
+    }
+
+    /**
+     * Records a duration of {@code stage} measured by the caller.
+     */
+    public void record(int stage, long nanos) {
+        mLatencies[stage].record(nanos);
+    }
+
+    public LatencyHistogram getLatency(int stage) {
+        return mLatencies[stage];
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public void reset() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mBeginNanos.set(i, 0);
+            mLatencies[i].reset();
+        }
+    }
+
+    /**
+     * Writes {@link #toString()} to {@code file}, replacing its content.
+     */
+    public void writeTo(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(toString().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return one line per stage with the summary of its {@link LatencyHistogram}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(STAGE_COUNT * 80);
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            builder.append(STAGE_NAMES[i]).append(": ")
+                    .append(mLatencies[i].toSummaryString()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private boolean endAt(int stage, long now) {
+        long beginNanos = mBeginNanos.getAndSet(stage, 0);
+        if (beginNanos == 0) {
+            return false;
+        }
+        mLatencies[stage].record(now - beginNanos);
+        return true;
+    }
+
+    private static long nonZero(long nanos) {
+        return nanos != 0 ? nanos : 1;
+    }
+}
@@ -49,6 +49,13 @@ public class ConfirmationActivity extends BikestoreFragmentActivity {
         createAndAddWalletFragment();
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        ((BikestoreApplication) getApplication()).getCheckoutTracer()
+                .end(CheckoutTracer.STAGE_CONFIRMATION);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // no need to show login menu on confirmation screen
@@ -98,6 +105,8 @@ public class ConfirmationActivity extends BikestoreFragmentActivity {
         }
         switch (requestCode) {
             case REQUEST_CODE_CHANGE_MASKED_WALLET:
+                ((BikestoreApplication) getApplication()).getMetricsRegistry()
+                        .increment(MetricsRegistry.CHANGE_MASKED_WALLET_RESULT, resultCode);
                 switch (resultCode) {
                     case Activity.RESULT_OK:
                         if (data != null && data.hasExtra(WalletConstants.EXTRA_MASKED_WALLET)) {
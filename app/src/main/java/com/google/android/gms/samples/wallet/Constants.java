@@ -35,13 +35,33 @@ public class Constants {
 
     public static final String CURRENCY_CODE_USD = "USD";
 
+    // Merchant server processing the payments queued in the TransactionOutbox. 10.0.2.2 is the
+    // host machine as seen from the Android emulator.
+    public static final String MERCHANT_SERVER_URL = "http://10.0.2.2:8080";
+
+    // How long a cached isReadyToPay result is used before checking again in the background
+    public static final long READY_TO_PAY_CACHE_TTL_MILLIS = 5 * 60 * 1000L;
+
+    // How long the checkout page waits for isReadyToPay before offering the regular checkout
+    // button. The Android Pay button is swapped in if the result arrives later. Zero waits for
+    // the result without a deadline.
+    public static final long READY_TO_PAY_DEADLINE_MILLIS = 1500L;
+
+    // How long completed orders are kept in the order journal
+    public static final long ORDER_JOURNAL_RETENTION_MILLIS = 365 * 24 * 60 * 60 * 1000L;
+
+    // Whether to prepare the checkout page in the background while an item is being viewed
+    public static final boolean PREWARM_CHECKOUT = true;
+
     // values to use with KEY_DESCRIPTION
     public static final String DESCRIPTION_LINE_ITEM_SHIPPING = "Shipping";
     public static final String DESCRIPTION_LINE_ITEM_TAX = "Tax";
 
     /**
-     * Sample list of items for sale. The list would normally be fetched from
-     * the merchant's servers.
+     * Sample list of items for sale, written to the catalog file read by {@link CatalogStore}
+     * the first time the app runs. The list would normally be fetched from the merchant's
+     * servers. Items are looked up with {@link BikestoreApplication#getCatalogStore()} rather
+     * than in this array.
      */
     public static final ItemInfo[] ITEMS_FOR_SALE = {
             new ItemInfo("Simple Bike", "Features", 300000000, 9990000, CURRENCY_CODE_USD,
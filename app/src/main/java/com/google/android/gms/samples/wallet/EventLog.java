@@ -0,0 +1,476 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A structured event log for checkout events, in place of debug log lines.
+ *
+ * Events are an event type, two {@code long} arguments and optionally a {@code String} that
+ * already exists, so logging one builds no strings. They are written into a preallocated ring
+ * buffer: a producer claims a slot with a compare-and-set, fills it in and publishes it, without
+ * locking or allocating. If the ring is full the event is dropped and counted rather than making
+ * the producer wait.
+ *
+ * A background thread drains the ring in batches to a compact binary file every
+ * {@value #DRAIN_INTERVAL_MILLIS} milliseconds, or as soon as the ring is half full, which
+ * {@link #readAll(File)} decodes. Each batch starts with the wall clock and monotonic time at
+ * which it was written, so that the monotonic event times can be shown as wall clock times.
+ * When the file grows beyond {@value #MAX_FILE_BYTES} bytes it is moved to {@code <file>.1},
+ * replacing the previous one.
+ *
+ * A batch that cannot be written is dropped and reported to the {@link ErrorListener}, and the
+ * file is opened again for the next batch, cut back to the end of its last complete batch.
+ * Strings longer than {@value #MAX_VALUE_LENGTH} characters are truncated.
+ *
+ * Never log payment credentials: the file is not encrypted.
+ */
+public class EventLog {
+
+    /** A shared client connected; client type, connect time in milliseconds. */
+    public static final int EVENT_CLIENT_CONNECTED = 0;
+    /** The checkout page was entered; prewarm hits, prewarm misses. */
+    public static final int EVENT_CHECKOUT_PREWARM = 1;
+    /** {@code isReadyToPay} returned; 1 if ready or 0. */
+    public static final int EVENT_READY_TO_PAY = 2;
+    /** The checkout page was destroyed; {@code isReadyToPay} calls, deadlines exceeded. */
+    public static final int EVENT_READY_TO_PAY_STATS = 3;
+    /** A {@code loadFullWallet} call was merged into one in flight; calls suppressed so far. */
+    public static final int EVENT_LOAD_FULL_WALLET_SUPPRESSED = 4;
+    // 5 was the payment method token itself, and must not be reused
+    /** Google sign-in returned; 1 if successful or 0, status code. */
+    public static final int EVENT_SIGN_IN = 6;
+    /**
+     * A full wallet was received; length of the payment method token or 0 if there is none, and
+     * the Google transaction id as the string.
+     */
+    public static final int EVENT_FULL_WALLET = 7;
+
+    private static final String[] EVENT_NAMES = {
+            "clientConnected",
+            "checkoutPrewarm",
+            "isReadyToPay",
+            "isReadyToPayStats",
+            "loadFullWalletSuppressed",
+            null,
+            "signIn",
+            "fullWallet",
+    };
+
+    /**
+     * Receives errors writing the file. Called on the drain thread.
+     */
+    public interface ErrorListener {
+        void onError(IOException e);
+    }
+
+    private static final int BATCH_MAGIC = 0x45564C47; // "EVLG"
+    private static final long MAX_FILE_BYTES = 1024 * 1024;
+    private static final long DRAIN_INTERVAL_MILLIS = 1000;
+    // Keeps every string well below the 64 KB writeUTF can write, even at 3 bytes a character
+    private static final int MAX_VALUE_LENGTH = 4096;
+
+    private final int mCapacity;
+    private final int mMask;
+
+    // Slot contents, written by the producer that claimed the slot before publishing it
+    private final int[] mTypes;
+    private final long[] mTimes;
+    private final long[] mArgs0;
+    private final long[] mArgs1;
+    private final String[] mStrings;
+    // Sequence number + 1 of the event last published in each slot
+    private final AtomicLongArray mPublished;
+
+    // Sequence number of the next event to claim
+    private final AtomicLong mHead = new AtomicLong();
+    // Sequence number of the next event to drain, only advanced by the drain thread
+    private volatile long mTail;
+
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mWrittenCount = new AtomicLong();
+
+    private File mFile;
+    private volatile Thread mDrainThread;
+    private volatile boolean mClosed;
+    private volatile ErrorListener mErrorListener;
+
+    // Only accessed on the drain thread
+    private final ByteArrayOutputStream mBatchBytes = new ByteArrayOutputStream(8192);
+    private final DataOutputStream mBatchOut = new DataOutputStream(mBatchBytes);
+    private FileOutputStream mOut;
+
+    /**
+     * @param capacity number of events the ring holds, rounded up to a power of two.
+     */
+    public EventLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mCapacity = size;
+        mMask = size - 1;
+        mTypes = new int[size];
+        mTimes = new long[size];
+        mArgs0 = new long[size];
+        mArgs1 = new long[size];
+        mStrings = new String[size];
+        mPublished = new AtomicLongArray(size);
+    }
+
+    /**
+     * Sets the listener for errors writing the file, e.g. to log them.
+     */
+    public void setErrorListener(ErrorListener listener) {
+        mErrorListener = listener;
+    }
+
+    /**
+     * Starts draining events to {@code file}, including those logged before.
+     */
+    public synchronized void start(File file) {
+        if (mDrainThread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        mFile = file;
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "EventLog");
+        mDrainThread.setDaemon(true);
+        mDrainThread.setPriority(Thread.MIN_PRIORITY);
+        mDrainThread.start();
+    }
+
+    /**
+     * Stops the drain thread after it has written the events logged so far.
+     */
+    public void close() throws InterruptedException {
+        mClosed = true;
+        Thread drainThread = mDrainThread;
+        if (drainThread != null) {
+            LockSupport.unpark(drainThread);
+            drainThread.join();
+        }
+    }
+
+    public void log(int type) {
+        append(type, 0, 0, null);
+    }
+
+    public void log(int type, long arg0) {
+        append(type, arg0, 0, null);
+    }
+
+    public void log(int type, long arg0, long arg1) {
+        append(type, arg0, arg1, null);
+    }
+
+    public void log(int type, String value) {
+        append(type, 0, 0, value);
+    }
+
+    public void log(int type, long arg0, String value) {
+        append(type, arg0, 0, value);
+    }
+
+    /**
+     * @return the number of events dropped because the ring was full or their batch could not be
+     *         written.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * @return the number of events written to the file.
+     */
+    public long getWrittenCount() {
+        return mWrittenCount.get();
+    }
+
+    public static String getEventName(int type) {
+        String name = type >= 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type] : null;
+        return name != null ? name : Integer.toString(type);
+    }
+
+    private void append(int type, long arg0, long arg1, String value) {
+        long sequence;
+        do {
+            sequence = mHead.get();
+            if (sequence - mTail >= mCapacity) {
+                mDroppedCount.incrementAndGet();
+                return;
+            }
+        } while (!mHead.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mMask;
+        mTypes[slot] = type;
+        mTimes[slot] = System.nanoTime();
+        mArgs0[slot] = arg0;
+        mArgs1[slot] = arg1;
+        mStrings[slot] = value;
+        // publishes the slot contents to the drain thread
+        mPublished.lazySet(slot, sequence + 1);
+
+        if (sequence - mTail == mCapacity / 2) {
+            Thread drainThread = mDrainThread;
+            if (drainThread != null) {
+                LockSupport.unpark(drainThread);
+            }
+        }
+    }
+
+    private void drainLoop() {
+        while (!mClosed) {
+            drain();
+            LockSupport.parkNanos(this, DRAIN_INTERVAL_MILLIS * 1000000);
+        }
+        drain();
+        closeFile();
+    }
+
+    /**
+     * Writes the events published since the last drain as one batch. If that fails, the events
+     * are counted as dropped and the file is opened again for the next batch.
+     */
+    private void drain() {
+        long tail = mTail;
+        long head = mHead.get();
+        if (head == tail) {
+            return;
+        }
+
+        try {
+            encodeBatch(tail, head);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw, and values are short enough for writeUTF
+            throw new IllegalStateException(e);
+        }
+        try {
+            if (mOut == null) {
+                openFile();
+            }
+            mBatchBytes.writeTo(mOut);
+            mWrittenCount.addAndGet(head - tail);
+            if (mFile.length() > MAX_FILE_BYTES) {
+                closeFile();
+                File previous = new File(mFile.getPath() + ".1");
+                if (!mFile.renameTo(previous)) {
+                    throw new IOException("Cannot rename " + mFile + " to " + previous);
+                }
+            }
+        } catch (IOException e) {
+            mDroppedCount.addAndGet(head - tail);
+            closeFile();
+            ErrorListener listener = mErrorListener;
+            if (listener != null) {
+                listener.onError(e);
+            }
+        }
+    }
+
+    private void encodeBatch(long tail, long head) throws IOException {
+        mBatchBytes.reset();
+        DataOutputStream out = mBatchOut;
+        out.writeInt(BATCH_MAGIC);
+        out.writeLong(System.currentTimeMillis());
+        out.writeLong(System.nanoTime());
+        out.writeInt((int) (head - tail));
+        for (long sequence = tail; sequence < head; sequence++) {
+            int slot = (int) sequence & mMask;
+            // the producer claimed the slot, it publishes it right after filling it in
+            while (mPublished.get(slot) != sequence + 1) {
+                Thread.yield();
+            }
+            out.writeInt(mTypes[slot]);
+            out.writeLong(mTimes[slot]);
+            out.writeLong(mArgs0[slot]);
+            out.writeLong(mArgs1[slot]);
+            String value = mStrings[slot];
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value.length() > MAX_VALUE_LENGTH
+                        ? value.substring(0, MAX_VALUE_LENGTH) : value);
+                mStrings[slot] = null;
+            }
+            // frees the slot for producers
+            mTail = sequence + 1;
+        }
+    }
+
+    /**
+     * Opens the file for appending, after cutting it back to the end of its last complete batch,
+     * so that a batch cut short does not hide the ones written after it.
+     */
+    private void openFile() throws IOException {
+        if (mFile.exists()) {
+            long validLength = readBatches(mFile, null);
+            if (validLength < mFile.length()) {
+                RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+                try {
+                    file.setLength(validLength);
+                } finally {
+                    file.close();
+                }
+            }
+        }
+        mOut = new FileOutputStream(mFile, true);
+    }
+
+    private void closeFile() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                // every batch was written in full already
+            }
+            mOut = null;
+        }
+    }
+
+    /**
+     * Reads the events written to {@code file}, ignoring a batch cut short by the process
+     * dying while writing it.
+     */
+    public static List<Event> readAll(File file) throws IOException {
+        List<Event> events = new ArrayList<Event>();
+        readBatches(file, events);
+        return events;
+    }
+
+    /**
+     * Reads the batches of {@code file} up to the first one that is incomplete or corrupt.
+     *
+     * @param events receives the events read, may be null.
+     * @return length of the file up to the end of the last complete batch.
+     */
+    private static long readBatches(File file, List<Event> events) throws IOException {
+        CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        DataInputStream in = new DataInputStream(counter);
+        long validLength = 0;
+        try {
+            while (true) {
+                try {
+                    if (in.readInt() != BATCH_MAGIC) {
+                        break;
+                    }
+                    long batchMillis = in.readLong();
+                    long batchNanos = in.readLong();
+                    int count = in.readInt();
+                    if (count < 0) {
+                        break;
+                    }
+                    List<Event> batch = new ArrayList<Event>(Math.min(count, 1024));
+                    for (int i = 0; i < count; i++) {
+                        int type = in.readInt();
+                        long nanos = in.readLong();
+                        long arg0 = in.readLong();
+                        long arg1 = in.readLong();
+                        String value = in.readBoolean() ? in.readUTF() : null;
+                        long timestampMillis = batchMillis - (batchNanos - nanos) / 1000000;
+                        batch.add(new Event(type, timestampMillis, nanos, arg0, arg1, value));
+                    }
+                    if (events != null) {
+                        events.addAll(batch);
+                    }
+                    validLength = counter.mCount;
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return validLength;
+    }
+
+    /**
+     * An event read back from the file.
+     */
+    public static class Event {
+        public final int type;
+        public final long timestampMillis;
+        public final long nanos;
+        public final long arg0;
+        public final long arg1;
+        public final String value;
+
+        Event(int type, long timestampMillis, long nanos, long arg0, long arg1, String value) {
+            this.type = type;
+            this.timestampMillis = timestampMillis;
+            this.nanos = nanos;
+            this.arg0 = arg0;
+            this.arg1 = arg1;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(64)
+                    .append(timestampMillis).append(' ').append(getEventName(type))
+                    .append(' ').append(arg0).append(' ').append(arg1);
+            if (value != null) {
+                builder.append(' ').append(value.replace('\n', ' '));
+            }
+            return builder.toString();
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+    }
+}
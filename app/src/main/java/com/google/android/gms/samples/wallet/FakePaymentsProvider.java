@@ -0,0 +1,298 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link PaymentsProvider} answering in memory, for driving and benchmarking the checkout flow
+ * on a JVM.
+ *
+ * Besides the calls of the interface, the fake simulates {@link #loadMaskedWallet} and
+ * {@link #loadFullWallet}, which the app makes through the fragments and activity results.
+ *
+ * Each kind of call can be given a log-normal latency with {@link #setLatency} and failures with
+ * any error code with {@link #injectError}. Latencies, injected errors and generated
+ * transaction ids only depend on the seed and on how many calls of the same kind came before,
+ * so that a run can be repeated exactly: the n-th {@code loadFullWallet} call of two fakes with
+ * the same seed and configuration gets the same outcome after the same delay, whichever thread
+ * makes it.
+ *
+ * Callbacks run on the scheduler after the latency, or on the calling thread if there is no
+ * scheduler or no latency. Configure the fake before making calls; the calls themselves are
+ * thread-safe.
+ */
+public class FakePaymentsProvider implements PaymentsProvider {
+
+    public static final int CALL_IS_READY_TO_PAY = 0;
+    public static final int CALL_LOAD_MASKED_WALLET = 1;
+    public static final int CALL_LOAD_FULL_WALLET = 2;
+    public static final int CALL_NOTIFY_TRANSACTION_STATUS = 3;
+    private static final int CALL_COUNT = 4;
+
+    // no error code of PaymentsProvider is 0
+    private static final int NO_ERROR = 0;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The parts of a {@code MaskedWallet} used during checkout.
+     */
+    public static class MaskedWalletInfo {
+        public final String googleTransactionId;
+        public final String merchantTransactionId;
+        public final String email;
+
+        public MaskedWalletInfo(String googleTransactionId, String merchantTransactionId,
+                String email) {
+            this.googleTransactionId = googleTransactionId;
+            this.merchantTransactionId = merchantTransactionId;
+            this.email = email;
+        }
+    }
+
+    /**
+     * The parts of a {@code FullWallet} used during checkout.
+     */
+    public static class FullWalletInfo {
+        public final String googleTransactionId;
+        public final String merchantTransactionId;
+        public final String email;
+        /** The payment method token as a JSON string, {@code null} if there is none. */
+        public final String paymentMethodToken;
+
+        public FullWalletInfo(String googleTransactionId, String merchantTransactionId,
+                String email, String paymentMethodToken) {
+            this.googleTransactionId = googleTransactionId;
+            this.merchantTransactionId = merchantTransactionId;
+            this.email = email;
+            this.paymentMethodToken = paymentMethodToken;
+        }
+    }
+
+    /**
+     * Creates the payment method tokens of full wallets, e.g. tokens encrypted with the
+     * merchant's public key.
+     */
+    public interface TokenFactory {
+        String createToken(String googleTransactionId, ShoppingCart cart);
+    }
+
+    private final long mSeed;
+    private final ScheduledExecutorService mScheduler;
+
+    private final long[] mMedianLatencyMicros = new long[CALL_COUNT];
+    private final double[] mLatencySigmas = new double[CALL_COUNT];
+    private final int[][] mErrorCodes = new int[CALL_COUNT][0];
+    // cumulative, so that one uniform draw picks at most one error
+    private final double[][] mErrorThresholds = new double[CALL_COUNT][0];
+
+    private boolean mReadyToPay = true;
+    private String mAccountEmail = "user@example.com";
+    private TokenFactory mTokenFactory;
+
+    private final AtomicLongArray mCallCounts = new AtomicLongArray(CALL_COUNT);
+    private final AtomicLongArray mErrorCounts = new AtomicLongArray(CALL_COUNT);
+
+    /**
+     * @param seed seed of all random choices.
+     * @param scheduler runs callbacks after their latency, or {@code null} to answer every call
+     *                  right away on the calling thread.
+     */
+    public FakePaymentsProvider(long seed, ScheduledExecutorService scheduler) {
+        mSeed = seed;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Delays answers to one kind of call by a log-normal latency.
+     *
+     * @param call one of the {@code CALL_*} constants.
+     * @param medianMicros median latency, 0 to answer right away.
+     * @param sigma standard deviation of the logarithm of the latency, 0 for a constant latency.
+     *              1 makes the 99th percentile about ten times the median.
+     */
+    public void setLatency(int call, long medianMicros, double sigma) {
+        mMedianLatencyMicros[call] = medianMicros;
+        mLatencySigmas[call] = sigma;
+    }
+
+    /**
+     * Fails a share of one kind of call with the given error code. Several error codes can be
+     * injected for the same call, as long as their probabilities add up to at most 1.
+     *
+     * @param call one of the {@code CALL_*} constants. Injecting errors into
+     *             {@link #CALL_NOTIFY_TRANSACTION_STATUS}, which has no callback, only counts them.
+     * @param errorCode e.g. {@link #ERROR_CODE_SERVICE_UNAVAILABLE} or
+     *                  {@link #ERROR_CODE_CANCELED}.
+     * @param probability between 0 and 1.
+     */
+    public void injectError(int call, int errorCode, double probability) {
+        if (errorCode == NO_ERROR) {
+            throw new IllegalArgumentException("Error code 0 is not an error");
+        }
+        int count = mErrorCodes[call].length;
+        double total = (count == 0 ? 0 : mErrorThresholds[call][count - 1]) + probability;
+        if (probability < 0 || total > 1) {
+            throw new IllegalArgumentException("Error probabilities of call " + call
+                    + " add up to " + total);
+        }
+        mErrorCodes[call] = Arrays.copyOf(mErrorCodes[call], count + 1);
+        mErrorCodes[call][count] = errorCode;
+        mErrorThresholds[call] = Arrays.copyOf(mErrorThresholds[call], count + 1);
+        mErrorThresholds[call][count] = total;
+    }
+
+    public void setReadyToPay(boolean readyToPay) {
+        mReadyToPay = readyToPay;
+    }
+
+    public void setAccountEmail(String accountEmail) {
+        mAccountEmail = accountEmail;
+    }
+
+    /**
+     * @param tokenFactory creates payment method tokens, or {@code null} for a Stripe-like
+     *                     {@code {"id": "tok_<googleTransactionId>"}}.
+     */
+    public void setTokenFactory(TokenFactory tokenFactory) {
+        mTokenFactory = tokenFactory;
+    }
+
+    /**
+     * @return the number of calls of the given kind made so far.
+     */
+    public long getCallCount(int call) {
+        return mCallCounts.get(call);
+    }
+
+    /**
+     * @return the number of calls of the given kind failed with an injected error.
+     */
+    public long getErrorCount(int call) {
+        return mErrorCounts.get(call);
+    }
+
+    @Override
+    public void isReadyToPay(Callback<Boolean> callback) {
+        long sequence = mCallCounts.getAndIncrement(CALL_IS_READY_TO_PAY);
+        answer(CALL_IS_READY_TO_PAY, sequence, callback, mReadyToPay);
+    }
+
+    /**
+     * Simulates the user picking a payment method and shipping address for {@code cart}.
+     */
+    public void loadMaskedWallet(ShoppingCart cart, Callback<MaskedWalletInfo> callback) {
+        long sequence = mCallCounts.getAndIncrement(CALL_LOAD_MASKED_WALLET);
+        String googleTransactionId = "FAKE-" + Long.toHexString(mSeed) + "-" + sequence;
+        answer(CALL_LOAD_MASKED_WALLET, sequence, callback,
+                new MaskedWalletInfo(googleTransactionId, null, mAccountEmail));
+    }
+
+    /**
+     * Simulates getting the payment credentials for {@code cart}, in the transaction started by
+     * {@link #loadMaskedWallet}.
+     */
+    public void loadFullWallet(ShoppingCart cart, String googleTransactionId,
+            Callback<FullWalletInfo> callback) {
+        long sequence = mCallCounts.getAndIncrement(CALL_LOAD_FULL_WALLET);
+        String token = mTokenFactory != null
+                ? mTokenFactory.createToken(googleTransactionId, cart)
+                : "{\"id\":\"tok_" + googleTransactionId + "\"}";
+        answer(CALL_LOAD_FULL_WALLET, sequence, callback,
+                new FullWalletInfo(googleTransactionId, null, mAccountEmail, token));
+    }
+
+    @Override
+    public void notifyTransactionStatus(String googleTransactionId, int status) {
+        long sequence = mCallCounts.getAndIncrement(CALL_NOTIFY_TRANSACTION_STATUS);
+        pickError(CALL_NOTIFY_TRANSACTION_STATUS, random(CALL_NOTIFY_TRANSACTION_STATUS, sequence));
+    }
+
+    private <T> void answer(int call, long sequence, final Callback<T> callback, final T result) {
+        long random = random(call, sequence);
+        final int errorCode = pickError(call, random);
+        Runnable answer = new Runnable() {
+            @Override
+            public void run() {
+                if (errorCode == NO_ERROR) {
+                    callback.onResult(result);
+                } else {
+                    callback.onError(errorCode);
+                }
+            }
+        };
+
+        long latencyMicros = sampleLatencyMicros(call, mix64(random));
+        if (mScheduler == null || latencyMicros == 0) {
+            answer.run();
+        } else {
+            mScheduler.schedule(answer, latencyMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private int pickError(int call, long random) {
+        double[] thresholds = mErrorThresholds[call];
+        double uniform = toUnitInterval(random);
+        for (int i = 0; i < thresholds.length; i++) {
+            if (uniform < thresholds[i]) {
+                mErrorCounts.incrementAndGet(call);
+                return mErrorCodes[call][i];
+            }
+        }
+        return NO_ERROR;
+    }
+
+    private long sampleLatencyMicros(int call, long random) {
+        long median = mMedianLatencyMicros[call];
+        double sigma = mLatencySigmas[call];
+        if (median == 0 || sigma == 0) {
+            return median;
+        }
+        // Box-Muller transform of two uniform draws into a standard normal one
+        double u1 = toUnitInterval(random);
+        double u2 = toUnitInterval(mix64(random));
+        double normal = Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+        return Math.round(median * Math.exp(sigma * normal));
+    }
+
+    /**
+     * @return the random bits of the {@code sequence}-th call of kind {@code call}.
+     */
+    private long random(int call, long sequence) {
+        return mix64(mSeed + GOLDEN_GAMMA * (sequence * CALL_COUNT + call + 1));
+    }
+
+    /**
+     * The SplitMix64 finalizer, which turns consecutive inputs into unrelated outputs.
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return a double in (0, 1].
+     */
+    private static double toUnitInterval(long random) {
+        return ((random >>> 11) + 1) * 0x1.0p-53;
+    }
+}
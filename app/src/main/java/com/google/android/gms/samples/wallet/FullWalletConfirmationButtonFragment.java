@@ -20,6 +20,8 @@ import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.util.Log;
@@ -28,6 +30,7 @@ import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.Toast;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -39,6 +42,11 @@ import com.google.android.gms.wallet.PaymentMethodToken;
 import com.google.android.gms.wallet.Wallet;
 import com.google.android.gms.wallet.WalletConstants;
 
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 /**
  * This is a fragment that handles the creating and sending of a {@link FullWalletRequest} using
  * {@link Wallet#loadFullWallet(GoogleApiClient, FullWalletRequest, int)}. This fragment renders
@@ -65,6 +73,27 @@ public class FullWalletConfirmationButtonFragment extends Fragment implements
     private Button mConfirmButton;
     private MaskedWallet mMaskedWallet;
     private Intent mActivityLaunchIntent;
+    // Built in the background while the confirmation page is showing
+    private Future<FullWalletRequest> mFullWalletRequest;
+    // Google transaction id of the loadFullWallet call this fragment waits for, if any
+    private String mLoadFullWalletTransactionId;
+    // Whether this fragment started the loadFullWallet call it waits for
+    private boolean mOwnsLoadFullWallet;
+    private final SingleFlight.Listener<LoadFullWalletResult> mLoadFullWalletListener =
+            new SingleFlight.Listener<LoadFullWalletResult>() {
+                @Override
+                public void onResult(LoadFullWalletResult result) {
+                    mLoadFullWalletTransactionId = null;
+                    if (mOwnsLoadFullWallet) {
+                        mOwnsLoadFullWallet = false;
+                        handleLoadFullWalletResult(result.resultCode, result.data);
+                    } else if (mProgressDialog != null && mProgressDialog.isShowing()) {
+                        // Only the page that started the call submits the payment and moves on,
+                        // which also clears this page from the task
+                        mProgressDialog.hide();
+                    }
+                }
+            };
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -73,6 +102,8 @@ public class FullWalletConfirmationButtonFragment extends Fragment implements
         mActivityLaunchIntent = getActivity().getIntent();
         mItemId = mActivityLaunchIntent.getIntExtra(Constants.EXTRA_ITEM_ID, 0);
         mMaskedWallet = mActivityLaunchIntent.getParcelableExtra(Constants.EXTRA_MASKED_WALLET);
+        mItemInfo = getApplication().getCatalogStore().getItem(mItemId);
+        prepareFullWalletRequest();
 
         String accountName = getApplication().getAccountName();
 
@@ -98,7 +129,6 @@ public class FullWalletConfirmationButtonFragment extends Fragment implements
         initializeProgressDialog();
         View view = inflater.inflate(R.layout.fragment_full_wallet_confirmation_button, container,
                 false);
-        mItemInfo = Constants.ITEMS_FOR_SALE[mItemId];
 
         mConfirmButton = (Button) view.findViewById(R.id.button_place_order);
         mConfirmButton.setOnClickListener(this);
@@ -118,9 +148,24 @@ public class FullWalletConfirmationButtonFragment extends Fragment implements
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mFullWalletRequest != null) {
+            mFullWalletRequest.cancel(false);
+        }
+        if (mLoadFullWalletTransactionId != null) {
+            getApplication().getLoadFullWalletFlights().leave(mLoadFullWalletTransactionId,
+                    mLoadFullWalletListener);
+            mLoadFullWalletTransactionId = null;
+        }
+    }
+
     @Override
     public void onConnectionFailed(ConnectionResult result) {
         Log.e(TAG, "Google Play Services Error: " + result.getErrorMessage());
+        getApplication().getMetricsRegistry().increment(MetricsRegistry.CONNECTION_FAILURE,
+                result.getErrorCode());
         handleError(result.getErrorCode());
 
         if (mProgressDialog != null && mProgressDialog.isShowing()) {
@@ -137,44 +182,91 @@ public class FullWalletConfirmationButtonFragment extends Fragment implements
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         mProgressDialog.hide();
 
+        switch (requestCode) {
+            case REQUEST_CODE_RESOLVE_LOAD_FULL_WALLET:
+                getApplication().getCheckoutTracer().end(CheckoutTracer.STAGE_FULL_WALLET);
+                getApplication().getMetricsRegistry().increment(
+                        MetricsRegistry.FULL_WALLET_RESULT, resultCode);
+                // Replay the result to every fragment waiting for this transaction, of which only
+                // the one that started the call handles it. A fragment recreated since the call
+                // started is not waiting, so it handles the result here.
+                String transactionId = mLoadFullWalletTransactionId != null
+                        ? mLoadFullWalletTransactionId : mMaskedWallet.getGoogleTransactionId();
+                boolean isWaiting = mLoadFullWalletTransactionId != null;
+                getApplication().getLoadFullWalletFlights().complete(transactionId,
+                        new LoadFullWalletResult(resultCode, data));
+                if (!isWaiting) {
+                    handleLoadFullWalletResult(resultCode, data);
+                }
+                break;
+        }
+    }
+
+    private void handleLoadFullWalletResult(int resultCode, Intent data) {
+        if (mProgressDialog != null && mProgressDialog.isShowing()) {
+            mProgressDialog.hide();
+        }
+
         // retrieve the error code, if available
         int errorCode = -1;
         if (data != null) {
             errorCode = data.getIntExtra(WalletConstants.EXTRA_ERROR_CODE, -1);
         }
 
-        switch (requestCode) {
-            case REQUEST_CODE_RESOLVE_LOAD_FULL_WALLET:
-                switch (resultCode) {
-                    case Activity.RESULT_OK:
-                        if (data != null && data.hasExtra(WalletConstants.EXTRA_FULL_WALLET)) {
-                            FullWallet fullWallet = data.getParcelableExtra(WalletConstants.EXTRA_FULL_WALLET);
-                            // the full wallet can now be used to process the customer's payment
-                            // send the wallet info up to server to process, and to get the result
-                            // for sending a transaction status
-                            fetchTransactionStatus(fullWallet);
-                        } else if (data != null && data.hasExtra(WalletConstants.EXTRA_MASKED_WALLET)) {
-                            // re-launch the activity with new masked wallet information
-                            mMaskedWallet =  data.getParcelableExtra(WalletConstants.EXTRA_MASKED_WALLET);
-                            mActivityLaunchIntent.putExtra(Constants.EXTRA_MASKED_WALLET,
-                                    mMaskedWallet);
-                            startActivity(mActivityLaunchIntent);
-                        }
-                        break;
-                    case Activity.RESULT_CANCELED:
-                        // nothing to do here
-                        break;
-                    default:
-                        handleError(errorCode);
-                        break;
+        switch (resultCode) {
+            case Activity.RESULT_OK:
+                if (data != null && data.hasExtra(WalletConstants.EXTRA_FULL_WALLET)) {
+                    FullWallet fullWallet = data.getParcelableExtra(WalletConstants.EXTRA_FULL_WALLET);
+                    // the full wallet can now be used to process the customer's payment
+                    // send the wallet info up to server to process, and to get the result
+                    // for sending a transaction status
+                    fetchTransactionStatus(fullWallet);
+                } else if (data != null && data.hasExtra(WalletConstants.EXTRA_MASKED_WALLET)) {
+                    // re-launch the activity with new masked wallet information
+                    mMaskedWallet =  data.getParcelableExtra(WalletConstants.EXTRA_MASKED_WALLET);
+                    mActivityLaunchIntent.putExtra(Constants.EXTRA_MASKED_WALLET,
+                            mMaskedWallet);
+                    startActivity(mActivityLaunchIntent);
                 }
                 break;
+            case Activity.RESULT_CANCELED:
+                // nothing to do here
+                break;
+            default:
+                handleError(errorCode);
+                break;
         }
     }
     // [END on_activity_result]
 
     public void updateMaskedWallet(MaskedWallet maskedWallet) {
         mMaskedWallet = maskedWallet;
+        prepareFullWalletRequest();
+    }
+
+    /**
+     * Starts building the {@link FullWalletRequest} for the current {@link MaskedWallet} in the
+     * background, so that placing the order only has to call
+     * {@link Wallet#loadFullWallet(GoogleApiClient, FullWalletRequest, int)}.
+     */
+    private void prepareFullWalletRequest() {
+        if (mFullWalletRequest != null) {
+            mFullWalletRequest.cancel(false);
+            mFullWalletRequest = null;
+        }
+        if (mMaskedWallet == null) {
+            return;
+        }
+
+        final ItemInfo itemInfo = mItemInfo;
+        final String googleTransactionId = mMaskedWallet.getGoogleTransactionId();
+        mFullWalletRequest = getApplication().getBackgroundExecutor().submit(
+                new Callable<FullWalletRequest>() {
+                    @Override
+                    public FullWalletRequest call() {
+                        return WalletUtil.createFullWalletRequest(itemInfo, googleTransactionId);
+                    }
+                });
     }
 
     /**
@@ -192,6 +284,7 @@ public class FullWalletConfirmationButtonFragment extends Fragment implements
     }
 
     private void handleError(int errorCode) {
+        getApplication().getMetricsRegistry().increment(MetricsRegistry.WALLET_ERROR, errorCode);
         switch (errorCode) {
             case WalletConstants.ERROR_CODE_SPENDING_LIMIT_EXCEEDED:
                 // may be recoverable if the user tries to lower their charge
@@ -211,15 +304,43 @@ public class FullWalletConfirmationButtonFragment extends Fragment implements
     }
 
     private void confirmPurchase() {
-        getFullWallet();
+        // Merge double taps, and taps in other confirmation pages for the same transaction, into
+        // the loadFullWallet call already in flight
+        String transactionId = mMaskedWallet.getGoogleTransactionId();
+        SingleFlight<String, LoadFullWalletResult> flights =
+                getApplication().getLoadFullWalletFlights();
+        mLoadFullWalletTransactionId = transactionId;
+        if (flights.join(transactionId, mLoadFullWalletListener)) {
+            mOwnsLoadFullWallet = true;
+            getFullWallet();
+        } else {
+            getApplication().getEventLog().log(EventLog.EVENT_LOAD_FULL_WALLET_SUPPRESSED,
+                    flights.getSuppressedCount());
+        }
         mProgressDialog.setCancelable(false);
         mProgressDialog.show();
     }
 
     private void getFullWallet() {
-        FullWalletRequest fullWalletRequest = WalletUtil.createFullWalletRequest(mItemInfo,
-                mMaskedWallet.getGoogleTransactionId());
+        FullWalletRequest fullWalletRequest = null;
+        if (mFullWalletRequest != null && mFullWalletRequest.isDone()
+                && !mFullWalletRequest.isCancelled()) {
+            try {
+                fullWalletRequest = mFullWalletRequest.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Failed to prepare FullWalletRequest", e.getCause());
+            }
+        }
+
+        if (fullWalletRequest == null) {
+            // Not ready yet, build it here rather than wait on the background thread
+            fullWalletRequest = WalletUtil.createFullWalletRequest(mItemInfo,
+                    mMaskedWallet.getGoogleTransactionId());
+        }
 
+        getApplication().getCheckoutTracer().begin(CheckoutTracer.STAGE_FULL_WALLET);
         // [START load_full_wallet]
         Wallet.Payments.loadFullWallet(mGoogleApiClient, fullWalletRequest,
                 REQUEST_CODE_RESOLVE_LOAD_FULL_WALLET);
@@ -230,14 +351,13 @@ public class FullWalletConfirmationButtonFragment extends Fragment implements
      * Here the client should connect to their server, process the credit card/instrument
      * and get back a status indicating whether charging the card was successful or not
      */
-    private void fetchTransactionStatus(FullWallet fullWallet) {
-        if (mProgressDialog.isShowing()) {
-            mProgressDialog.dismiss();
-        }
+    private void fetchTransactionStatus(final FullWallet fullWallet) {
+        getApplication().getCheckoutTracer().begin(CheckoutTracer.STAGE_ORDER_COMPLETE);
 
-        // Log payment method token, if it exists. This token will either be a direct integration
-        // token or a Stripe token, depending on the method used when making the MaskedWalletRequest
+        // The payment method token, if it exists, will either be a direct integration token or a
+        // Stripe token, depending on the method used when making the MaskedWalletRequest
         PaymentMethodToken token = fullWallet.getPaymentMethodToken();
+        int tokenLength = 0;
         if (token != null) {
             // getToken returns a JSON object as a String.
             //
@@ -251,18 +371,73 @@ public class FullWalletConfirmationButtonFragment extends Fragment implements
             // }
             // See the Android Pay documentation for more information on how to decrypt the token.
 
-            // Pretty-print the token to LogCat (newlines replaced with spaces).
-            Log.d(TAG, "PaymentMethodToken:" + token.getToken().replace('\n', ' '));
+            // It is sent to the merchant server below, but never logged.
+            tokenLength = token.getToken().length();
         }
+        getApplication().getEventLog().log(EventLog.EVENT_FULL_WALLET, tokenLength,
+                fullWallet.getGoogleTransactionId());
 
-        // TODO: Send details such as fullWallet.getProxyCard() or fullWallet.getBillingAddress()
-        //       to your server and get back success or failure. If you used Stripe for processing,
-        //       you can get the token from fullWallet.getPaymentMethodToken()
+        // Queue the payment for the merchant server. The outbox keeps it on disk until the server
+        // has processed it, then notifies Google of the transaction status the server returned.
+        // The order is only complete once the payment is on disk.
+        mProgressDialog.setCancelable(false);
+        mProgressDialog.show();
+        final BikestoreApplication application = getApplication();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        application.getTransactionOutbox().submit(fullWallet.getGoogleTransactionId(),
+                createPaymentJson(fullWallet), new TransactionOutbox.SubmitCallback() {
+                    @Override
+                    public void onSubmitted(String googleTransactionId) {
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                showOrderComplete(application, fullWallet);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onError(String googleTransactionId, final IOException e) {
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                // not a Wallet error: the payment never left this device, so
+                                // nothing was charged and the user can confirm again
+                                Log.e(TAG, "Cannot queue payment", e);
+                                application.getMetricsRegistry()
+                                        .counter(MetricsRegistry.OUTBOX_SUBMIT_FAILURE)
+                                        .increment();
+                                if (isAdded()) {
+                                    mProgressDialog.hide();
+                                    Toast.makeText(getActivity(), R.string.payment_not_saved,
+                                            Toast.LENGTH_LONG).show();
+                                }
+                            }
+                        });
+                    }
+                });
+    }
 
-        Intent intent = new Intent(getActivity(), OrderCompleteActivity.class);
+    private void showOrderComplete(BikestoreApplication application, FullWallet fullWallet) {
+        if (isAdded()) {
+            mProgressDialog.hide();
+        }
+        // Started from the application if this page was recreated while the payment was written
+        Intent intent = new Intent(application, OrderCompleteActivity.class);
         intent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK | Intent.FLAG_ACTIVITY_NEW_TASK);
         intent.putExtra(Constants.EXTRA_FULL_WALLET, fullWallet);
-        startActivity(intent);
+        intent.putExtra(Constants.EXTRA_ITEM_ID, mItemId);
+        application.startActivity(intent);
+    }
+
+    /**
+     * @return the details of the payment to send to the merchant server, as a JSON object.
+     */
+    private String createPaymentJson(FullWallet fullWallet) {
+        PaymentMethodToken token = fullWallet.getPaymentMethodToken();
+        return PaymentJson.create(fullWallet.getGoogleTransactionId(),
+                fullWallet.getMerchantTransactionId(), mItemInfo,
+                token != null ? token.getToken() : null);
     }
 
     protected void initializeProgressDialog() {
@@ -270,4 +445,18 @@ public class FullWalletConfirmationButtonFragment extends Fragment implements
         mProgressDialog.setMessage(getString(R.string.loading));
         mProgressDialog.setIndeterminate(true);
     }
+
+    /**
+     * Result of a {@link Wallet#loadFullWallet(GoogleApiClient, FullWalletRequest, int)} call, as
+     * delivered to {@link #onActivityResult(int, int, Intent)}.
+     */
+    public static class LoadFullWalletResult {
+        final int resultCode;
+        final Intent data;
+
+        LoadFullWalletResult(int resultCode, Intent data) {
+            this.resultCode = resultCode;
+            this.data = data;
+        }
+    }
 }
@@ -0,0 +1,239 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.auth.api.Auth;
+import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.Scope;
+import com.google.android.gms.wallet.Wallet;
+
+/**
+ * Owns the {@link GoogleApiClient}s shared by every screen of the app.
+ *
+ * The clients are built with the application context and start connecting when the app starts,
+ * so a screen that {@link #acquire(int) acquires} one usually gets a client that is already
+ * connected instead of paying for a new Google Play services connection. Each client is
+ * reference counted and disconnected once nothing has used it for
+ * {@link #IDLE_DISCONNECT_MILLIS}, so a screen that is recreated, or a short-lived user such as
+ * {@link CheckoutPrewarmer}, does not tear down a connection the next screen needs.
+ *
+ * Calls that launch UI on behalf of an Activity, such as
+ * {@code Wallet.Payments.loadFullWallet} or {@code Address.requestUserAddress}, need a client
+ * built with that Activity, so {@link FullWalletConfirmationButtonFragment} and
+ * {@link PromoAddressLookupFragment} keep their own clients.
+ *
+ * All methods must be called on the main thread.
+ */
+public class GoogleApiClientManager {
+
+    private static final String TAG = "GoogleApiClientManager";
+
+    /**
+     * Client for {@link Wallet#API}, e.g. for {@code Wallet.Payments.isReadyToPay}
+     */
+    public static final int CLIENT_WALLET = 0;
+
+    /**
+     * Client for {@link Auth#GOOGLE_SIGN_IN_API}, requesting the user's email and the
+     * payments scope
+     */
+    public static final int CLIENT_AUTH = 1;
+
+    private static final int CLIENT_COUNT = 2;
+
+    /**
+     * How long a client that is no longer acquired, or was only warmed up, stays connected
+     */
+    static final long IDLE_DISCONNECT_MILLIS = 30 * 1000;
+
+    private static final String WALLET_SCOPE =
+            "https://www.googleapis.com/auth/payments.make_payments";
+
+    private final Context mContext;
+    private final EventLog mEventLog;
+    private final GoogleApiClient[] mClients = new GoogleApiClient[CLIENT_COUNT];
+    private final int[] mRefCounts = new int[CLIENT_COUNT];
+    private final Runnable[] mIdleDisconnects = new Runnable[CLIENT_COUNT];
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Connect time metrics, in milliseconds of SystemClock.elapsedRealtime()
+    private final long[] mConnectStartTimes = new long[CLIENT_COUNT];
+    private final long[] mLastConnectTimes = new long[CLIENT_COUNT];
+    private final int[] mConnectCounts = new int[CLIENT_COUNT];
+    private final int[] mConnectionFailureCounts = new int[CLIENT_COUNT];
+
+    public GoogleApiClientManager(Context context, EventLog eventLog) {
+        mContext = context.getApplicationContext();
+        mEventLog = eventLog;
+        for (int type = 0; type < CLIENT_COUNT; type++) {
+            final int clientType = type;
+            mIdleDisconnects[type] = new Runnable() {
+                @Override
+                public void run() {
+                    GoogleApiClient client = mClients[clientType];
+                    if (mRefCounts[clientType] == 0
+                            && (client.isConnected() || client.isConnecting())) {
+                        client.disconnect();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Starts connecting all clients in the background. A client nobody acquires is disconnected
+     * again after {@link #IDLE_DISCONNECT_MILLIS}.
+     */
+    public void warmUp() {
+        for (int type = 0; type < CLIENT_COUNT; type++) {
+            connect(type);
+            if (mRefCounts[type] == 0) {
+                scheduleIdleDisconnect(type);
+            }
+        }
+    }
+
+    /**
+     * Gets the shared client of the given type and makes sure it is connected or connecting.
+     * Every call must be balanced with a call to {@link #release(int)}.
+     *
+     * Listeners registered on the returned client must be unregistered before releasing it.
+     *
+     * @param type {@link #CLIENT_WALLET} or {@link #CLIENT_AUTH}
+     * @return the shared client
+     */
+    public GoogleApiClient acquire(int type) {
+        mRefCounts[type]++;
+        mHandler.removeCallbacks(mIdleDisconnects[type]);
+        return connect(type);
+    }
+
+    /**
+     * Connects an acquired client again, e.g. after the user resolved a connection failure.
+     */
+    public void reconnect(int type) {
+        if (mRefCounts[type] == 0) {
+            throw new IllegalStateException("Client reconnected without being acquired: " + type);
+        }
+        connect(type);
+    }
+
+    /**
+     * Releases a client obtained from {@link #acquire(int)}. Once no screen uses it, it is
+     * disconnected after {@link #IDLE_DISCONNECT_MILLIS} unless it is acquired again.
+     */
+    public void release(int type) {
+        if (mRefCounts[type] == 0) {
+            throw new IllegalStateException("Client released more often than acquired: " + type);
+        }
+
+        if (--mRefCounts[type] == 0) {
+            scheduleIdleDisconnect(type);
+        }
+    }
+
+    private void scheduleIdleDisconnect(int type) {
+        mHandler.removeCallbacks(mIdleDisconnects[type]);
+        mHandler.postDelayed(mIdleDisconnects[type], IDLE_DISCONNECT_MILLIS);
+    }
+
+    /**
+     * @return time it took the client to connect the last time it connected, in milliseconds,
+     *         or -1 if it never connected.
+     */
+    public long getLastConnectTimeMillis(int type) {
+        return mConnectCounts[type] == 0 ? -1 : mLastConnectTimes[type];
+    }
+
+    public int getConnectCount(int type) {
+        return mConnectCounts[type];
+    }
+
+    public int getConnectionFailureCount(int type) {
+        return mConnectionFailureCounts[type];
+    }
+
+    private GoogleApiClient connect(int type) {
+        GoogleApiClient client = mClients[type];
+        if (client == null) {
+            client = buildClient(type);
+            mClients[type] = client;
+        }
+
+        if (!client.isConnected() && !client.isConnecting()) {
+            mConnectStartTimes[type] = SystemClock.elapsedRealtime();
+            client.connect();
+        }
+        return client;
+    }
+
+    private GoogleApiClient buildClient(final int type) {
+        GoogleApiClient.Builder builder = new GoogleApiClient.Builder(mContext);
+        switch (type) {
+            case CLIENT_WALLET:
+                // the sample docs show the Wallet options from CheckoutActivity
+                CheckoutActivity.addWalletApi(builder);
+                break;
+            case CLIENT_AUTH:
+                GoogleSignInOptions gso =
+                        new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
+                                .requestEmail()
+                                .requestScopes(new Scope(WALLET_SCOPE))
+                                .build();
+                builder.addApi(Auth.GOOGLE_SIGN_IN_API, gso);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown client type: " + type);
+        }
+
+        return builder
+                .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
+                    @Override
+                    public void onConnected(Bundle connectionHint) {
+                        mLastConnectTimes[type] =
+                                SystemClock.elapsedRealtime() - mConnectStartTimes[type];
+                        mConnectCounts[type]++;
+                        mEventLog.log(EventLog.EVENT_CLIENT_CONNECTED, type,
+                                mLastConnectTimes[type]);
+                    }
+
+                    @Override
+                    public void onConnectionSuspended(int cause) {
+                        // the client reconnects by itself, time that as a new connection
+                        mConnectStartTimes[type] = SystemClock.elapsedRealtime();
+                    }
+                })
+                .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
+                    @Override
+                    public void onConnectionFailed(@NonNull ConnectionResult result) {
+                        mConnectionFailureCounts[type]++;
+                        Log.e(TAG, "onConnectionFailed:" + type + ":" + result.getErrorCode());
+                    }
+                })
+                .build();
+    }
+}
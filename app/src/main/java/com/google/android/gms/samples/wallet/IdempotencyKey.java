@@ -0,0 +1,62 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Creates the idempotency keys sent with each payment, so that the merchant server charges a
+ * payment only once however often it is submitted, e.g. when the outbox retries it or the
+ * confirmation page is launched again for the same transaction.
+ */
+public final class IdempotencyKey {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // 128 bits of the content hash are plenty to tell carts of one transaction apart
+    private static final int HASH_BYTES = 16;
+
+    private IdempotencyKey() {}
+
+    /**
+     * @param googleTransactionId Google transaction id of the payment.
+     * @param cart the cart being paid for.
+     * @return a key that is the same for every submission of this cart in this transaction, and
+     *         differs if the cart changes.
+     */
+    public static String create(String googleTransactionId, ShoppingCart cart) {
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256")
+                    .digest(cart.getContentKey().getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder builder =
+                new StringBuilder(googleTransactionId.length() + 1 + HASH_BYTES * 2);
+        builder.append(googleTransactionId).append(':');
+        for (int i = 0; i < HASH_BYTES; i++) {
+            builder.append(HEX_DIGITS[(hash[i] >> 4) & 0xf]).append(HEX_DIGITS[hash[i] & 0xf]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the images of items off the main thread, decoded at the size they are shown at.
+ *
+ * Images are decoded with the largest {@code inSampleSize} that keeps them at least as large as
+ * the view, so a large image shown as a thumbnail takes the memory of a thumbnail. Decoded
+ * images are kept in an LRU cache taking up to an eighth of the app's memory class, and images
+ * downloaded from {@link ItemInfo#imageUrl} are also kept in a disk cache in the cache
+ * directory, so they are downloaded once.
+ *
+ * A request for an {@link ImageView} cancels the previous request for the same view, e.g. when
+ * a list recycles a row for another item, so a slow image never lands in the wrong row. Must be
+ * called on the main thread.
+ */
+public class ImageLoader {
+
+    private static final String TAG = "ImageLoader";
+
+    private static final String DISK_CACHE_DIRECTORY = "images";
+    private static final String DOWNLOAD_SUFFIX = ".tmp";
+    private static final long MAX_DISK_CACHE_BYTES = 20 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+    private static final int THREAD_COUNT = 2;
+
+    /**
+     * Receives a loaded image on the main thread.
+     */
+    public interface Callback {
+        void onImageLoaded(Bitmap bitmap);
+    }
+
+    /**
+     * A pending image.
+     */
+    public class Request implements Runnable {
+
+        private final ItemInfo mItem;
+        private final int mWidth;
+        private final int mHeight;
+        private final String mCacheKey;
+        private final Callback mCallback;
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+
+        Request(ItemInfo item, int width, int height, String cacheKey, Callback callback) {
+            mItem = item;
+            mWidth = width;
+            mHeight = height;
+            mCacheKey = cacheKey;
+            mCallback = callback;
+        }
+
+        /**
+         * Drops the request. Its callback is not called once this returns.
+         */
+        public void cancel() {
+            mCancelled = true;
+            mFuture.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final Bitmap bitmap;
+            try {
+                bitmap = decode(mItem, mWidth, mHeight);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot load " + mItem.imageUrl, e);
+                return;
+            }
+            if (bitmap == null) {
+                return;
+            }
+            mMemoryCache.put(mCacheKey, bitmap);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // cancel() is called on the main thread too, so this cannot race with it
+                    if (!mCancelled) {
+                        mCallback.onImageLoaded(bitmap);
+                    }
+                }
+            });
+        }
+    }
+
+    private final Resources mResources;
+    private final File mDiskCacheDirectory;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ExecutorService mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    public ImageLoader(Context context) {
+        mResources = context.getResources();
+        mDiskCacheDirectory = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY);
+
+        int memoryClassBytes = ((ActivityManager) context.getSystemService(
+                Context.ACTIVITY_SERVICE)).getMemoryClass() * 1024 * 1024;
+        mMemoryCache = new LruCache<String, Bitmap>(memoryClassBytes / 8) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+
+        mExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // below the main thread, so that decoding does not steal its frames
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ImageLoader-" + mCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Shows the image of {@code item} in {@code view}, which is left empty until the image is
+     * loaded.
+     *
+     * @param width width the image is shown at, in pixels.
+     * @param height height the image is shown at, in pixels.
+     */
+    public void load(ItemInfo item, final ImageView view, int width, int height) {
+        cancel(view);
+        Bitmap bitmap = getCachedBitmap(item, width, height);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+        view.setImageDrawable(null);
+        Request request = load(item, width, height, new Callback() {
+            @Override
+            public void onImageLoaded(Bitmap bitmap) {
+                view.setTag(R.id.image_request, null);
+                view.setImageBitmap(bitmap);
+            }
+        });
+        view.setTag(R.id.image_request, request);
+    }
+
+    /**
+     * Cancels the request loading into {@code view}, if any.
+     */
+    public void cancel(ImageView view) {
+        Request request = (Request) view.getTag(R.id.image_request);
+        if (request != null) {
+            request.cancel();
+            view.setTag(R.id.image_request, null);
+        }
+    }
+
+    /**
+     * Loads the image of {@code item}, calling {@code callback} right away if it is cached.
+     *
+     * @return the request, to cancel it, or {@code null} if the callback was already called or
+     *         the item has no image.
+     */
+    public Request load(ItemInfo item, int width, int height, Callback callback) {
+        String cacheKey = getCacheKey(item, width, height);
+        if (cacheKey == null) {
+            return null;
+        }
+        Bitmap bitmap = mMemoryCache.get(cacheKey);
+        if (bitmap != null) {
+            callback.onImageLoaded(bitmap);
+            return null;
+        }
+        Request request = new Request(item, width, height, cacheKey, callback);
+        request.mFuture = mExecutor.submit(request);
+        return request;
+    }
+
+    private Bitmap getCachedBitmap(ItemInfo item, int width, int height) {
+        String cacheKey = getCacheKey(item, width, height);
+        return cacheKey != null ? mMemoryCache.get(cacheKey) : null;
+    }
+
+    private static String getCacheKey(ItemInfo item, int width, int height) {
+        String image;
+        if (item.imageUrl != null) {
+            image = item.imageUrl;
+        } else if (item.imageResourceId != 0) {
+            image = Integer.toString(item.imageResourceId);
+        } else {
+            return null;
+        }
+        return image + '@' + width + 'x' + height;
+    }
+
+    private Bitmap decode(ItemInfo item, int width, int height) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        if (item.imageUrl != null) {
+            File file = fetch(item.imageUrl);
+            String path = file.getPath();
+            BitmapFactory.decodeFile(path, options);
+            options.inSampleSize = getSampleSize(options, width, height);
+            options.inJustDecodeBounds = false;
+            Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+            if (bitmap == null) {
+                // not an image, or a damaged one: download it again next time
+                file.delete();
+            }
+            return bitmap;
+        } else {
+            BitmapFactory.decodeResource(mResources, item.imageResourceId, options);
+            options.inSampleSize = getSampleSize(options, width, height);
+            options.inJustDecodeBounds = false;
+            return BitmapFactory.decodeResource(mResources, item.imageResourceId, options);
+        }
+    }
+
+    /**
+     * @return the largest power of two the image can be scaled down by while staying at least
+     *         as large as the view.
+     */
+    static int getSampleSize(BitmapFactory.Options options, int width, int height) {
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width
+                && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return the file holding the image at {@code url}, downloaded unless it is in the disk
+     *         cache.
+     */
+    private File fetch(String url) throws IOException {
+        File file = new File(mDiskCacheDirectory, sha1(url));
+        if (file.exists()) {
+            // the disk cache drops the least recently used files first
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+
+        if (!mDiskCacheDirectory.isDirectory() && !mDiskCacheDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDiskCacheDirectory);
+        }
+        // two rows may download the same image at once, each to a file of its own
+        File tempFile = File.createTempFile("download", DOWNLOAD_SUFFIX, mDiskCacheDirectory);
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode());
+            }
+            InputStream in = connection.getInputStream();
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+                in.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Cannot rename " + tempFile + " to " + file);
+            }
+        } finally {
+            connection.disconnect();
+            tempFile.delete();
+        }
+        trimDiskCache();
+        return file;
+    }
+
+    /**
+     * Deletes the least recently used files once the disk cache is over its size, down to three
+     * quarters of it, so that it is not trimmed after every download. Downloads in progress are
+     * left alone.
+     */
+    private synchronized void trimDiskCache() {
+        File[] files = mDiskCacheDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !file.getName().endsWith(DOWNLOAD_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= MAX_DISK_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < files.length && size > MAX_DISK_CACHE_BYTES * 3 / 4; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        } catch (IOException e) {
+            throw new IllegalStateException("UTF-8 is not available", e);
+        }
+    }
+}
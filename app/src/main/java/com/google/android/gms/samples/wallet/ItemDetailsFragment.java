@@ -53,15 +53,16 @@ public class ItemDetailsFragment extends Fragment implements OnClickListener {
     }
 
     /**
-     * Updates the item details with the item in {@link Constants#ITEMS_FOR_SALE}
+     * Updates the item details with the item of the {@link CatalogStore}
      * at <code>position</code>
      *
-     * @param position The index of the item in {@link Constants#ITEMS_FOR_SALE}
-     * @see Constants#ITEMS_FOR_SALE
+     * @param position The id of the item in the {@link CatalogStore}
+     * @see BikestoreApplication#getCatalogStore()
      */
     public void setItemId(int position) {
         mItemId = position;
-        ItemInfo itemInfo = Constants.ITEMS_FOR_SALE[mItemId];
+        ItemInfo itemInfo = ((BikestoreApplication) getActivity().getApplication())
+                .getCatalogStore().getItem(mItemId);
 
         TextView itemName = (TextView) mRoot.findViewById(R.id.text_details_item_name);
         itemName.setText(itemInfo.name);
@@ -70,9 +71,15 @@ public class ItemDetailsFragment extends Fragment implements OnClickListener {
         itemPrice.setText(Util.formatPrice(getActivity(), itemInfo.priceMicros));
 
         ImageView imageView = (ImageView) mRoot.findViewById(R.id.image_details_item_image);
-        imageView.setImageResource(itemInfo.imageResourceId);
+        // the image fills at most the width of the screen, and its height follows from its width
+        ((BikestoreApplication) getActivity().getApplication()).getImageLoader().load(itemInfo,
+                imageView, getResources().getDisplayMetrics().widthPixels, 0);
 
         Button button = (Button) mRoot.findViewById(R.id.button_details_button_add);
         button.setOnClickListener(this);
+
+        // Get the checkout page ready in case the user adds this item to the cart
+        ((BikestoreApplication) getActivity().getApplication()).getCheckoutPrewarmer()
+                .prewarm(mItemId, getString(R.string.public_key));
     }
 }
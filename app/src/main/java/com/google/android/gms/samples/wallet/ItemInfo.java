@@ -21,6 +21,8 @@ package com.google.android.gms.samples.wallet;
  */
 public class ItemInfo {
 
+    // Identifies the item in the catalog, null for an item that is not from the catalog
+    public final String sku;
     public final String name;
     public final String description;
     // Micros are used for prices to avoid rounding errors when converting between currencies
@@ -36,9 +38,18 @@ public class ItemInfo {
     public final String currencyCode;
     public final String sellerData;
     public final int imageResourceId;
+    // Image downloaded from the merchant's servers, if the item has no bundled image
+    public final String imageUrl;
 
     public ItemInfo(String name, String description, long price, long shippingPrice,
             String currencyCode, String sellerData, int imageResourceId) {
+        this(null, name, description, price, shippingPrice, currencyCode, sellerData,
+                imageResourceId, null);
+    }
+
+    public ItemInfo(String sku, String name, String description, long price, long shippingPrice,
+            String currencyCode, String sellerData, int imageResourceId, String imageUrl) {
+        this.sku = sku;
         this.name = name;
         this.description = description;
         this.priceMicros = price;
@@ -50,6 +61,7 @@ public class ItemInfo {
         this.currencyCode = currencyCode;
         this.sellerData = sellerData;
         this.imageResourceId = imageResourceId;
+        this.imageUrl = imageUrl;
     }
 
     @Override
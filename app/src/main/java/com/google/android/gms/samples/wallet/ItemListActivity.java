@@ -20,6 +20,8 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.Fragment;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
@@ -65,13 +67,32 @@ public class ItemListActivity extends BikestoreFragmentActivity
         ActivityCompat.invalidateOptionsMenu(this);
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        super.onCreateOptionsMenu(menu);
+        getMenuInflater().inflate(R.menu.activity_main, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.menu_search) {
+            ((ItemListFragment) getSupportFragmentManager().findFragmentById(R.id.item_list))
+                    .showSearch();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     @Override
     public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        // the list shows search results at other positions than their ids
+        int itemId = (int) id;
         if (mIsDualFrame) {
-            mDetailsFragment.setItemId(position);
+            mDetailsFragment.setItemId(itemId);
         } else {
             Intent intent = new Intent(this, ItemDetailsActivity.class);
-            intent.putExtra(Constants.EXTRA_ITEM_ID, position);
+            intent.putExtra(Constants.EXTRA_ITEM_ID, itemId);
             startActivity(intent);
         }
     }
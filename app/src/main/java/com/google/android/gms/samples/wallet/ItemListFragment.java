@@ -18,25 +18,182 @@ package com.google.android.gms.samples.wallet;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.ListFragment;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.inputmethod.InputMethodManager;
+import android.widget.AbsListView;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
 
+import java.util.concurrent.Executor;
+
 public class ItemListFragment extends ListFragment {
 
+    // rows loaded at once, about a few screens' worth
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_PAGES = 2;
+
+    // how long typing must pause before the query runs
+    private static final long SEARCH_DEBOUNCE_MILLIS = 150;
+    private static final int MAX_SEARCH_RESULTS = 200;
+    private static final long SEARCH_RETRY_MILLIS = 500;
+
+    private PagedItemSource mItemSource;
+    private ItemAdapter mAdapter;
+    private EditText mSearchBox;
+    private String mShownQuery = "";
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mSearch = new Runnable() {
+        @Override
+        public void run() {
+            search(mSearchBox.getText().toString());
+        }
+    };
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+            Bundle savedInstanceState) {
+        // the list with a search box above it
+        return inflater.inflate(R.layout.fragment_item_list, container, false);
+    }
+
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
-        ArrayAdapter<ItemInfo> adapter = new ItemAdapter(getActivity(),
-                Constants.ITEMS_FOR_SALE);
-        setListAdapter(adapter);
+        setCatalogStore(((BikestoreApplication) getActivity().getApplication()).getCatalogStore());
+
+        mSearchBox = (EditText) getView().findViewById(R.id.search_box);
+        mSearchBox.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mHandler.removeCallbacks(mSearch);
+                mHandler.postDelayed(mSearch, SEARCH_DEBOUNCE_MILLIS);
+            }
+        });
+
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                if (!mAdapter.isShowingSearchResults()) {
+                    mItemSource.onVisibleRangeChanged(firstVisibleItem, visibleItemCount);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        // shows the prices of a catalog synced while another screen was shown
+        setCatalogStore(((BikestoreApplication) getActivity().getApplication()).getCatalogStore());
+    }
+
+    @Override
+    public void onDestroyView() {
+        mHandler.removeCallbacks(mSearch);
+        if (mItemSource != null) {
+            mItemSource.close();
+            // a new view gets a new list
+            mItemSource = null;
+            mAdapter = null;
+        }
+        super.onDestroyView();
+    }
+
+    /**
+     * Shows the search box, and starts building the search index if it is not built yet.
+     */
+    public void showSearch() {
+        ((BikestoreApplication) getActivity().getApplication()).getSearchIndex();
+        mSearchBox.setVisibility(View.VISIBLE);
+        mSearchBox.requestFocus();
+        InputMethodManager inputMethodManager = (InputMethodManager) getActivity()
+                .getSystemService(Context.INPUT_METHOD_SERVICE);
+        inputMethodManager.showSoftInput(mSearchBox, InputMethodManager.SHOW_IMPLICIT);
+    }
+
+    private void search(String query) {
+        SearchIndex searchIndex =
+                ((BikestoreApplication) getActivity().getApplication()).getSearchIndex();
+        // the index covers the catalog of the latest sync, which the list catches up with
+        setCatalogStore(searchIndex.getCatalogStore());
+        if (query.trim().length() == 0) {
+            mAdapter.setSearchResults(null);
+        } else {
+            mAdapter.setSearchResults(searchIndex.search(query, MAX_SEARCH_RESULTS));
+            if (!searchIndex.isComplete()) {
+                // search again once more items are indexed
+                mHandler.postDelayed(mSearch, SEARCH_RETRY_MILLIS);
+            }
+        }
+        if (!query.equals(mShownQuery)) {
+            getListView().setSelection(0);
+            mShownQuery = query;
+        }
+    }
+
+    /**
+     * Shows {@code catalogStore} in the list, unless it already does. The catalog is only
+     * replaced by syncs that keep the ids of its items, so the list stays where it is.
+     */
+    private void setCatalogStore(CatalogStore catalogStore) {
+        if (mAdapter != null && mAdapter.mCatalogStore == catalogStore) {
+            return;
+        }
+        BikestoreApplication application = (BikestoreApplication) getActivity().getApplication();
+        int[] searchResults = null;
+        int position = 0;
+        int top = 0;
+        if (mAdapter != null) {
+            mItemSource.close();
+            searchResults = mAdapter.mSearchResults;
+            position = getListView().getFirstVisiblePosition();
+            View first = getListView().getChildAt(0);
+            top = first != null ? first.getTop() : 0;
+        }
+
+        mItemSource = new PagedItemSource(catalogStore, PAGE_SIZE,
+                PREFETCH_PAGES, application.getPageLoadExecutor(), new Executor() {
+                    @Override
+                    public void execute(Runnable runnable) {
+                        mHandler.post(runnable);
+                    }
+                });
+        mAdapter = new ItemAdapter(getActivity(), mItemSource, catalogStore,
+                application.getImageLoader());
+        mAdapter.mSearchResults = searchResults;
+        mItemSource.setListener(new PagedItemSource.Listener() {
+            @Override
+            public void onPageLoaded(int page) {
+                mAdapter.notifyDataSetChanged();
+            }
+        });
+        setListAdapter(mAdapter);
+        getListView().setSelectionFromTop(position, top);
     }
 
     @Override
@@ -44,32 +201,102 @@ public class ItemListFragment extends ListFragment {
         ((OnItemClickListener) getActivity()).onItemClick(list, v, position, id);
     }
 
-    private static class ItemAdapter extends ArrayAdapter<ItemInfo> {
+    /**
+     * Shows the items of a {@link PagedItemSource}, or search results. Rows whose page is still
+     * loading are left blank until it is. Item ids are the ids of the items in the catalog.
+     */
+    private static class ItemAdapter extends BaseAdapter {
         private LayoutInflater mInflater;
         private Context mContext;
+        private final PagedItemSource mItemSource;
+        private final CatalogStore mCatalogStore;
+        private final ImageLoader mImageLoader;
+        private final int mThumbnailSize;
+        private int[] mSearchResults;
 
-        public ItemAdapter(Context context, ItemInfo[] objects) {
-            super(context, R.layout.list_item, R.id.name, objects);
+        public ItemAdapter(Context context, PagedItemSource itemSource,
+                CatalogStore catalogStore, ImageLoader imageLoader) {
             mInflater = LayoutInflater.from(context);
             mContext = context;
+            mItemSource = itemSource;
+            mCatalogStore = catalogStore;
+            mImageLoader = imageLoader;
+            mThumbnailSize =
+                    context.getResources().getDimensionPixelSize(R.dimen.image_thumbnail_size);
+        }
+
+        /**
+         * @param searchResults ids of the items to show, or {@code null} to show all items.
+         */
+        void setSearchResults(int[] searchResults) {
+            mSearchResults = searchResults;
+            notifyDataSetChanged();
+        }
+
+        boolean isShowingSearchResults() {
+            return mSearchResults != null;
+        }
+
+        @Override
+        public int getCount() {
+            return mSearchResults != null ? mSearchResults.length : mItemSource.getCount();
+        }
+
+        @Override
+        public ItemInfo getItem(int position) {
+            // few results are shown, they are decoded as needed
+            return mSearchResults != null
+                    ? mCatalogStore.getItem(mSearchResults[position])
+                    : mItemSource.getItem(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mSearchResults != null ? mSearchResults[position] : position;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
         }
 
         @Override
         public View getView(int position, View view, ViewGroup parent) {
+            ViewHolder holder;
             if (view == null) {
                 view = mInflater.inflate(R.layout.list_item, parent, false);
+                holder = new ViewHolder();
+                holder.mTitle = (TextView) view.findViewById(R.id.name);
+                holder.mPrice = (TextView) view.findViewById(R.id.price);
+                holder.mImage = (ImageView) view.findViewById(R.id.image);
+                view.setTag(holder);
+            } else {
+                holder = (ViewHolder) view.getTag();
             }
 
             ItemInfo info = getItem(position);
-            TextView title = (TextView) view.findViewById(R.id.name);
-            TextView price = (TextView) view.findViewById(R.id.price);
-            ImageView image = (ImageView) view.findViewById(R.id.image);
-
-            title.setText(info.name);
-            price.setText(Util.formatPrice(mContext, info.priceMicros));
-            image.setImageResource(info.imageResourceId);
+            if (info == null) {
+                holder.mTitle.setText(null);
+                holder.mPrice.setText(null);
+                mImageLoader.cancel(holder.mImage);
+                holder.mImage.setImageDrawable(null);
+            } else {
+                holder.mTitle.setText(info.name);
+                holder.mPrice.setText(Util.formatPrice(mContext, info.priceMicros));
+                // cancels the image of the item the row showed before it was recycled
+                mImageLoader.load(info, holder.mImage, mThumbnailSize, mThumbnailSize);
+            }
 
             return view;
         }
     }
+
+    /**
+     * The views of a row, looked up once when the row is inflated.
+     */
+    private static class ViewHolder {
+        TextView mTitle;
+        TextView mPrice;
+        ImageView mImage;
+    }
 }
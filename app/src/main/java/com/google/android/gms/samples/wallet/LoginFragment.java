@@ -18,6 +18,7 @@ package com.google.android.gms.samples.wallet;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.content.IntentSender.SendIntentException;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.app.Fragment;
@@ -30,7 +31,6 @@ import android.widget.Toast;
 
 import com.google.android.gms.auth.api.Auth;
 import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
-import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
 import com.google.android.gms.auth.api.signin.GoogleSignInResult;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.SignInButton;
@@ -38,7 +38,6 @@ import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.GoogleApiClient.ConnectionCallbacks;
 import com.google.android.gms.common.api.GoogleApiClient.OnConnectionFailedListener;
 import com.google.android.gms.common.api.OptionalPendingResult;
-import com.google.android.gms.common.api.Scope;
 
 public class LoginFragment extends Fragment implements
         OnClickListener, ConnectionCallbacks, OnConnectionFailedListener {
@@ -47,11 +46,10 @@ public class LoginFragment extends Fragment implements
 
     public static final int REQUEST_CODE_RESOLVE_ERR = 1005;
     private static final int REQUEST_CODE_SIGN_IN = 1006;
-    private static final String WALLET_SCOPE =
-            "https://www.googleapis.com/auth/payments.make_payments";
 
     private GoogleApiClient mGoogleApiClient;
     private int mLoginAction;
+    private boolean mResolvingError;
 
     public static LoginFragment newInstance(int loginAction) {
         LoginFragment fragment = new LoginFragment();
@@ -69,16 +67,20 @@ public class LoginFragment extends Fragment implements
             mLoginAction = args.getInt(LoginActivity.EXTRA_ACTION);
         }
 
-        GoogleSignInOptions gso = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
-                .requestEmail()
-                .requestScopes(new Scope(WALLET_SCOPE))
-                .build();
+        // The sign-in client is shared by the application and usually already connected, in
+        // which case onConnected is called right away
+        mGoogleApiClient = getApplication().getApiClientManager()
+                .acquire(GoogleApiClientManager.CLIENT_AUTH);
+        mGoogleApiClient.registerConnectionFailedListener(this);
+        mGoogleApiClient.registerConnectionCallbacks(this);
+    }
 
-        mGoogleApiClient = new GoogleApiClient.Builder(getActivity())
-                .enableAutoManage(getActivity(), this)
-                .addConnectionCallbacks(this)
-                .addApi(Auth.GOOGLE_SIGN_IN_API, gso)
-                .build();
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mGoogleApiClient.unregisterConnectionCallbacks(this);
+        mGoogleApiClient.unregisterConnectionFailedListener(this);
+        getApplication().getApiClientManager().release(GoogleApiClientManager.CLIENT_AUTH);
     }
 
     @Override
@@ -101,6 +103,13 @@ public class LoginFragment extends Fragment implements
                 GoogleSignInResult result = Auth.GoogleSignInApi.getSignInResultFromIntent(data);
                 handleSignInResult(result);
                 break;
+            case REQUEST_CODE_RESOLVE_ERR:
+                mResolvingError = false;
+                if (resultCode == Activity.RESULT_OK) {
+                    getApplication().getApiClientManager()
+                            .reconnect(GoogleApiClientManager.CLIENT_AUTH);
+                }
+                break;
             default:
                 super.onActivityResult(requestCode, resultCode, data);
                 break;
@@ -131,6 +140,19 @@ public class LoginFragment extends Fragment implements
     @Override
     public void onConnectionFailed(@NonNull ConnectionResult result) {
        Log.e(TAG, "onConnectionFailed:" + result.getErrorMessage());
+       getApplication().getMetricsRegistry().increment(MetricsRegistry.CONNECTION_FAILURE,
+               result.getErrorCode());
+       if (mResolvingError || !result.hasResolution()) {
+           return;
+       }
+       // e.g. Google Play services needs to be updated, let the user fix it and reconnect
+       try {
+           mResolvingError = true;
+           result.startResolutionForResult(getActivity(), REQUEST_CODE_RESOLVE_ERR);
+       } catch (SendIntentException e) {
+           mResolvingError = false;
+           Log.w(TAG, "onConnectionFailed:resolution", e);
+       }
     }
 
     private void onSignInClicked() {
@@ -139,11 +161,15 @@ public class LoginFragment extends Fragment implements
     }
 
     private void handleSignInResult(GoogleSignInResult result) {
+        getApplication().getMetricsRegistry().increment(MetricsRegistry.SIGN_IN_RESULT,
+                result.getStatus().getStatusCode());
         if (result.isSuccess()) {
-            Log.d(TAG, "googleSignIn:SUCCESS");
+            getApplication().getEventLog().log(EventLog.EVENT_SIGN_IN, 1,
+                    result.getStatus().getStatusCode());
             handleSignInSuccess(result.getSignInAccount());
         } else {
-            Log.d(TAG, "googleSignIn:FAILURE:" + result.getStatus());
+            getApplication().getEventLog().log(EventLog.EVENT_SIGN_IN, 0,
+                    result.getStatus().getStatusCode());
             Toast.makeText(getActivity(), R.string.network_error, Toast.LENGTH_LONG).show();
         }
     }
@@ -152,7 +178,7 @@ public class LoginFragment extends Fragment implements
         Toast.makeText(getActivity(), getString(R.string.welcome_user,
                 account.getDisplayName()), Toast.LENGTH_LONG).show();
 
-        ((BikestoreApplication) getActivity().getApplication()).login(account.getEmail());
+        getApplication().login(account.getEmail());
         getActivity().setResult(Activity.RESULT_OK);
         getActivity().finish();
     }
@@ -170,7 +196,7 @@ public class LoginFragment extends Fragment implements
         if (mGoogleApiClient.isConnected()) {
             Auth.GoogleSignInApi.signOut(mGoogleApiClient);
 
-            ((BikestoreApplication) getActivity().getApplication()).logout();
+            getApplication().logout();
             Toast.makeText(getActivity(), getString(R.string.logged_out), Toast.LENGTH_LONG).show();
             getActivity().setResult(Activity.RESULT_OK);
             getActivity().finish();
@@ -179,6 +205,10 @@ public class LoginFragment extends Fragment implements
         }
     }
 
+    private BikestoreApplication getApplication() {
+        return (BikestoreApplication) getActivity().getApplication();
+    }
+
     @Override
     public void onConnectionSuspended(int cause) {
         // nothing specifically required here, onConnected will be called when connection resumes
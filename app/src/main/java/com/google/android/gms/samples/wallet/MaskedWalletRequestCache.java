@@ -0,0 +1,85 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import android.support.v4.util.LruCache;
+
+import com.google.android.gms.wallet.MaskedWalletRequest;
+
+/**
+ * A bounded cache of {@link MaskedWalletRequest}s built by {@link WalletUtil}.
+ *
+ * Requests are keyed by the content of the cart, the integration type (direct or Stripe) and
+ * the keys used for tokenization, so toggling the payment processor or recreating the checkout
+ * page reuses a request that was already built. A change of price or key yields a new cache key;
+ * call {@link #invalidate()} when the catalog is replaced to drop everything at once.
+ */
+public class MaskedWalletRequestCache {
+
+    private static final int MAX_ENTRIES = 16;
+
+    private static final String TYPE_DIRECT = "direct";
+    private static final String TYPE_STRIPE = "stripe";
+
+    private final LruCache<String, MaskedWalletRequest> mRequests =
+            new LruCache<String, MaskedWalletRequest>(MAX_ENTRIES);
+
+    /**
+     * @param cart {@link ShoppingCart} containing the items to buy.
+     * @param publicKey base64-encoded public encryption key. See instructions for more details.
+     * @return a cached or newly built request for direct merchant integration.
+     * @see WalletUtil#createMaskedWalletRequest(ShoppingCart, String)
+     */
+    public MaskedWalletRequest getDirectRequest(ShoppingCart cart, String publicKey) {
+        String key = buildKey(TYPE_DIRECT, cart, publicKey);
+        MaskedWalletRequest request = mRequests.get(key);
+        if (request == null) {
+            request = WalletUtil.createMaskedWalletRequest(cart, publicKey);
+            mRequests.put(key, request);
+        }
+        return request;
+    }
+
+    /**
+     * @param cart {@link ShoppingCart} containing the items to buy.
+     * @param publishableKey Stripe publishable key.
+     * @param version Stripe API version.
+     * @return a cached or newly built request for processing payments with Stripe.
+     * @see WalletUtil#createStripeMaskedWalletRequest(ShoppingCart, String, String)
+     */
+    public MaskedWalletRequest getStripeRequest(ShoppingCart cart, String publishableKey,
+            String version) {
+        String key = buildKey(TYPE_STRIPE, cart, publishableKey + '\n' + version);
+        MaskedWalletRequest request = mRequests.get(key);
+        if (request == null) {
+            request = WalletUtil.createStripeMaskedWalletRequest(cart, publishableKey, version);
+            mRequests.put(key, request);
+        }
+        return request;
+    }
+
+    /**
+     * Drops all cached requests, e.g. after the items for sale or their prices have changed.
+     */
+    public void invalidate() {
+        mRequests.evictAll();
+    }
+
+    private static String buildKey(String type, ShoppingCart cart, String keys) {
+        return type + '\n' + keys + '\n' + cart.getContentKey();
+    }
+}
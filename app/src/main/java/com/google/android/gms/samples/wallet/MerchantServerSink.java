@@ -0,0 +1,130 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Submits batches of payments from the {@link TransactionOutbox} to the merchant server.
+ *
+ * A batch is sent as a single POST of a JSON array:
+ * <pre>
+ * [{"id": 1, "googleTransactionId": "...", "payment": {...}}, ...]
+ * </pre>
+ * and the server answers with a JSON array holding one transaction status per payment, in the
+ * same order, using the values of {@code NotifyTransactionStatusRequest.Status}, or
+ * {@link TransactionOutbox#STATUS_RETRY} for a payment it could not process yet.
+ */
+public class MerchantServerSink implements TransactionOutbox.Sink {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final URL mUrl;
+
+    /**
+     * @param url URL of the merchant server endpoint processing payments.
+     */
+    public MerchantServerSink(URL url) {
+        mUrl = url;
+    }
+
+    @Override
+    public int[] deliver(List<TransactionOutbox.Entry> entries) throws IOException {
+        byte[] body = toJson(entries).getBytes("UTF-8");
+
+        HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            // the body is not streamed, so that it is sent with the headers rather than waiting
+            // for them to be acknowledged
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Merchant server returned HTTP " + responseCode);
+            }
+            return parseStatuses(readFully(connection.getInputStream()));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    static String toJson(List<TransactionOutbox.Entry> entries) throws IOException {
+        try {
+            JSONArray batch = new JSONArray();
+            for (TransactionOutbox.Entry entry : entries) {
+                batch.put(new JSONObject()
+                        .put("id", entry.id)
+                        .put("googleTransactionId", entry.googleTransactionId)
+                        .put("payment", new JSONObject(entry.payload)));
+            }
+            return batch.toString();
+        } catch (JSONException e) {
+            throw new IOException("Invalid payment in the outbox: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses a JSON array of integers such as {@code [1, 7, -1]}.
+     */
+    static int[] parseStatuses(String json) throws IOException {
+        try {
+            JSONArray array = new JSONArray(json);
+            int[] statuses = new int[array.length()];
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = array.getInt(i);
+            }
+            return statuses;
+        } catch (JSONException e) {
+            throw new IOException("Expected a JSON array of statuses: " + json);
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-process counters and latency histograms for checkout events, looked up by name.
+ *
+ * Recording never blocks: counters are {@link StripedCounter}s, histograms are
+ * {@link LatencyHistogram}s, and looking one up is a read of a {@link ConcurrentHashMap} once it
+ * exists. The counters of the code families below are kept in arrays indexed by code, so that
+ * {@link #increment(String, int)} allocates nothing once a code has been seen.
+ * {@link #snapshot()} copies the current values for export.
+ */
+public class MetricsRegistry {
+
+    /** Wallet errors handled, by {@code WalletConstants.ERROR_CODE_*}. */
+    public static final String WALLET_ERROR = "wallet.error";
+    /** Google Play services connection failures, by {@code ConnectionResult} error code. */
+    public static final String CONNECTION_FAILURE = "connection.failure";
+    /** Results of {@code isReadyToPay}: 1 if ready, 0 if not, or the status code of a failure. */
+    public static final String READY_TO_PAY_RESULT = "isReadyToPay.result";
+    /** Masked wallet results on the checkout page, by activity result code. */
+    public static final String MASKED_WALLET_RESULT = "maskedWallet.result";
+    /** Masked wallet results on the confirmation page, by activity result code. */
+    public static final String CHANGE_MASKED_WALLET_RESULT = "changeMaskedWallet.result";
+    /** Full wallet results, by activity result code. */
+    public static final String FULL_WALLET_RESULT = "fullWallet.result";
+    /** Address lookup results for the promotion, by activity result code. */
+    public static final String ADDRESS_RESULT = "address.result";
+    /** Google sign-in results, by status code. */
+    public static final String SIGN_IN_RESULT = "signIn.result";
+    /** Payments that could not be written to the transaction outbox. */
+    public static final String OUTBOX_SUBMIT_FAILURE = "outbox.submitFailure";
+
+    // Activity result codes, status codes and WalletConstants.ERROR_CODE_* values all fall in
+    // this range; other codes are counted by name
+    private static final int MIN_INDEXED_CODE = -1;
+    private static final int MAX_INDEXED_CODE = 511;
+
+    private static final String[] CODE_FAMILIES = {
+            WALLET_ERROR,
+            CONNECTION_FAILURE,
+            READY_TO_PAY_RESULT,
+            MASKED_WALLET_RESULT,
+            CHANGE_MASKED_WALLET_RESULT,
+            FULL_WALLET_RESULT,
+            ADDRESS_RESULT,
+            SIGN_IN_RESULT,
+    };
+
+    // Never modified once built. A slot is filled with the counter of its code when the code
+    // is first counted
+    private final Map<String, AtomicReferenceArray<StripedCounter>> mCodeCounters =
+            new HashMap<String, AtomicReferenceArray<StripedCounter>>();
+
+    private final ConcurrentHashMap<String, StripedCounter> mCounters =
+            new ConcurrentHashMap<String, StripedCounter>();
+    private final ConcurrentHashMap<String, LatencyHistogram> mHistograms =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    public MetricsRegistry() {
+        for (String family : CODE_FAMILIES) {
+            mCodeCounters.put(family, new AtomicReferenceArray<StripedCounter>(
+                    MAX_INDEXED_CODE - MIN_INDEXED_CODE + 1));
+        }
+    }
+
+    /**
+     * @return the counter with the given name, created if needed.
+     */
+    public StripedCounter counter(String name) {
+        StripedCounter counter = mCounters.get(name);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = mCounters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Increments the counter for {@code code} in the family {@code name}, e.g. a result or error
+     * code, named {@code name.code}.
+     */
+    public void increment(String name, int code) {
+        AtomicReferenceArray<StripedCounter> counters = mCodeCounters.get(name);
+        int index = code - MIN_INDEXED_CODE;
+        if (counters == null || index < 0 || index >= counters.length()) {
+            counter(name + '.' + code).increment();
+            return;
+        }
+        StripedCounter counter = counters.get(index);
+        if (counter == null) {
+            // counter() returns the same counter to racing threads
+            counter = counter(name + '.' + code);
+            counters.set(index, counter);
+        }
+        counter.increment();
+    }
+
+    /**
+     * @return the histogram with the given name, created if needed.
+     */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = mHistograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return a copy of all counters and histograms. Values recorded while copying may or may not
+     *         be included.
+     */
+    public Snapshot snapshot() {
+        Map<String, Long> counters = new TreeMap<String, Long>();
+        for (Map.Entry<String, StripedCounter> entry : mCounters.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().sum());
+        }
+        Map<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+        for (Map.Entry<String, LatencyHistogram> entry : mHistograms.entrySet()) {
+            LatencyHistogram copy = new LatencyHistogram();
+            copy.add(entry.getValue());
+            histograms.put(entry.getKey(), copy);
+        }
+        return new Snapshot(System.currentTimeMillis(), counters, histograms);
+    }
+
+    /**
+     * The values of a {@link MetricsRegistry} at one point in time, sorted by name.
+     */
+    public static class Snapshot {
+        public final long timestampMillis;
+        public final Map<String, Long> counters;
+        public final Map<String, LatencyHistogram> histograms;
+
+        Snapshot(long timestampMillis, Map<String, Long> counters,
+                Map<String, LatencyHistogram> histograms) {
+            this.timestampMillis = timestampMillis;
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        /**
+         * @return one line per counter and histogram, preceded by the time of the snapshot.
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder((counters.size() + histograms.size()) * 64);
+            builder.append("timestampMillis ").append(timestampMillis).append('\n');
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                builder.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+            }
+            for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+                builder.append(entry.getKey()).append(' ')
+                        .append(entry.getValue().toSummaryString()).append('\n');
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.google.android.gms.samples.wallet;
 
 import com.google.android.gms.wallet.FullWallet;
+import com.google.android.gms.wallet.PaymentMethodToken;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -37,10 +38,43 @@ public class OrderCompleteActivity extends Activity implements OnClickListener {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_order_complete);
         mFullWallet = getIntent().getParcelableExtra(Constants.EXTRA_FULL_WALLET);
+        if (savedInstanceState == null && mFullWallet != null) {
+            journalOrder();
+        }
         Button continueButton = (Button) findViewById(R.id.button_continue_shopping);
         continueButton.setOnClickListener(this);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        BikestoreApplication application = (BikestoreApplication) getApplication();
+        CheckoutTracer tracer = application.getCheckoutTracer();
+        tracer.end(CheckoutTracer.STAGE_ORDER_COMPLETE);
+        if (tracer.end(CheckoutTracer.STAGE_TIME_TO_PURCHASE)) {
+            application.dumpMetrics();
+        }
+    }
+
+    /**
+     * Keeps a record of the completed order. Only a fingerprint of the payment method token is
+     * recorded, never the token itself.
+     */
+    private void journalOrder() {
+        ItemInfo itemInfo = ((BikestoreApplication) getApplication()).getCatalogStore()
+                .getItem(getIntent().getIntExtra(Constants.EXTRA_ITEM_ID, 0));
+        ShoppingCart cart = ShoppingCart.of(itemInfo);
+        PaymentMethodToken token = mFullWallet.getPaymentMethodToken();
+        byte[] tokenFingerprint = token != null ? OrderJournal.fingerprint(token.getToken()) : null;
+
+        ((BikestoreApplication) getApplication()).getOrderJournal().append(
+                new OrderJournal.Record(System.currentTimeMillis(),
+                        mFullWallet.getGoogleTransactionId(), itemInfo.name,
+                        itemInfo.currencyCode, cart.getSubtotalCents(),
+                        cart.getShippingCents(false), cart.getTaxCents(false),
+                        cart.getTotalCents(false), tokenFingerprint));
+    }
+
     @Override
     public void onClick(View v) {
         Intent intent = new Intent(OrderCompleteActivity.this, ItemListActivity.class);
@@ -0,0 +1,749 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of completed orders, kept in a directory of segment files.
+ *
+ * Each record is written as its length, the CRC32 of its content and the content itself. A
+ * single writer thread takes every record queued while the previous batch was being written and
+ * writes them with one fsync, so concurrent writers share the cost of syncing (group commit).
+ *
+ * When the journal is {@link #start() started}, the segments are scanned and a segment ending in
+ * a record that is cut short or fails its CRC, e.g. because the process died while writing it,
+ * is truncated after its last good record, and a segment left without a complete header is
+ * deleted. Segments are closed once they reach a size limit. Each time one is closed, a separate
+ * compaction thread rewrites the oldest closed segments that hold records older than the
+ * retention period without those records, one segment at a time and at most
+ * {@code MAX_SEGMENTS_PER_COMPACTION} per run, so appends never wait for it and no segment grows
+ * past the size limit.
+ *
+ * The journal never stores the payment credentials, only a SHA-256
+ * {@link #fingerprint(String) fingerprint} of the payment method token.
+ */
+public class OrderJournal {
+
+    private static final int SEGMENT_MAGIC = 0x4f52444a; // "ORDJ"
+    private static final int SEGMENT_HEADER_LENGTH = 4;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String COMPACT_SUFFIX = ".compact";
+    private static final int RECORD_VERSION = 1;
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    private static final long DEFAULT_MAX_SEGMENT_BYTES = 1024 * 1024;
+    private static final int DEFAULT_MAX_BATCH = 256;
+    private static final int MAX_SEGMENTS_PER_COMPACTION = 4;
+
+    /**
+     * A completed order.
+     */
+    public static class Record {
+        public final long timestampMillis;
+        public final String googleTransactionId;
+        public final String itemName;
+        public final String currencyCode;
+        public final long subtotalCents;
+        public final long shippingCents;
+        public final long taxCents;
+        public final long totalCents;
+        public final byte[] tokenFingerprint;
+
+        public Record(long timestampMillis, String googleTransactionId, String itemName,
+                String currencyCode, long subtotalCents, long shippingCents, long taxCents,
+                long totalCents, byte[] tokenFingerprint) {
+            this.timestampMillis = timestampMillis;
+            this.googleTransactionId = nullToEmpty(googleTransactionId);
+            this.itemName = nullToEmpty(itemName);
+            this.currencyCode = nullToEmpty(currencyCode);
+            this.subtotalCents = subtotalCents;
+            this.shippingCents = shippingCents;
+            this.taxCents = taxCents;
+            this.totalCents = totalCents;
+            this.tokenFingerprint = tokenFingerprint;
+        }
+    }
+
+    private final File mDirectory;
+    private final long mMaxSegmentBytes;
+    private final long mRetentionMillis;
+    private final BlockingQueue<PendingAppend> mQueue = new LinkedBlockingQueue<PendingAppend>();
+    private final Thread mWriter;
+    private final CountDownLatch mRecovered = new CountDownLatch(1);
+    private final ExecutorService mCompactor;
+
+    // Closed segments, oldest first. Added by the writer thread, removed by the compaction thread
+    private final List<File> mSealedSegments = new ArrayList<File>();
+
+    // Only accessed on the writer thread
+    private final Set<String> mTransactionIds = new HashSet<String>();
+    private final Set<String> mBatchTransactionIds = new HashSet<String>();
+    private final ByteArrayOutputStream mBatchBytes = new ByteArrayOutputStream(8192);
+    private final DataOutputStream mBatchOut = new DataOutputStream(mBatchBytes);
+    private final RecordEncoder mEncoder = new RecordEncoder();
+    private File mActiveSegment;
+    private FileOutputStream mActiveOut;
+    private long mActiveLength;
+    private long mNextSegmentNumber;
+
+    private final AtomicLong mRecordCount = new AtomicLong();
+    private final AtomicLong mSyncCount = new AtomicLong();
+    private final AtomicLong mTruncatedBytes = new AtomicLong();
+    private final AtomicLong mCompactionCount = new AtomicLong();
+    private volatile long mRecoveryTimeNanos;
+    private volatile IOException mRecoveryError;
+
+    /**
+     * @param directory directory holding the segments, created if needed.
+     * @param retentionMillis how long records are kept, compaction drops older records.
+     */
+    public OrderJournal(File directory, long retentionMillis) {
+        this(directory, retentionMillis, DEFAULT_MAX_SEGMENT_BYTES);
+    }
+
+    public OrderJournal(File directory, long retentionMillis, long maxSegmentBytes) {
+        mDirectory = directory;
+        mRetentionMillis = retentionMillis;
+        mMaxSegmentBytes = maxSegmentBytes;
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, "OrderJournal");
+        mWriter.setPriority(Thread.MIN_PRIORITY);
+        mCompactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "OrderJournal-compact");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Recovers the journal on the writer thread and starts accepting records.
+     */
+    public void start() {
+        mWriter.start();
+    }
+
+    /**
+     * Queues a record without waiting for it to be written.
+     */
+    public void append(Record record) {
+        mQueue.add(new PendingAppend(record));
+    }
+
+    /**
+     * Queues a record and waits until it is on disk. A record for a transaction that is already
+     * in the journal is ignored.
+     *
+     * @throws IOException if the record could not be written.
+     */
+    public void appendAndWait(Record record) throws IOException, InterruptedException {
+        PendingAppend pending = new PendingAppend(record);
+        mQueue.add(pending);
+        pending.await();
+    }
+
+    /**
+     * Writes the records queued so far, then stops the writer thread, waiting for a compaction
+     * in progress, if any.
+     */
+    public void close() throws InterruptedException {
+        mQueue.add(new PendingAppend(null));
+        mWriter.join();
+        mCompactor.shutdown();
+        mCompactor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Waits until the journal has been recovered.
+     *
+     * @throws IOException if the journal could not be recovered.
+     */
+    public void awaitRecovery() throws IOException, InterruptedException {
+        mRecovered.await();
+        if (mRecoveryError != null) {
+            throw mRecoveryError;
+        }
+    }
+
+    /**
+     * @return number of records in the journal, once it has been recovered.
+     */
+    public long getRecordCount() {
+        return mRecordCount.get();
+    }
+
+    /**
+     * @return number of fsyncs, each covering every record written since the previous one.
+     */
+    public long getSyncCount() {
+        return mSyncCount.get();
+    }
+
+    /**
+     * @return bytes dropped from segments ending in an incomplete or corrupt record.
+     */
+    public long getTruncatedBytes() {
+        return mTruncatedBytes.get();
+    }
+
+    public long getCompactionCount() {
+        return mCompactionCount.get();
+    }
+
+    public long getRecoveryTimeNanos() {
+        return mRecoveryTimeNanos;
+    }
+
+    /**
+     * Reads every record of the journal in the given directory. Must not be called on a
+     * directory used by a started journal.
+     */
+    public static List<Record> readAll(File directory) throws IOException {
+        final List<Record> records = new ArrayList<Record>();
+        for (File segment : listSegments(directory)) {
+            readSegment(segment, new RecordVisitor() {
+                @Override
+                public void visit(Record record) {
+                    records.add(record);
+                }
+            });
+        }
+        return records;
+    }
+
+    /**
+     * @param token the payment method token.
+     * @return the SHA-256 digest of {@code token}, identifying the token without revealing it.
+     */
+    public static byte[] fingerprint(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void runWriter() {
+        long start = System.nanoTime();
+        try {
+            recover();
+        } catch (IOException e) {
+            mRecoveryError = e;
+        }
+        mRecoveryTimeNanos = System.nanoTime() - start;
+        mRecovered.countDown();
+
+        List<PendingAppend> batch = new ArrayList<PendingAppend>(DEFAULT_MAX_BATCH);
+        boolean closing = false;
+        while (!closing) {
+            try {
+                batch.add(mQueue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            // everything queued while the previous batch was synced goes into this one
+            mQueue.drainTo(batch, DEFAULT_MAX_BATCH - 1);
+
+            IOException error = mRecoveryError;
+            if (error == null) {
+                try {
+                    closing = writeBatch(batch);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            for (PendingAppend pending : batch) {
+                closing |= pending.record == null;
+                pending.complete(error);
+            }
+            batch.clear();
+        }
+        closeActiveSegment();
+    }
+
+    /**
+     * @return whether the batch holds the request to close the journal.
+     */
+    private boolean writeBatch(List<PendingAppend> batch) throws IOException {
+        boolean closing = false;
+        mBatchBytes.reset();
+        mBatchTransactionIds.clear();
+        for (PendingAppend pending : batch) {
+            Record record = pending.record;
+            if (record == null) {
+                closing = true;
+                continue;
+            }
+            if (mTransactionIds.contains(record.googleTransactionId)
+                    || !mBatchTransactionIds.add(record.googleTransactionId)) {
+                // already journaled, e.g. when the order screen is shown again
+                continue;
+            }
+            mEncoder.encode(record, mBatchOut);
+        }
+
+        int written = mBatchTransactionIds.size();
+        if (written > 0) {
+            if (mActiveOut == null) {
+                // no segment could be opened after an earlier batch failed
+                openNewSegment();
+            }
+            try {
+                writeToSegment(mBatchBytes, mActiveOut);
+            } catch (IOException e) {
+                discardFailedBatch();
+                throw e;
+            }
+            // only records that are on disk count as journaled, a failed batch can be retried
+            mTransactionIds.addAll(mBatchTransactionIds);
+            mActiveLength += mBatchBytes.size();
+            mRecordCount.addAndGet(written);
+            mSyncCount.incrementAndGet();
+            if (mActiveLength >= mMaxSegmentBytes) {
+                sealActiveSegment();
+            }
+        }
+        return closing;
+    }
+
+    /**
+     * Writes a batch to the active segment and syncs it. Tests override it to fail writes.
+     */
+    void writeToSegment(ByteArrayOutputStream bytes, FileOutputStream out) throws IOException {
+        bytes.writeTo(out);
+        out.getFD().sync();
+    }
+
+    /**
+     * Removes what a failed batch may have left at the end of the active segment. Recovery
+     * stops reading a segment at its first bad record, so records appended after a partial
+     * batch would be lost. If the segment cannot be cut back, it is sealed and later batches go
+     * to a new one.
+     */
+    private void discardFailedBatch() {
+        try {
+            FileChannel channel = mActiveOut.getChannel();
+            channel.truncate(mActiveLength);
+            channel.position(mActiveLength);
+            channel.force(true);
+            return;
+        } catch (IOException e) {
+            // sealed below, recovery truncates it at the partial batch
+        }
+        closeActiveSegment();
+        sealSegment(mActiveSegment);
+        try {
+            openNewSegment();
+        } catch (IOException e) {
+            // opened by the next batch; a segment without a header is deleted by recovery
+            closeActiveSegment();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, Record record) throws IOException {
+        out.writeByte(RECORD_VERSION);
+        out.writeLong(record.timestampMillis);
+        out.writeUTF(record.googleTransactionId);
+        out.writeUTF(record.itemName);
+        out.writeUTF(record.currencyCode);
+        out.writeLong(record.subtotalCents);
+        out.writeLong(record.shippingCents);
+        out.writeLong(record.taxCents);
+        out.writeLong(record.totalCents);
+        byte[] fingerprint =
+                record.tokenFingerprint != null ? record.tokenFingerprint : new byte[0];
+        out.writeByte(fingerprint.length);
+        out.write(fingerprint);
+    }
+
+    private static Record readRecord(DataInputStream in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != RECORD_VERSION) {
+            throw new IOException("Unknown record version " + version);
+        }
+        long timestampMillis = in.readLong();
+        String googleTransactionId = in.readUTF();
+        String itemName = in.readUTF();
+        String currencyCode = in.readUTF();
+        long subtotalCents = in.readLong();
+        long shippingCents = in.readLong();
+        long taxCents = in.readLong();
+        long totalCents = in.readLong();
+        byte[] fingerprint = new byte[in.readUnsignedByte()];
+        in.readFully(fingerprint);
+        return new Record(timestampMillis, googleTransactionId, itemName, currencyCode,
+                subtotalCents, shippingCents, taxCents, totalCents, fingerprint);
+    }
+
+    private void recover() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+
+        // a compaction that did not finish left its output behind, the inputs are still there
+        File[] leftovers = mDirectory.listFiles();
+        if (leftovers != null) {
+            for (File file : leftovers) {
+                if (file.getName().endsWith(COMPACT_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+
+        List<File> segments = listSegments(mDirectory);
+        if (!segments.isEmpty()) {
+            mNextSegmentNumber = segmentNumber(segments.get(segments.size() - 1)) + 1;
+        }
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            File segment = segments.get(i);
+            long validLength = readSegment(segment, new RecordVisitor() {
+                @Override
+                public void visit(Record record) {
+                    mTransactionIds.add(record.googleTransactionId);
+                }
+            });
+            mTruncatedBytes.addAndGet(segment.length() - validLength);
+            if (validLength == 0) {
+                // not even the header was written, appending to it would hide every record
+                segment.delete();
+                segments.remove(i);
+            } else if (validLength < segment.length()) {
+                truncate(segment, validLength);
+            }
+        }
+        mRecordCount.set(mTransactionIds.size());
+
+        if (segments.isEmpty()) {
+            openNewSegment();
+        } else {
+            File last = segments.get(segments.size() - 1);
+            synchronized (mSealedSegments) {
+                mSealedSegments.addAll(segments.subList(0, segments.size() - 1));
+            }
+            if (last.length() >= mMaxSegmentBytes) {
+                sealSegment(last);
+                openNewSegment();
+            } else {
+                mActiveSegment = last;
+                mActiveLength = last.length();
+                mActiveOut = new FileOutputStream(last, true);
+            }
+        }
+    }
+
+    private interface RecordVisitor {
+        void visit(Record record);
+    }
+
+    /**
+     * Visits the records of a segment up to the first one that is incomplete or corrupt.
+     *
+     * @return length of the segment up to the end of its last good record.
+     */
+    private static long readSegment(File segment, RecordVisitor visitor) throws IOException {
+        long length = segment.length();
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(segment), 64 * 1024));
+        try {
+            if (length < SEGMENT_HEADER_LENGTH || in.readInt() != SEGMENT_MAGIC) {
+                // the header itself was never completely written
+                return 0;
+            }
+
+            long position = SEGMENT_HEADER_LENGTH;
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[512];
+            while (position + 8 <= length) {
+                int recordLength = in.readInt();
+                int recordCrc = in.readInt();
+                if (recordLength <= 0 || recordLength > MAX_RECORD_LENGTH
+                        || position + 8 + recordLength > length) {
+                    break;
+                }
+                if (buffer.length < recordLength) {
+                    buffer = new byte[Math.max(recordLength, buffer.length * 2)];
+                }
+                in.readFully(buffer, 0, recordLength);
+                crc.reset();
+                crc.update(buffer, 0, recordLength);
+                if ((int) crc.getValue() != recordCrc) {
+                    break;
+                }
+
+                Record record;
+                try {
+                    record = readRecord(new DataInputStream(
+                            new ByteArrayInputStream(buffer, 0, recordLength)));
+                } catch (IOException e) {
+                    break;
+                }
+                visitor.visit(record);
+                position += 8 + recordLength;
+            }
+            return position;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Rewrites the oldest closed segments holding expired records, oldest first, stopping at the
+     * first segment that holds none. Runs on the compaction thread.
+     */
+    private void compact() throws IOException {
+        List<File> sealed;
+        synchronized (mSealedSegments) {
+            sealed = new ArrayList<File>(mSealedSegments);
+        }
+        long oldestKept = System.currentTimeMillis() - mRetentionMillis;
+        RecordEncoder encoder = new RecordEncoder();
+        int compacted = 0;
+        for (int i = 0; i < sealed.size() && compacted < MAX_SEGMENTS_PER_COMPACTION; i++) {
+            if (!compactSegment(sealed.get(i), oldestKept, encoder)) {
+                break;
+            }
+            compacted++;
+        }
+        if (compacted > 0) {
+            mCompactionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the records older than {@code oldestKept} from a closed segment, deleting the segment
+     * if none are left.
+     *
+     * @return whether the segment held any such record.
+     */
+    private boolean compactSegment(File segment, final long oldestKept,
+            final RecordEncoder encoder) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) segment.length());
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.write(segmentHeader());
+        final Set<String> seen = new HashSet<String>();
+        final IOException[] error = new IOException[1];
+        final int[] dropped = new int[1];
+        readSegment(segment, new RecordVisitor() {
+            @Override
+            public void visit(Record record) {
+                if (record.timestampMillis < oldestKept || !seen.add(record.googleTransactionId)) {
+                    dropped[0]++;
+                    return;
+                }
+                try {
+                    encoder.encode(record, out);
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        if (dropped[0] == 0) {
+            return false;
+        }
+
+        if (seen.isEmpty()) {
+            segment.delete();
+            synchronized (mSealedSegments) {
+                mSealedSegments.remove(segment);
+            }
+        } else {
+            // the segment is replaced atomically, a crash before the rename leaves it as it was
+            File output = new File(segment.getPath() + COMPACT_SUFFIX);
+            FileOutputStream fileOut = new FileOutputStream(output);
+            try {
+                bytes.writeTo(fileOut);
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            if (!output.renameTo(segment)) {
+                output.delete();
+                throw new IOException("Cannot replace " + segment);
+            }
+        }
+        mRecordCount.addAndGet(-dropped[0]);
+        return true;
+    }
+
+    private void scheduleCompaction() {
+        mCompactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    // the segments are left as they were, try again after the next one is closed
+                }
+            }
+        });
+    }
+
+    private void sealActiveSegment() throws IOException {
+        closeActiveSegment();
+        sealSegment(mActiveSegment);
+        openNewSegment();
+    }
+
+    private void sealSegment(File segment) {
+        synchronized (mSealedSegments) {
+            mSealedSegments.add(segment);
+        }
+        scheduleCompaction();
+    }
+
+    private void openNewSegment() throws IOException {
+        mActiveSegment = new File(mDirectory,
+                String.format("%016d%s", mNextSegmentNumber++, SEGMENT_SUFFIX));
+        mActiveOut = new FileOutputStream(mActiveSegment);
+        mActiveOut.write(segmentHeader());
+        mActiveOut.getFD().sync();
+        mActiveLength = SEGMENT_HEADER_LENGTH;
+    }
+
+    private void closeActiveSegment() {
+        if (mActiveOut != null) {
+            try {
+                mActiveOut.close();
+            } catch (IOException e) {
+                // every record written was synced already
+            }
+            mActiveOut = null;
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static byte[] segmentHeader() {
+        return new byte[] {
+                (byte) (SEGMENT_MAGIC >>> 24), (byte) (SEGMENT_MAGIC >>> 16),
+                (byte) (SEGMENT_MAGIC >>> 8), (byte) SEGMENT_MAGIC};
+    }
+
+    private static List<File> listSegments(File directory) {
+        File[] files = directory.listFiles();
+        List<File> segments = new ArrayList<File>();
+        if (files == null) {
+            return segments;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+                segments.add(file);
+            }
+        }
+        return segments;
+    }
+
+    private static long segmentNumber(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Encodes records as their length, CRC32 and content.
+     */
+    private static class RecordEncoder {
+        private final ByteArrayOutputStream mRecordBytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream mRecordOut = new DataOutputStream(mRecordBytes);
+        private final CRC32 mCrc = new CRC32();
+
+        void encode(Record record, DataOutputStream out) throws IOException {
+            mRecordBytes.reset();
+            writeRecord(mRecordOut, record);
+            mCrc.reset();
+            byte[] bytes = mRecordBytes.toByteArray();
+            mCrc.update(bytes, 0, bytes.length);
+            out.writeInt(bytes.length);
+            out.writeInt((int) mCrc.getValue());
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * A record waiting for the writer thread. A {@code null} record closes the journal.
+     */
+    private static class PendingAppend {
+        final Record record;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile IOException mError;
+
+        PendingAppend(Record record) {
+            this.record = record;
+        }
+
+        void complete(IOException error) {
+            mError = error;
+            mDone.countDown();
+        }
+
+        void await() throws IOException, InterruptedException {
+            mDone.await();
+            if (mError != null) {
+                throw new IOException("Cannot append to order journal", mError);
+            }
+        }
+    }
+}
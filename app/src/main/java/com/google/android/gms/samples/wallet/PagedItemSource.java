@@ -0,0 +1,197 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Rows of a {@link CatalogStore} for a list, loaded a page at a time in the background.
+ *
+ * Only the pages around the visible rows are kept: the pages ahead of the scroll direction are
+ * loaded before they are shown, and pages that have scrolled far out of view are dropped, so
+ * memory stays flat however large the catalog and however far the list is scrolled. A row whose
+ * page is not loaded yet is {@code null} and the {@link Listener} is told once it is.
+ *
+ * Except for loading, which runs on the load executor, everything happens on the thread of the
+ * delivery executor, the main thread for a list.
+ */
+public class PagedItemSource {
+
+    /**
+     * Told when the rows of a page can be shown.
+     */
+    public interface Listener {
+        void onPageLoaded(int page);
+    }
+
+    private final CatalogStore mCatalogStore;
+    private final int mPageSize;
+    private final int mPrefetchPages;
+    private final Executor mLoadExecutor;
+    private final Executor mDeliveryExecutor;
+
+    private final Map<Integer, ItemInfo[]> mPages = new HashMap<Integer, ItemInfo[]>();
+    private final Set<Integer> mLoadingPages = new HashSet<Integer>();
+    private Listener mListener;
+    private int mFirstVisiblePosition;
+    private boolean mClosed;
+
+    // pages worth loading, read by the load executor to skip pages scrolled past meanwhile
+    private volatile int mFirstWantedPage;
+    private volatile int mLastWantedPage;
+
+    /**
+     * @param pageSize number of rows loaded at once.
+     * @param prefetchPages number of pages loaded ahead of the visible rows. Pages further than
+     *                      that behind the visible rows are dropped.
+     * @param loadExecutor decodes pages, off the main thread.
+     * @param deliveryExecutor hands loaded pages over, on the main thread.
+     */
+    public PagedItemSource(CatalogStore catalogStore, int pageSize, int prefetchPages,
+            Executor loadExecutor, Executor deliveryExecutor) {
+        mCatalogStore = catalogStore;
+        mPageSize = pageSize;
+        mPrefetchPages = prefetchPages;
+        mLoadExecutor = loadExecutor;
+        mDeliveryExecutor = deliveryExecutor;
+        mLastWantedPage = prefetchPages;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public int getCount() {
+        return mCatalogStore.getCount();
+    }
+
+    /**
+     * @return the item at {@code position}, or {@code null} if its page is still loading.
+     */
+    public ItemInfo getItem(int position) {
+        int page = position / mPageSize;
+        ItemInfo[] items = mPages.get(page);
+        if (items == null) {
+            load(page);
+            return null;
+        }
+        return items[position - page * mPageSize];
+    }
+
+    /**
+     * Loads the pages ahead of the visible rows and drops the pages far from them. Call it as
+     * the list scrolls.
+     */
+    public void onVisibleRangeChanged(int firstVisiblePosition, int visibleCount) {
+        if (visibleCount <= 0) {
+            return;
+        }
+        boolean scrollingBack = firstVisiblePosition < mFirstVisiblePosition;
+        mFirstVisiblePosition = firstVisiblePosition;
+
+        int firstVisiblePage = firstVisiblePosition / mPageSize;
+        int lastVisiblePage = (firstVisiblePosition + visibleCount - 1) / mPageSize;
+        int lastPage = (getCount() - 1) / mPageSize;
+        // most of the prefetching happens in the direction of the scroll
+        int firstWantedPage = Math.max(0,
+                firstVisiblePage - (scrollingBack ? mPrefetchPages : 1));
+        int lastWantedPage = Math.min(lastPage,
+                lastVisiblePage + (scrollingBack ? 1 : mPrefetchPages));
+        mFirstWantedPage = firstWantedPage;
+        mLastWantedPage = lastWantedPage;
+
+        // pages are kept a little beyond the wanted ones, so that a small scroll back and forth
+        // does not reload them
+        int firstKeptPage = firstVisiblePage - mPrefetchPages - 1;
+        int lastKeptPage = lastVisiblePage + mPrefetchPages + 1;
+        for (Iterator<Integer> it = mPages.keySet().iterator(); it.hasNext(); ) {
+            int page = it.next();
+            if (page < firstKeptPage || page > lastKeptPage) {
+                it.remove();
+            }
+        }
+
+        for (int page = firstWantedPage; page <= lastWantedPage; page++) {
+            if (!mPages.containsKey(page)) {
+                load(page);
+            }
+        }
+    }
+
+    /**
+     * @return number of pages held in memory.
+     */
+    public int getLoadedPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * Stops delivering pages, e.g. once the list is destroyed.
+     */
+    public void close() {
+        mClosed = true;
+        mPages.clear();
+    }
+
+    private void load(final int page) {
+        if (mClosed || !mLoadingPages.add(page)) {
+            return;
+        }
+        mLoadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ItemInfo[] items = null;
+                // a fling may have scrolled far past the page before its turn came
+                if (page >= mFirstWantedPage - mPrefetchPages
+                        && page <= mLastWantedPage + mPrefetchPages) {
+                    int start = page * mPageSize;
+                    items = mCatalogStore.getItems(start,
+                            Math.min(mPageSize, mCatalogStore.getCount() - start));
+                }
+                deliver(page, items);
+            }
+        });
+    }
+
+    private void deliver(final int page, final ItemInfo[] items) {
+        mDeliveryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mLoadingPages.remove(page);
+                if (mClosed) {
+                    return;
+                }
+                if (items == null) {
+                    // skipped, but the list may have come back to it meanwhile
+                    if (page >= mFirstWantedPage && page <= mLastWantedPage) {
+                        load(page);
+                    }
+                    return;
+                }
+                mPages.put(page, items);
+                if (mListener != null) {
+                    mListener.onPageLoaded(page);
+                }
+            }
+        });
+    }
+}
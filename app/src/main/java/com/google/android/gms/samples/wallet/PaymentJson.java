@@ -0,0 +1,58 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Builds the payments sent to the merchant server, in the format read by
+ * {@code MerchantServer}. Shared by the app and the checkout load test, so that both send the
+ * same payload.
+ */
+public final class PaymentJson {
+
+    private PaymentJson() {}
+
+    /**
+     * @param googleTransactionId Google transaction id of the full wallet.
+     * @param merchantTransactionId merchant transaction id of the full wallet, may be
+     *                              {@code null}.
+     * @param itemInfo the item being paid for, in a cart of its own.
+     * @param paymentMethodToken the payment method token of the full wallet as a JSON string,
+     *                           {@code null} if there is none.
+     * @return the payment as a JSON object.
+     */
+    public static String create(String googleTransactionId, String merchantTransactionId,
+            ItemInfo itemInfo, String paymentMethodToken) {
+        try {
+            ShoppingCart cart = ShoppingCart.of(itemInfo);
+            JSONObject payment = new JSONObject()
+                    .put("idempotencyKey", IdempotencyKey.create(googleTransactionId, cart))
+                    .put("merchantTransactionId", merchantTransactionId)
+                    .put("itemName", itemInfo.name)
+                    .put("currencyCode", itemInfo.currencyCode)
+                    .put("totalPrice", PriceUtil.formatCents(cart.getTotalCents(false)));
+            if (paymentMethodToken != null) {
+                payment.put("paymentMethodToken", paymentMethodToken);
+            }
+            return payment.toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException("Cannot create payment JSON", e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+/**
+ * The {@code Wallet.Payments} calls made during checkout that return their result to a
+ * callback rather than to an activity, behind an interface that uses plain Java types only.
+ * Masked and full wallets are loaded by the fragments with their own request codes.
+ *
+ * {@link PlayServicesPaymentsProvider} makes the real calls. {@link FakePaymentsProvider} answers
+ * them in memory, and also simulates the wallet loads, so that the checkout flow can be driven
+ * and benchmarked on a JVM without Google Play services.
+ *
+ * Results are delivered to a {@link Callback}, on the main thread for Google Play services and
+ * on the thread chosen by the fake.
+ */
+public interface PaymentsProvider {
+
+    /**
+     * Error code of a call the user canceled, e.g. by backing out of the Android Pay chooser.
+     */
+    int ERROR_CODE_CANCELED = -1;
+
+    // The WalletConstants.ERROR_CODE_* values, for code that cannot depend on Google Play services
+    int ERROR_CODE_SERVICE_UNAVAILABLE = 402;
+    int ERROR_CODE_INVALID_PARAMETERS = 404;
+    int ERROR_CODE_MERCHANT_ACCOUNT_ERROR = 405;
+    int ERROR_CODE_SPENDING_LIMIT_EXCEEDED = 406;
+    int ERROR_CODE_BUYER_ACCOUNT_ERROR = 409;
+    int ERROR_CODE_INVALID_TRANSACTION = 410;
+    int ERROR_CODE_AUTHENTICATION_FAILURE = 411;
+    int ERROR_CODE_UNSUPPORTED_API_VERSION = 412;
+    int ERROR_CODE_UNKNOWN = 413;
+
+    /**
+     * Receives the outcome of a call, exactly once.
+     */
+    interface Callback<T> {
+        void onResult(T result);
+
+        /**
+         * @param errorCode one of the {@code ERROR_CODE_*} values, or a status code for calls
+         *                  that report a {@code Status}.
+         */
+        void onError(int errorCode);
+    }
+
+    void isReadyToPay(Callback<Boolean> callback);
+
+    /**
+     * @param status a {@code NotifyTransactionStatusRequest.Status} value.
+     */
+    void notifyTransactionStatus(String googleTransactionId, int status);
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wallet.Wallet;
+
+/**
+ * A {@link PaymentsProvider} making the calls with Google Play services.
+ *
+ * The client must have the {@link Wallet#API}. Must be used on the main thread. The
+ * {@code isReadyToPay} call itself is made by {@link CheckoutActivity}, whose snippet the sample
+ * docs show.
+ */
+public class PlayServicesPaymentsProvider implements PaymentsProvider {
+
+    private final GoogleApiClient mGoogleApiClient;
+
+    /**
+     * @param googleApiClient client used for the calls.
+     */
+    public PlayServicesPaymentsProvider(GoogleApiClient googleApiClient) {
+        mGoogleApiClient = googleApiClient;
+    }
+
+    @Override
+    public void isReadyToPay(Callback<Boolean> callback) {
+        CheckoutActivity.isReadyToPay(mGoogleApiClient, callback);
+    }
+
+    @Override
+    public void notifyTransactionStatus(String googleTransactionId, int status) {
+        // [START notify_transaction_status]
+        Wallet.Payments.notifyTransactionStatus(mGoogleApiClient,
+                WalletUtil.createNotifyTransactionStatusRequest(googleTransactionId, status));
+        // [END notify_transaction_status]
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+/**
+ * Fixed-point helpers for prices expressed in micros. Amounts are rounded to cents with
+ * {@link java.math.RoundingMode#HALF_EVEN} using integer math only, so sums can be carried as
+ * {@code long} cents and formatted to a String once, where the Instant Buy API needs it.
+ */
+public final class PriceUtil {
+
+    public static final long MICROS_PER_CENT = 10000L;
+
+    private PriceUtil() {}
+
+    /**
+     * @param micros Amount in micros.
+     * @return the amount rounded half-even to whole cents.
+     */
+    public static long toCents(long micros) {
+        long cents = micros / MICROS_PER_CENT;
+        long remainder = micros % MICROS_PER_CENT;
+        long half = MICROS_PER_CENT / 2;
+
+        // remainder has the sign of micros, so round away from zero on the matching side
+        if (remainder > half || (remainder == half && (cents & 1) != 0)) {
+            cents++;
+        } else if (remainder < -half || (remainder == -half && (cents & 1) != 0)) {
+            cents--;
+        }
+        return cents;
+    }
+
+    /**
+     * @param cents Amount in cents.
+     * @return string formatted as "0.00" required by the Instant Buy API.
+     */
+    public static String formatCents(long cents) {
+        StringBuilder builder = new StringBuilder(24);
+        if (cents < 0) {
+            builder.append('-');
+        }
+        // the parts are made positive after dividing, -Long.MIN_VALUE does not fit in a long
+        long fraction = Math.abs(cents % 100);
+        builder.append(Math.abs(cents / 100)).append('.');
+        if (fraction < 10) {
+            builder.append('0');
+        }
+        return builder.append(fraction).toString();
+    }
+
+    /**
+     * @param micros Amount in micros.
+     * @return string formatted as "0.00" required by the Instant Buy API.
+     */
+    public static String toDollars(long micros) {
+        return formatCents(toCents(micros));
+    }
+}
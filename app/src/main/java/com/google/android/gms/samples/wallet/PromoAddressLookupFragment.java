@@ -119,6 +119,8 @@ public class PromoAddressLookupFragment extends Fragment implements
             case REQUEST_CODE_RESOLVE_ADDRESS_LOOKUP:
                 dismissProgressDialog();
                 mPromoWasSelected = false;
+                ((BikestoreApplication) getActivity().getApplication()).getMetricsRegistry()
+                        .increment(MetricsRegistry.ADDRESS_RESULT, resultCode);
                 switch (resultCode) {
                     case Activity.RESULT_OK:
                         ((BikestoreApplication) getActivity().getApplication())
@@ -162,6 +164,8 @@ public class PromoAddressLookupFragment extends Fragment implements
 
     @Override
     public void onConnectionFailed(ConnectionResult result) {
+        ((BikestoreApplication) getActivity().getApplication()).getMetricsRegistry()
+                .increment(MetricsRegistry.CONNECTION_FAILURE, result.getErrorCode());
         // Save the intent so that we can start an lookup when the user clicks the promo.
         mConnectionResult = result;
         if (mPromoWasSelected) {
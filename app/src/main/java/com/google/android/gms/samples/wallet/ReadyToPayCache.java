@@ -0,0 +1,90 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the result of {@code Wallet.Payments.isReadyToPay} per account.
+ *
+ * A cached result can be shown right away. Once it is older than the time to live it is still
+ * returned by {@link #get(String)}, but {@link #isFresh(String)} returns false so the caller
+ * knows to check again in the background.
+ */
+public class ReadyToPayCache {
+
+    // Key used when no user is logged in
+    private static final String NO_ACCOUNT = "";
+
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    private long mTtlNanos;
+
+    /**
+     * @param ttlMillis how long a result stays fresh, in milliseconds.
+     */
+    public ReadyToPayCache(long ttlMillis) {
+        setTtlMillis(ttlMillis);
+    }
+
+    public synchronized void setTtlMillis(long ttlMillis) {
+        mTtlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * @param accountName the account the result was obtained for, may be null.
+     * @return the last result for the account, or null if there is none.
+     */
+    public synchronized Boolean get(String accountName) {
+        Entry entry = mEntries.get(key(accountName));
+        return entry == null ? null : entry.isReadyToPay;
+    }
+
+    /**
+     * @return whether there is a result for the account that is younger than the time to live.
+     */
+    public synchronized boolean isFresh(String accountName) {
+        Entry entry = mEntries.get(key(accountName));
+        return entry != null && System.nanoTime() - entry.timestampNanos < mTtlNanos;
+    }
+
+    public synchronized void put(String accountName, boolean isReadyToPay) {
+        mEntries.put(key(accountName), new Entry(isReadyToPay, System.nanoTime()));
+    }
+
+    /**
+     * Forgets all results, e.g. when the user logs in or out.
+     */
+    public synchronized void invalidate() {
+        mEntries.clear();
+    }
+
+    private static String key(String accountName) {
+        return accountName == null ? NO_ACCOUNT : accountName;
+    }
+
+    private static class Entry {
+        final boolean isReadyToPay;
+        final long timestampNanos;
+
+        Entry(boolean isReadyToPay, long timestampNanos) {
+            this.isReadyToPay = isReadyToPay;
+            this.timestampNanos = timestampNanos;
+        }
+    }
+}
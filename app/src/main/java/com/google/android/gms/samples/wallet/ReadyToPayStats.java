@@ -0,0 +1,51 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of {@code Wallet.Payments.isReadyToPay} calls made by the checkout page and how often
+ * the checkout page gave up waiting for them, see {@link Constants#READY_TO_PAY_DEADLINE_MILLIS}.
+ */
+public class ReadyToPayStats {
+
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+    private final AtomicLong mDeadlineExceededCount = new AtomicLong();
+
+    public void recordCall(long latencyNanos) {
+        mLatency.record(latencyNanos);
+    }
+
+    public void recordDeadlineExceeded() {
+        mDeadlineExceededCount.incrementAndGet();
+    }
+
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    public long getDeadlineExceededCount() {
+        return mDeadlineExceededCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "deadlineExceeded=" + getDeadlineExceededCount() + " "
+                + mLatency.toSummaryString();
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An inverted index of the words in the names and descriptions of the items of a
+ * {@link CatalogStore}, for search as you type.
+ *
+ * The index is built in the background in segments of consecutive items, each published as
+ * soon as it is complete, so searches find the first items while the rest are still being
+ * indexed. A segment holds its words sorted, so the words starting with a prefix form a range
+ * found by binary search, with the ids of the items holding each word, and for each item the
+ * ranks of its words. A search takes every word of the query as a prefix and returns the items
+ * matching all of them, in catalog order.
+ *
+ * Searching is safe on any thread, and fast enough for the main thread.
+ */
+public class SearchIndex {
+
+    private static final Segment[] NO_SEGMENTS = new Segment[0];
+
+    private final CatalogStore mCatalogStore;
+    // replaced, never modified, when a segment is added
+    private volatile Segment[] mSegments = NO_SEGMENTS;
+    private volatile boolean mClosed;
+
+    public SearchIndex(CatalogStore catalogStore) {
+        mCatalogStore = catalogStore;
+    }
+
+    /**
+     * @return the catalog this index covers.
+     */
+    public CatalogStore getCatalogStore() {
+        return mCatalogStore;
+    }
+
+    /**
+     * Indexes the catalog, publishing a segment every {@code segmentSize} items. Runs on the
+     * calling thread, which must not be the main thread.
+     */
+    public void build(int segmentSize) {
+        int count = mCatalogStore.getCount();
+        for (int start = getIndexedCount(); start < count && !mClosed; start += segmentSize) {
+            Segment segment = new Segment(start,
+                    mCatalogStore.getItems(start, Math.min(segmentSize, count - start)));
+            Segment[] segments = Arrays.copyOf(mSegments, mSegments.length + 1);
+            segments[segments.length - 1] = segment;
+            mSegments = segments;
+        }
+    }
+
+    /**
+     * Stops a build in progress.
+     */
+    public void close() {
+        mClosed = true;
+    }
+
+    /**
+     * @return number of items indexed so far.
+     */
+    public int getIndexedCount() {
+        Segment[] segments = mSegments;
+        return segments.length == 0 ? 0 : segments[segments.length - 1].mEnd;
+    }
+
+    public boolean isComplete() {
+        return getIndexedCount() == mCatalogStore.getCount();
+    }
+
+    /**
+     * @return ids of the first {@code maxResults} items having, for each word of
+     *         {@code query}, a word in their name or description starting with it. Empty if
+     *         the query has no words.
+     */
+    public int[] search(String query, int maxResults) {
+        String[] prefixes = tokenize(query);
+        if (prefixes.length == 0) {
+            return new int[0];
+        }
+        int[] results = new int[maxResults];
+        int count = 0;
+        for (Segment segment : mSegments) {
+            if (count == maxResults) {
+                break;
+            }
+            count = segment.search(prefixes, results, count);
+        }
+        return Arrays.copyOf(results, count);
+    }
+
+    /**
+     * Splits text into lower case words of letters and digits.
+     */
+    static String[] tokenize(String text) {
+        List<String> words = new ArrayList<String>();
+        if (text != null) {
+            String lowerCase = text.toLowerCase(Locale.ROOT);
+            int start = -1;
+            for (int i = 0; i <= lowerCase.length(); i++) {
+                boolean inWord = i < lowerCase.length()
+                        && Character.isLetterOrDigit(lowerCase.charAt(i));
+                if (inWord && start < 0) {
+                    start = i;
+                } else if (!inWord && start >= 0) {
+                    words.add(lowerCase.substring(start, i));
+                    start = -1;
+                }
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    /**
+     * The index of a range of consecutive items.
+     */
+    private static class Segment {
+
+        final int mStart;
+        final int mEnd;
+        // the distinct words of the items, sorted
+        final String[] mWords;
+        // ids of the items holding mWords[i] are mPostings[mPostingStarts[i]] up to
+        // mPostings[mPostingStarts[i + 1]], in ascending order
+        final int[] mPostingStarts;
+        final int[] mPostings;
+        // ranks in mWords of the words of item mStart + i, sorted, in the same layout
+        final int[] mItemWordStarts;
+        final int[] mItemWords;
+
+        Segment(int start, ItemInfo[] items) {
+            mStart = start;
+            mEnd = start + items.length;
+
+            String[][] itemWords = new String[items.length][];
+            Map<String, Integer> frequencies = new HashMap<String, Integer>();
+            int itemWordCount = 0;
+            for (int i = 0; i < items.length; i++) {
+                String[] words = distinct(tokenize(items[i].name + " " + items[i].description));
+                itemWords[i] = words;
+                itemWordCount += words.length;
+                for (String word : words) {
+                    Integer frequency = frequencies.get(word);
+                    frequencies.put(word, frequency == null ? 1 : frequency + 1);
+                }
+            }
+
+            mWords = frequencies.keySet().toArray(new String[frequencies.size()]);
+            Arrays.sort(mWords);
+            Map<String, Integer> ranks = new HashMap<String, Integer>(mWords.length * 2);
+            mPostingStarts = new int[mWords.length + 1];
+            for (int rank = 0; rank < mWords.length; rank++) {
+                ranks.put(mWords[rank], rank);
+                mPostingStarts[rank + 1] = mPostingStarts[rank] + frequencies.get(mWords[rank]);
+            }
+
+            mPostings = new int[itemWordCount];
+            int[] postingEnds = Arrays.copyOf(mPostingStarts, mWords.length);
+            mItemWordStarts = new int[items.length + 1];
+            mItemWords = new int[itemWordCount];
+            for (int i = 0; i < items.length; i++) {
+                int offset = mItemWordStarts[i];
+                for (String word : itemWords[i]) {
+                    int rank = ranks.get(word);
+                    // items are visited in order, so the postings come out sorted
+                    mPostings[postingEnds[rank]++] = start + i;
+                    mItemWords[offset++] = rank;
+                }
+                Arrays.sort(mItemWords, mItemWordStarts[i], offset);
+                mItemWordStarts[i + 1] = offset;
+            }
+        }
+
+        /**
+         * Appends the ids of the matching items to {@code results}.
+         *
+         * @return the number of results.
+         */
+        int search(String[] prefixes, int[] results, int count) {
+            // the ranks of the words starting with each prefix, from low to high, exclusive
+            int[] lows = new int[prefixes.length];
+            int[] highs = new int[prefixes.length];
+            int selective = 0;
+            int selectivePostings = Integer.MAX_VALUE;
+            for (int i = 0; i < prefixes.length; i++) {
+                lows[i] = lowerBound(prefixes[i]);
+                highs[i] = lowerBound(prefixes[i] + Character.MAX_VALUE);
+                if (lows[i] == highs[i]) {
+                    return count;
+                }
+                int postings = mPostingStarts[highs[i]] - mPostingStarts[lows[i]];
+                if (postings < selectivePostings) {
+                    selective = i;
+                    selectivePostings = postings;
+                }
+            }
+
+            int itemCount = mEnd - mStart;
+            int postingStart = mPostingStarts[lows[selective]];
+            if (highs[selective] - lows[selective] == 1) {
+                // one word: its postings are sorted already
+                for (int i = 0; i < selectivePostings && count < results.length; i++) {
+                    int id = mPostings[postingStart + i];
+                    if (matchesAll(id - mStart, lows, highs)) {
+                        results[count++] = id;
+                    }
+                }
+            } else if (selectivePostings < itemCount / 8) {
+                // few candidates: the postings of several words are each sorted, but not
+                // together, and an item may hold more than one of the words
+                int[] candidates = Arrays.copyOfRange(mPostings, postingStart,
+                        postingStart + selectivePostings);
+                Arrays.sort(candidates);
+                int previous = -1;
+                for (int i = 0; i < candidates.length && count < results.length; i++) {
+                    int id = candidates[i];
+                    if (id != previous && matchesAll(id - mStart, lows, highs)) {
+                        results[count++] = id;
+                    }
+                    previous = id;
+                }
+            } else {
+                // many candidates: matches are frequent, so the first ones come quickly
+                for (int i = 0; i < itemCount && count < results.length; i++) {
+                    if (matchesAll(i, lows, highs)) {
+                        results[count++] = mStart + i;
+                    }
+                }
+            }
+            return count;
+        }
+
+        private boolean matchesAll(int item, int[] lows, int[] highs) {
+            int from = mItemWordStarts[item];
+            int to = mItemWordStarts[item + 1];
+            for (int i = 0; i < lows.length; i++) {
+                // the first word of the item ranking at or after lows[i]
+                int index = Arrays.binarySearch(mItemWords, from, to, lows[i]);
+                if (index < 0) {
+                    index = -index - 1;
+                }
+                if (index == to || mItemWords[index] >= highs[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int lowerBound(String word) {
+            int index = Arrays.binarySearch(mWords, word);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        private static String[] distinct(String[] words) {
+            if (words.length < 2) {
+                return words;
+            }
+            String[] sorted = words.clone();
+            Arrays.sort(sorted);
+            int count = 1;
+            for (int i = 1; i < sorted.length; i++) {
+                if (!sorted[i].equals(sorted[count - 1])) {
+                    sorted[count++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf(sorted, count);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cart holding any number of {@link ItemInfo}s with quantities. Items are told apart by their
+ * {@link ItemInfo#sku SKU}, as the catalog decodes a new {@link ItemInfo} each time it is asked
+ * for an item that is no longer cached.
+ *
+ * Subtotal, shipping and tax are kept as running totals while items are added or removed, so
+ * {@link WalletUtil} can turn a cart of any size into line items and a cart total in a single
+ * pass. Shipping and tax are charged per cart: the per-unit amounts of all items are added up
+ * in micros and rounded once, and show up as one shipping and one tax line item.
+ */
+public class ShoppingCart {
+
+    // Keyed by SKU, in the order the items were added
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>();
+    // The entries in order for access by index, rebuilt after items are added or removed
+    private Entry[] mEntryArray;
+
+    private long mSubtotalCents;
+    private long mShippingMicros;
+    private long mEstimatedShippingMicros;
+    private long mTaxMicros;
+    private long mEstimatedTaxMicros;
+
+    /**
+     * @param itemInfo the only item in the cart.
+     * @return a cart holding a single unit of {@code itemInfo}.
+     */
+    public static ShoppingCart of(ItemInfo itemInfo) {
+        ShoppingCart cart = new ShoppingCart();
+        cart.add(itemInfo, 1);
+        return cart;
+    }
+
+    /**
+     * Adds {@code quantity} units of an item, merging with the units already in the cart.
+     */
+    public void add(ItemInfo itemInfo, int quantity) {
+        Entry entry = mEntries.get(getSku(itemInfo));
+        setQuantity(itemInfo, entry == null ? quantity : entry.quantity + quantity);
+    }
+
+    /**
+     * Sets the number of units of an item in the cart. A quantity of zero removes the item.
+     */
+    public void setQuantity(ItemInfo itemInfo, int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Negative quantity: " + quantity);
+        }
+
+        Entry entry = mEntries.get(getSku(itemInfo));
+        if (entry == null) {
+            if (quantity == 0) {
+                return;
+            }
+            entry = new Entry(itemInfo);
+            mEntries.put(itemInfo.sku, entry);
+            mEntryArray = null;
+        }
+
+        // the prices are those of the item as first added, which the running totals hold
+        ItemInfo addedItem = entry.itemInfo;
+        long delta = quantity - entry.quantity;
+        mSubtotalCents += entry.unitPriceCents * delta;
+        mShippingMicros += addedItem.shippingPriceMicros * delta;
+        mEstimatedShippingMicros += addedItem.estimatedShippingPriceMicros * delta;
+        mTaxMicros += addedItem.taxMicros * delta;
+        mEstimatedTaxMicros += addedItem.estimatedTaxMicros * delta;
+        entry.quantity = quantity;
+
+        if (quantity == 0) {
+            mEntries.remove(itemInfo.sku);
+            mEntryArray = null;
+        }
+    }
+
+    /**
+     * @return number of distinct items in the cart.
+     */
+    public int getEntryCount() {
+        return mEntries.size();
+    }
+
+    public ItemInfo getItem(int index) {
+        return getEntry(index).itemInfo;
+    }
+
+    public int getQuantity(int index) {
+        return getEntry(index).quantity;
+    }
+
+    /**
+     * @return unit price of the item at {@code index}, rounded to cents.
+     */
+    public long getUnitPriceCents(int index) {
+        return getEntry(index).unitPriceCents;
+    }
+
+    public long getSubtotalCents() {
+        return mSubtotalCents;
+    }
+
+    /**
+     * @param isEstimate whether to use the estimated shipping used for a Masked Wallet request.
+     * @return shipping for the whole cart, rounded to cents.
+     */
+    public long getShippingCents(boolean isEstimate) {
+        return PriceUtil.toCents(isEstimate ? mEstimatedShippingMicros : mShippingMicros);
+    }
+
+    /**
+     * @param isEstimate whether to use the estimated tax used for a Masked Wallet request.
+     * @return tax for the whole cart, rounded to cents.
+     */
+    public long getTaxCents(boolean isEstimate) {
+        return PriceUtil.toCents(isEstimate ? mEstimatedTaxMicros : mTaxMicros);
+    }
+
+    /**
+     * @return the cart total, equal to the sum of the line items built from this cart.
+     */
+    public long getTotalCents(boolean isEstimate) {
+        return mSubtotalCents + getShippingCents(isEstimate) + getTaxCents(isEstimate);
+    }
+
+    /**
+     * Receives the formatted line items of a cart, see {@link #forEachLineItem}.
+     */
+    public interface LineItemVisitor {
+        /**
+         * @param unitPrice price of one unit, formatted as "0.00".
+         * @param totalPrice price of all units, formatted as "0.00".
+         */
+        void visitItem(ItemInfo itemInfo, String quantity, String unitPrice, String totalPrice);
+
+        void visitShipping(String totalPrice);
+
+        void visitTax(String totalPrice);
+    }
+
+    /**
+     * Formats the line items of the cart in a single pass: one per distinct item, in the order
+     * they were added, followed by one shipping and one tax line item for the whole cart. Their
+     * sum is {@link #getTotalCents(boolean)}.
+     *
+     * @param isEstimate whether to use the estimated shipping and tax used for a Masked Wallet
+     *                   request.
+     */
+    public void forEachLineItem(boolean isEstimate, LineItemVisitor visitor) {
+        for (Entry entry : mEntries.values()) {
+            String unitPrice = PriceUtil.formatCents(entry.unitPriceCents);
+            String totalPrice = entry.quantity == 1
+                    ? unitPrice : PriceUtil.formatCents(entry.unitPriceCents * entry.quantity);
+            visitor.visitItem(entry.itemInfo, Integer.toString(entry.quantity), unitPrice,
+                    totalPrice);
+        }
+        visitor.visitShipping(PriceUtil.formatCents(getShippingCents(isEstimate)));
+        visitor.visitTax(PriceUtil.formatCents(getTaxCents(isEstimate)));
+    }
+
+    /**
+     * @return a String describing every item, price and quantity in the cart. Two carts with the
+     *         same content key produce the same line items and totals.
+     */
+    public String getContentKey() {
+        StringBuilder builder = new StringBuilder(mEntries.size() * 64);
+        for (Entry entry : mEntries.values()) {
+            ItemInfo itemInfo = entry.itemInfo;
+            // length-prefix the name so that no name can run into the fields that follow it
+            builder.append(itemInfo.name.length()).append(':').append(itemInfo.name)
+                    .append(',').append(itemInfo.priceMicros)
+                    .append(',').append(itemInfo.shippingPriceMicros)
+                    .append(',').append(itemInfo.estimatedShippingPriceMicros)
+                    .append(',').append(itemInfo.taxMicros)
+                    .append(',').append(itemInfo.estimatedTaxMicros)
+                    .append(',').append(itemInfo.currencyCode)
+                    .append('x').append(entry.quantity)
+                    .append(';');
+        }
+        return builder.toString();
+    }
+
+    private Entry getEntry(int index) {
+        if (mEntryArray == null) {
+            mEntryArray = mEntries.values().toArray(new Entry[mEntries.size()]);
+        }
+        return mEntryArray[index];
+    }
+
+    private static String getSku(ItemInfo itemInfo) {
+        if (itemInfo.sku == null) {
+            throw new IllegalArgumentException("Item " + itemInfo.name + " has no SKU");
+        }
+        return itemInfo.sku;
+    }
+
+    private static class Entry {
+        final ItemInfo itemInfo;
+        final long unitPriceCents;
+        int quantity;
+
+        Entry(ItemInfo itemInfo) {
+            this.itemInfo = itemInfo;
+            this.unitPriceCents = PriceUtil.toCents(itemInfo.priceMicros);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges concurrent calls for the same key into a single in-flight call.
+ *
+ * The first caller to {@link #join(Object, Listener) join} a key starts the call, every caller
+ * joining while it is in flight waits for it instead, and {@link #complete(Object, Object)}
+ * replays the result to all of them. A listener joining twice, e.g. from a double tap, is only
+ * notified once.
+ *
+ * @param <K> key identifying a call, e.g. a Google transaction id.
+ * @param <V> result of the call.
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * Receives the result of a call.
+     */
+    public interface Listener<V> {
+        void onResult(V result);
+    }
+
+    private final Map<K, List<Listener<V>>> mFlights = new HashMap<K, List<Listener<V>>>();
+
+    private final AtomicLong mStartedCount = new AtomicLong();
+    private final AtomicLong mSuppressedCount = new AtomicLong();
+
+    /**
+     * Waits for the call for {@code key}.
+     *
+     * @return {@code true} if no call for {@code key} is in flight and the caller must start it,
+     *         {@code false} if the caller joined a call that is already in flight.
+     */
+    public boolean join(K key, Listener<V> listener) {
+        synchronized (mFlights) {
+            List<Listener<V>> listeners = mFlights.get(key);
+            if (listeners == null) {
+                listeners = new ArrayList<Listener<V>>(2);
+                listeners.add(listener);
+                mFlights.put(key, listeners);
+                mStartedCount.incrementAndGet();
+                return true;
+            }
+
+            if (!containsIdentical(listeners, listener)) {
+                listeners.add(listener);
+            }
+            mSuppressedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Stops waiting for the call for {@code key}. A call nobody waits for any more is forgotten,
+     * so the next caller to join starts a new one.
+     */
+    public void leave(K key, Listener<V> listener) {
+        synchronized (mFlights) {
+            List<Listener<V>> listeners = mFlights.get(key);
+            if (listeners == null) {
+                return;
+            }
+            for (int i = 0; i < listeners.size(); i++) {
+                if (listeners.get(i) == listener) {
+                    listeners.remove(i);
+                    break;
+                }
+            }
+            if (listeners.isEmpty()) {
+                mFlights.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Ends the call for {@code key} and passes its result to every listener waiting for it.
+     *
+     * @return number of listeners notified, 0 if no call for {@code key} was in flight.
+     */
+    public int complete(K key, V result) {
+        List<Listener<V>> listeners;
+        synchronized (mFlights) {
+            listeners = mFlights.remove(key);
+        }
+        if (listeners == null) {
+            return 0;
+        }
+
+        // notify outside the lock so that listeners may join a new call
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onResult(result);
+        }
+        return listeners.size();
+    }
+
+    public boolean isInFlight(K key) {
+        synchronized (mFlights) {
+            return mFlights.containsKey(key);
+        }
+    }
+
+    /**
+     * @return number of calls started, i.e. calls to {@link #join(Object, Listener)} that
+     *         returned {@code true}.
+     */
+    public long getStartedCount() {
+        return mStartedCount.get();
+    }
+
+    /**
+     * @return number of duplicate calls merged into a call already in flight.
+     */
+    public long getSuppressedCount() {
+        return mSuppressedCount.get();
+    }
+
+    private static <V> boolean containsIdentical(List<Listener<V>> listeners,
+            Listener<V> listener) {
+        for (int i = 0; i < listeners.size(); i++) {
+            if (listeners.get(i) == listener) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
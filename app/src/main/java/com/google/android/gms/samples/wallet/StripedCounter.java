@@ -0,0 +1,86 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for events recorded from many threads at once, along the lines of
+ * {@code java.util.concurrent.atomic.LongAdder}, which needs API level 24.
+ *
+ * Increments are spread over cells chosen by thread, each on its own cache line, so threads
+ * rarely contend on the same cell and never block. Reading the value sums the cells, so it is
+ * meant for occasional reads such as snapshots.
+ */
+public class StripedCounter {
+
+    // 8 longs to a 64 byte cache line
+    private static final int CELL_STRIDE = 8;
+    private static final int MAX_CELLS = 64;
+
+    private static final int CELL_COUNT = cellCount(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray mCells = new AtomicLongArray(CELL_COUNT * CELL_STRIDE);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        mCells.addAndGet(cellIndex(), delta);
+    }
+
+    /**
+     * @return the sum of everything added. Additions made while summing may or may not be
+     *         included.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < CELL_COUNT; i++) {
+            sum += mCells.get(i * CELL_STRIDE);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < CELL_COUNT; i++) {
+            mCells.set(i * CELL_STRIDE, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    private static int cellIndex() {
+        // spread sequential thread ids over the cells
+        long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return ((int) (id >>> 32) & (CELL_COUNT - 1)) * CELL_STRIDE;
+    }
+
+    /**
+     * @return the smallest power of two at least twice the number of processors.
+     */
+    private static int cellCount(int processors) {
+        int count = 1;
+        while (count < processors * 2 && count < MAX_CELLS) {
+            count <<= 1;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,725 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent queue of payments to submit to the merchant server, and of the transaction status
+ * notifications that follow them.
+ *
+ * A payment is {@link #submit(String, String) submitted} as a {@link #TYPE_SUBMIT} entry. Once
+ * the merchant server has processed it, the entry is replaced by a {@link #TYPE_NOTIFY} entry
+ * carrying the status returned by the server, which is then delivered to Google with
+ * {@code Wallet.Payments.notifyTransactionStatus}.
+ *
+ * Entries are written to an append-only file before they are delivered, so they survive process
+ * death and are delivered when the outbox is {@link #start() started} again. Like
+ * {@link OrderJournal}, each record is written as its length, the CRC32 of its content and the
+ * content itself, and a file ending in a record that is cut short or corrupt is truncated after
+ * its last good record when it is loaded.
+ *
+ * A single background worker delivers pending entries in batches of the same type and retries
+ * failed batches with exponential backoff. The file is compacted once most of its records
+ * describe delivered entries. Errors reading or writing the file are passed to the
+ * {@link ErrorListener}; the file is then loaded again, which brings the pending entries back in
+ * line with what is on disk.
+ */
+public class TransactionOutbox {
+
+    /**
+     * A payment to submit to the merchant server. The payload is a JSON object.
+     */
+    public static final int TYPE_SUBMIT = 1;
+
+    /**
+     * A transaction status to notify Google of. The payload is empty.
+     */
+    public static final int TYPE_NOTIFY = 2;
+
+    /**
+     * Status a {@link Sink} returns for an entry that could not be delivered and must be retried.
+     */
+    public static final int STATUS_RETRY = -1;
+
+    private static final int FILE_MAGIC = 0x4f425831; // "OBX1"
+    private static final int FILE_HEADER_LENGTH = 4;
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static final int DEFAULT_BATCH_SIZE = 32;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000L;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000L;
+    private static final int MIN_RECORDS_TO_COMPACT = 256;
+
+    /**
+     * Delivers batches of entries of one type.
+     */
+    public interface Sink {
+        /**
+         * Called on the outbox worker thread.
+         *
+         * @param entries entries to deliver, oldest first.
+         * @return one status per entry. For a {@link #TYPE_SUBMIT} entry, a status from
+         *         {@code NotifyTransactionStatusRequest.Status} to notify Google of. For a
+         *         {@link #TYPE_NOTIFY} entry, any status but {@link #STATUS_RETRY}.
+         * @throws IOException if the batch could not be delivered, all entries are retried.
+         */
+        int[] deliver(List<Entry> entries) throws IOException;
+    }
+
+    /**
+     * Learns whether a {@link #submit(String, String, SubmitCallback) submitted} payment was
+     * written to disk. Called on the outbox worker thread.
+     */
+    public interface SubmitCallback {
+        /**
+         * The payment is synced to disk and will be delivered, even if the process dies.
+         */
+        void onSubmitted(String googleTransactionId);
+
+        /**
+         * The payment could not be written and will not be delivered.
+         */
+        void onError(String googleTransactionId, IOException e);
+    }
+
+    /**
+     * Receives errors reading or writing the outbox file. Called on the outbox worker thread.
+     */
+    public interface ErrorListener {
+        void onError(IOException e);
+    }
+
+    /**
+     * An entry waiting to be delivered.
+     */
+    public static class Entry {
+        public final long id;
+        public final int type;
+        public final String googleTransactionId;
+        public final String payload;
+        public final int status;
+
+        Entry(long id, int type, String googleTransactionId, String payload, int status) {
+            this.id = id;
+            this.type = type;
+            this.googleTransactionId = googleTransactionId;
+            this.payload = payload;
+            this.status = status;
+        }
+    }
+
+    private final File mFile;
+    private final Sink mSubmitSink;
+    private final Sink mNotifySink;
+    private final int mBatchSize;
+    private final ScheduledExecutorService mWorker;
+    private final Random mRandom = new Random();
+    private volatile ErrorListener mErrorListener;
+
+    // Only accessed on the worker thread
+    // Pending entries of each type, oldest first
+    private final Map<Long, Entry> mSubmits = new LinkedHashMap<Long, Entry>();
+    private final Map<Long, Entry> mNotifies = new LinkedHashMap<Long, Entry>();
+    private DataOutputStream mOut;
+    private FileOutputStream mFileOut;
+    private long mNextId;
+    private int mRecordCount;
+    private int mConsecutiveFailures;
+    private boolean mFlushScheduled;
+    private final ByteArrayOutputStream mRecordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream mRecordOut = new DataOutputStream(mRecordBytes);
+    private final CRC32 mCrc = new CRC32();
+
+    // Submissions not written to the file yet. They are written together, with a single sync.
+    private final Queue<Submission> mIncoming = new ConcurrentLinkedQueue<Submission>();
+    private final AtomicLong mIncomingCount = new AtomicLong();
+    private final AtomicBoolean mWriteScheduled = new AtomicBoolean();
+    private final Runnable mWriteIncoming = new Runnable() {
+        @Override
+        public void run() {
+            writeIncoming();
+            scheduleFlush(0);
+        }
+    };
+
+    private final AtomicLong mPendingCount = new AtomicLong();
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+    private final AtomicLong mNotifiedCount = new AtomicLong();
+    private final AtomicLong mFailedBatchCount = new AtomicLong();
+    private final AtomicLong mTruncatedBytes = new AtomicLong();
+
+    public TransactionOutbox(File file, Sink submitSink, Sink notifySink) {
+        this(file, submitSink, notifySink, DEFAULT_BATCH_SIZE);
+    }
+
+    public TransactionOutbox(File file, Sink submitSink, Sink notifySink, int batchSize) {
+        mFile = file;
+        mSubmitSink = submitSink;
+        mNotifySink = notifySink;
+        mBatchSize = batchSize;
+        mWorker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TransactionOutbox");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Sets the listener for errors reading or writing the outbox file, e.g. to log them.
+     */
+    public void setErrorListener(ErrorListener listener) {
+        mErrorListener = listener;
+    }
+
+    /**
+     * Loads the entries left in the outbox file and starts delivering them. If the file cannot
+     * be opened, the error is reported and opening it is retried with the next submission or
+     * delivery attempt.
+     */
+    public void start() {
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                } catch (IOException e) {
+                    reportError(e);
+                }
+                scheduleFlush(0);
+            }
+        });
+    }
+
+    /**
+     * Queues a payment for the merchant server without waiting for it to be written.
+     *
+     * @see #submit(String, String, SubmitCallback)
+     */
+    public void submit(String googleTransactionId, String payload) {
+        submit(googleTransactionId, payload, null);
+    }
+
+    /**
+     * Queues a payment for the merchant server. This only adds it to an in-memory queue and
+     * returns, so it is safe to call from the main thread; the worker thread then writes it to
+     * disk and {@code callback} learns whether that succeeded. Payments submitted while the
+     * worker is busy are written together and synced to disk once.
+     *
+     * @param googleTransactionId Google transaction id of the payment.
+     * @param payload the payment details, as a JSON object.
+     * @param callback notified once the payment is on disk or could not be written, may be null.
+     */
+    public void submit(String googleTransactionId, String payload, SubmitCallback callback) {
+        mIncoming.add(new Submission(googleTransactionId, payload, callback));
+        mIncomingCount.incrementAndGet();
+        if (mWriteScheduled.compareAndSet(false, true)) {
+            mWorker.execute(mWriteIncoming);
+        }
+    }
+
+    /**
+     * Stops the worker, waiting for the batch being delivered, if any.
+     */
+    public void close() throws InterruptedException {
+        mWorker.shutdownNow();
+        mWorker.awaitTermination(30, TimeUnit.SECONDS);
+        closeFile();
+    }
+
+    /**
+     * @return number of entries waiting to be delivered.
+     */
+    public long getPendingCount() {
+        return mPendingCount.get() + mIncomingCount.get();
+    }
+
+    /**
+     * @return number of payments delivered to the merchant server.
+     */
+    public long getSubmittedCount() {
+        return mSubmittedCount.get();
+    }
+
+    /**
+     * @return number of transaction statuses delivered to Google.
+     */
+    public long getNotifiedCount() {
+        return mNotifiedCount.get();
+    }
+
+    /**
+     * @return number of batches that failed and were retried later.
+     */
+    public long getFailedBatchCount() {
+        return mFailedBatchCount.get();
+    }
+
+    /**
+     * @return number of bytes of incomplete or corrupt records dropped when loading the file.
+     */
+    public long getTruncatedByteCount() {
+        return mTruncatedBytes.get();
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (mFlushScheduled || mWorker.isShutdown()) {
+            return;
+        }
+        mFlushScheduled = true;
+        mWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mFlushScheduled = false;
+                flush();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        // keep draining while batches go through, so a burst of submissions is sent in as few
+        // round trips as possible
+        writeIncoming();
+        try {
+            openIfNeeded();
+            while (pendingSize() > 0 && !Thread.currentThread().isInterrupted()) {
+                boolean delivered = deliverBatch(TYPE_SUBMIT, mSubmitSink);
+                delivered |= deliverBatch(TYPE_NOTIFY, mNotifySink);
+                sync();
+                if (!delivered) {
+                    // every entry asked to be retried
+                    retryLater();
+                    return;
+                }
+                mConsecutiveFailures = 0;
+                compactIfNeeded();
+                // fill the next batches with what was submitted in the meantime
+                writeIncoming();
+            }
+        } catch (IOException e) {
+            // the file is out of step with the entries in memory
+            reportError(e);
+            reload();
+            retryLater();
+        }
+    }
+
+    private void writeIncoming() {
+        mWriteScheduled.set(false);
+        if (mIncoming.isEmpty()) {
+            return;
+        }
+        List<Submission> submissions = new ArrayList<Submission>();
+        Submission submission;
+        try {
+            openIfNeeded();
+            while ((submission = mIncoming.poll()) != null) {
+                mIncomingCount.decrementAndGet();
+                submissions.add(submission);
+                put(new Entry(mNextId++, TYPE_SUBMIT, submission.googleTransactionId,
+                        submission.payload, 0));
+            }
+            sync();
+        } catch (IOException e) {
+            reportError(e);
+            while ((submission = mIncoming.poll()) != null) {
+                mIncomingCount.decrementAndGet();
+                submissions.add(submission);
+            }
+            // only the payments that made it to disk survive the reload
+            reload();
+            for (int i = 0; i < submissions.size(); i++) {
+                submission = submissions.get(i);
+                if (isSubmitPending(submission.googleTransactionId)) {
+                    submission.notifySubmitted();
+                } else {
+                    submission.notifyError(e);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < submissions.size(); i++) {
+            submissions.get(i).notifySubmitted();
+        }
+    }
+
+    /**
+     * @return whether at least one entry of the given type was delivered.
+     */
+    private boolean deliverBatch(int type, Sink sink) throws IOException {
+        List<Entry> batch = new ArrayList<Entry>(mBatchSize);
+        for (Entry entry : pendingOf(type).values()) {
+            batch.add(entry);
+            if (batch.size() == mBatchSize) {
+                break;
+            }
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+
+        int[] statuses;
+        try {
+            statuses = sink.deliver(batch);
+            if (statuses.length != batch.size()) {
+                throw new IOException("Expected " + batch.size() + " statuses, got "
+                        + statuses.length);
+            }
+        } catch (IOException e) {
+            // retried with the next flush, like a batch whose entries all asked to be retried
+            mFailedBatchCount.incrementAndGet();
+            return false;
+        }
+
+        boolean delivered = false;
+        for (int i = 0; i < statuses.length; i++) {
+            if (statuses[i] == STATUS_RETRY) {
+                continue;
+            }
+            Entry entry = batch.get(i);
+            if (type == TYPE_SUBMIT) {
+                put(new Entry(mNextId++, TYPE_NOTIFY, entry.googleTransactionId, "",
+                        statuses[i]));
+                mSubmittedCount.incrementAndGet();
+            } else {
+                mNotifiedCount.incrementAndGet();
+            }
+            remove(entry.id);
+            delivered = true;
+        }
+        return delivered;
+    }
+
+    private void retryLater() {
+        int shift = Math.min(mConsecutiveFailures++, 20);
+        long backoff = Math.min(INITIAL_BACKOFF_MILLIS << shift, MAX_BACKOFF_MILLIS);
+        // spread retries over the second half of the backoff window
+        long delay = backoff / 2 + (long) (mRandom.nextDouble() * (backoff / 2));
+        scheduleFlush(delay);
+    }
+
+    private void openIfNeeded() throws IOException {
+        if (mOut == null) {
+            load();
+        }
+    }
+
+    /**
+     * Loads the file again after an error, leaving it closed if that fails too.
+     */
+    private void reload() {
+        closeFile();
+        try {
+            load();
+        } catch (IOException e) {
+            closeFile();
+            reportError(e);
+        }
+    }
+
+    private void load() throws IOException {
+        mSubmits.clear();
+        mNotifies.clear();
+        mNextId = 0;
+        mRecordCount = 0;
+        mPendingCount.set(0);
+
+        long validLength = 0;
+        if (mFile.exists()) {
+            byte[] bytes = readFile(mFile);
+            validLength = readRecords(bytes);
+            if (validLength < bytes.length) {
+                // e.g. the last record was cut short by process death
+                mTruncatedBytes.addAndGet(bytes.length - validLength);
+                truncate(validLength);
+            }
+        }
+        openFile();
+        if (validLength == 0) {
+            mOut.writeInt(FILE_MAGIC);
+            sync();
+        }
+        mPendingCount.set(pendingSize());
+    }
+
+    /**
+     * Reads the records of the file up to the first one that is incomplete or corrupt.
+     *
+     * @return length of the file up to the end of its last good record, 0 if even the header is
+     *         missing.
+     */
+    private int readRecords(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < FILE_HEADER_LENGTH || in.readInt() != FILE_MAGIC) {
+            return 0;
+        }
+
+        int position = FILE_HEADER_LENGTH;
+        CRC32 crc = new CRC32();
+        while (position + 8 <= bytes.length) {
+            int recordLength = in.readInt();
+            int recordCrc = in.readInt();
+            if (recordLength <= 0 || recordLength > MAX_RECORD_LENGTH
+                    || position + 8 + recordLength > bytes.length) {
+                break;
+            }
+            crc.reset();
+            crc.update(bytes, position + 8, recordLength);
+            if ((int) crc.getValue() != recordCrc) {
+                break;
+            }
+            try {
+                readRecord(new DataInputStream(
+                        new ByteArrayInputStream(bytes, position + 8, recordLength)));
+            } catch (IOException e) {
+                break;
+            }
+            mRecordCount++;
+            position += 8 + recordLength;
+            in.skipBytes(recordLength);
+        }
+        return position;
+    }
+
+    private void readRecord(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        long id = in.readLong();
+        if (op == OP_PUT) {
+            int type = in.readByte();
+            String googleTransactionId = in.readUTF();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            int status = in.readInt();
+            if (type != TYPE_SUBMIT && type != TYPE_NOTIFY) {
+                throw new IOException("Corrupt outbox " + mFile + ", unknown type " + type);
+            }
+            pendingOf(type).put(id, new Entry(id, type, googleTransactionId,
+                    new String(payload, "UTF-8"), status));
+        } else if (op == OP_REMOVE) {
+            removePending(id);
+        } else {
+            throw new IOException("Corrupt outbox " + mFile + ", unknown record " + op);
+        }
+        mNextId = Math.max(mNextId, id + 1);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private void truncate(long length) throws IOException {
+        if (mFile.length() == length) {
+            return;
+        }
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void put(Entry entry) throws IOException {
+        writePut(mOut, entry);
+        pendingOf(entry.type).put(entry.id, entry);
+        mRecordCount++;
+        mPendingCount.set(pendingSize());
+    }
+
+    private void remove(long id) throws IOException {
+        mRecordBytes.reset();
+        mRecordOut.writeByte(OP_REMOVE);
+        mRecordOut.writeLong(id);
+        writeRecord(mOut);
+        removePending(id);
+        mRecordCount++;
+        mPendingCount.set(pendingSize());
+    }
+
+    private Map<Long, Entry> pendingOf(int type) {
+        return type == TYPE_SUBMIT ? mSubmits : mNotifies;
+    }
+
+    private int pendingSize() {
+        return mSubmits.size() + mNotifies.size();
+    }
+
+    private void removePending(long id) {
+        if (mSubmits.remove(id) == null) {
+            mNotifies.remove(id);
+        }
+    }
+
+    private boolean isSubmitPending(String googleTransactionId) {
+        for (Entry entry : mSubmits.values()) {
+            if (entry.googleTransactionId.equals(googleTransactionId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writePut(DataOutputStream out, Entry entry) throws IOException {
+        byte[] payload = entry.payload.getBytes("UTF-8");
+        mRecordBytes.reset();
+        mRecordOut.writeByte(OP_PUT);
+        mRecordOut.writeLong(entry.id);
+        mRecordOut.writeByte(entry.type);
+        mRecordOut.writeUTF(entry.googleTransactionId);
+        mRecordOut.writeInt(payload.length);
+        mRecordOut.write(payload);
+        mRecordOut.writeInt(entry.status);
+        if (mRecordBytes.size() > MAX_RECORD_LENGTH) {
+            throw new IOException("Outbox entry too large: " + mRecordBytes.size() + " bytes");
+        }
+        writeRecord(out);
+    }
+
+    /**
+     * Writes the record encoded in {@link #mRecordBytes}, preceded by its length and CRC.
+     */
+    private void writeRecord(DataOutputStream out) throws IOException {
+        mCrc.reset();
+        mCrc.update(mRecordBytes.toByteArray());
+        out.writeInt(mRecordBytes.size());
+        out.writeInt((int) mCrc.getValue());
+        mRecordBytes.writeTo(out);
+    }
+
+    private void reportError(IOException e) {
+        ErrorListener listener = mErrorListener;
+        if (listener != null) {
+            listener.onError(e);
+        }
+    }
+
+    private void sync() throws IOException {
+        mOut.flush();
+        mFileOut.getFD().sync();
+    }
+
+    /**
+     * Rewrites the file with the pending entries only, once most records describe entries that
+     * were delivered.
+     */
+    private void compactIfNeeded() throws IOException {
+        if (mRecordCount < MIN_RECORDS_TO_COMPACT || mRecordCount < 2 * pendingSize()) {
+            return;
+        }
+
+        File compacted = new File(mFile.getPath() + ".compact");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FILE_MAGIC);
+        for (Entry entry : mSubmits.values()) {
+            writePut(out, entry);
+        }
+        for (Entry entry : mNotifies.values()) {
+            writePut(out, entry);
+        }
+        FileOutputStream fileOut = new FileOutputStream(compacted);
+        try {
+            bytes.writeTo(fileOut);
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+
+        closeFile();
+        if (!compacted.renameTo(mFile)) {
+            throw new IOException("Cannot replace " + mFile);
+        }
+        mRecordCount = pendingSize();
+        openFile();
+    }
+
+    private void openFile() throws IOException {
+        mFileOut = new FileOutputStream(mFile, true);
+        mOut = new DataOutputStream(new BufferedOutputStream(mFileOut));
+    }
+
+    private void closeFile() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                // nothing left to do with the file
+            }
+            mOut = null;
+            mFileOut = null;
+        }
+    }
+
+    private static class Submission {
+        final String googleTransactionId;
+        final String payload;
+        final SubmitCallback callback;
+
+        Submission(String googleTransactionId, String payload, SubmitCallback callback) {
+            this.googleTransactionId = googleTransactionId;
+            this.payload = payload;
+            this.callback = callback;
+        }
+
+        void notifySubmitted() {
+            if (callback != null) {
+                callback.onSubmitted(googleTransactionId);
+            }
+        }
+
+        void notifyError(IOException e) {
+            if (callback != null) {
+                callback.onError(googleTransactionId, e);
+            }
+        }
+    }
+}
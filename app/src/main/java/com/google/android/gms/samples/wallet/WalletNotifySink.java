@@ -0,0 +1,78 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import android.content.Context;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wallet.Wallet;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notifies Google of the status of transactions processed by the merchant server, using
+ * {@code Wallet.Payments.notifyTransactionStatus}.
+ *
+ * The {@link TransactionOutbox} worker delivers batches off the main thread, so this sink uses a
+ * client of its own that it connects with {@link GoogleApiClient#blockingConnect(long, TimeUnit)}
+ * rather than the clients of {@link GoogleApiClientManager}, which live on the main thread.
+ */
+public class WalletNotifySink implements TransactionOutbox.Sink {
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final PaymentsProvider mPaymentsProvider;
+    private final MetricsRegistry mMetricsRegistry;
+
+    public WalletNotifySink(Context context, MetricsRegistry metricsRegistry) {
+        mMetricsRegistry = metricsRegistry;
+        mGoogleApiClient = new GoogleApiClient.Builder(context.getApplicationContext())
+                .addApi(Wallet.API, new Wallet.WalletOptions.Builder()
+                        .setEnvironment(Constants.WALLET_ENVIRONMENT)
+                        .build())
+                .build();
+        mPaymentsProvider = new PlayServicesPaymentsProvider(mGoogleApiClient);
+    }
+
+    @Override
+    public int[] deliver(List<TransactionOutbox.Entry> entries) throws IOException {
+        ConnectionResult result =
+                mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!result.isSuccess()) {
+            mMetricsRegistry.increment(MetricsRegistry.CONNECTION_FAILURE, result.getErrorCode());
+            throw new IOException("Cannot connect to Google Play services: "
+                    + result.getErrorCode());
+        }
+
+        try {
+            int[] statuses = new int[entries.size()];
+            for (int i = 0; i < statuses.length; i++) {
+                TransactionOutbox.Entry entry = entries.get(i);
+                mPaymentsProvider.notifyTransactionStatus(entry.googleTransactionId,
+                        entry.status);
+                statuses[i] = entry.status;
+            }
+            return statuses;
+        } finally {
+            mGoogleApiClient.disconnect();
+        }
+    }
+}
@@ -24,8 +24,6 @@ import com.google.android.gms.wallet.NotifyTransactionStatusRequest;
 import com.google.android.gms.wallet.PaymentMethodTokenizationParameters;
 import com.google.android.gms.wallet.PaymentMethodTokenizationType;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,8 +33,6 @@ import java.util.List;
  */
 public class WalletUtil {
 
-    private static final BigDecimal MICROS = new BigDecimal(1000000d);
-
     private WalletUtil() {}
 
     /**
@@ -49,6 +45,29 @@ public class WalletUtil {
      */
     public static MaskedWalletRequest createMaskedWalletRequest(ItemInfo itemInfo,
                                                                 String publicKey) {
+        return createMaskedWalletRequest(ShoppingCart.of(itemInfo), publicKey);
+    }
+
+    /**
+     * Creates a MaskedWalletRequest for direct merchant integration (no payment processor)
+     *
+     * @param cart {@link ShoppingCart} containing the items to buy.
+     * @param publicKey base64-encoded public encryption key. See instructions for more details.
+     * @return {@link MaskedWalletRequest} instance
+     */
+    public static MaskedWalletRequest createMaskedWalletRequest(ShoppingCart cart,
+                                                                String publicKey) {
+        return createMaskedWalletRequest(cart, createDirectTokenizationParameters(publicKey));
+    }
+
+    /**
+     * Creates the tokenization parameters for direct merchant integration.
+     *
+     * @param publicKey base64-encoded public encryption key. See instructions for more details.
+     * @return {@link PaymentMethodTokenizationParameters} instance
+     */
+    static PaymentMethodTokenizationParameters createDirectTokenizationParameters(
+            String publicKey) {
         // Validate the public key
         if (publicKey == null || publicKey.contains("REPLACE_ME")) {
             throw new IllegalArgumentException("Invalid public key, see README for instructions.");
@@ -63,7 +82,7 @@ public class WalletUtil {
                     .build();
         // [END direct_integration_parameters]
 
-        return createMaskedWalletRequest(itemInfo, parameters);
+        return parameters;
     }
 
     /**
@@ -78,6 +97,33 @@ public class WalletUtil {
     public static MaskedWalletRequest createStripeMaskedWalletRequest(ItemInfo itemInfo,
                                                                       String publishableKey,
                                                                       String version) {
+        return createStripeMaskedWalletRequest(ShoppingCart.of(itemInfo), publishableKey, version);
+    }
+
+    /**
+     * Creates a MaskedWalletRequest for processing payments with Stripe
+     *
+     * @param cart {@link ShoppingCart} containing the items to buy.
+     * @param publishableKey Stripe publishable key.
+     * @param version Stripe API version.
+     * @return {@link MaskedWalletRequest} instance
+     */
+    public static MaskedWalletRequest createStripeMaskedWalletRequest(ShoppingCart cart,
+                                                                      String publishableKey,
+                                                                      String version) {
+        return createMaskedWalletRequest(cart,
+                createStripeTokenizationParameters(publishableKey, version));
+    }
+
+    /**
+     * Creates the tokenization parameters for processing payments with Stripe.
+     *
+     * @param publishableKey Stripe publishable key.
+     * @param version Stripe API version.
+     * @return {@link PaymentMethodTokenizationParameters} instance
+     */
+    static PaymentMethodTokenizationParameters createStripeTokenizationParameters(
+            String publishableKey, String version) {
         // Validate Stripe configuration
         if ("REPLACE_ME".equals(publishableKey) || "REPLACE_ME".equals(version)) {
             throw new IllegalArgumentException("Invalid Stripe configuration, see README for instructions.");
@@ -92,16 +138,16 @@ public class WalletUtil {
                 .build();
         // [END stripe_integration_parameters]
 
-      return createMaskedWalletRequest(itemInfo, parameters);
+        return parameters;
     }
 
-    private static MaskedWalletRequest createMaskedWalletRequest(ItemInfo itemInfo,
+    private static MaskedWalletRequest createMaskedWalletRequest(ShoppingCart cart,
             PaymentMethodTokenizationParameters parameters) {
         // Build a List of all line items
-        List<LineItem> lineItems = buildLineItems(itemInfo, true);
+        List<LineItem> lineItems = buildLineItems(cart, true);
 
-        // Calculate the cart total by iterating over the line items.
-        String cartTotal = calculateCartTotal(lineItems);
+        // The cart keeps a running total in cents, equal to the sum of the line items.
+        String cartTotal = PriceUtil.formatCents(cart.getTotalCents(true));
 
         // [START masked_wallet_request]
         MaskedWalletRequest request = MaskedWalletRequest.newBuilder()
@@ -125,86 +171,81 @@ public class WalletUtil {
     }
 
     /**
-     * Build a list of line items based on the {@link ItemInfo} and a boolean that indicates
+     * Build a list of line items based on the {@link ShoppingCart} and a boolean that indicates
      * whether to use estimated values of tax and shipping for setting up the
-     * {@link MaskedWalletRequest} or actual values in the case of a {@link FullWalletRequest}
+     * {@link MaskedWalletRequest} or actual values in the case of a {@link FullWalletRequest}.
+     * There is one line item per distinct item in the cart, followed by a single shipping and a
+     * single tax line item for the whole cart.
      *
-     * @param itemInfo {@link com.google.android.gms.samples.wallet.ItemInfo} used for building the
-     *                 {@link com.google.android.gms.wallet.LineItem} list.
+     * @param cart {@link ShoppingCart} used for building the
+     *             {@link com.google.android.gms.wallet.LineItem} list.
      * @param isEstimate {@code boolean} that indicates whether to use estimated values for
      *                   shipping and tax values.
      * @return list of line items
      */
-    private static List<LineItem> buildLineItems(ItemInfo itemInfo, boolean isEstimate) {
-        List<LineItem> list = new ArrayList<LineItem>();
-        String itemPrice = toDollars(itemInfo.priceMicros);
-
-        list.add(LineItem.newBuilder()
-                .setCurrencyCode(Constants.CURRENCY_CODE_USD)
-                .setDescription(itemInfo.name)
-                .setQuantity("1")
-                .setUnitPrice(itemPrice)
-                .setTotalPrice(itemPrice)
-                .build());
-
-        String shippingPrice = toDollars(
-                isEstimate ? itemInfo.estimatedShippingPriceMicros : itemInfo.shippingPriceMicros);
-
-        list.add(LineItem.newBuilder()
-                .setCurrencyCode(Constants.CURRENCY_CODE_USD)
-                .setDescription(Constants.DESCRIPTION_LINE_ITEM_SHIPPING)
-                .setRole(LineItem.Role.SHIPPING)
-                .setTotalPrice(shippingPrice)
-                .build());
-
-        String tax = toDollars(
-                isEstimate ? itemInfo.estimatedTaxMicros : itemInfo.taxMicros);
-
-        list.add(LineItem.newBuilder()
-                .setCurrencyCode(Constants.CURRENCY_CODE_USD)
-                .setDescription(Constants.DESCRIPTION_LINE_ITEM_TAX)
-                .setRole(LineItem.Role.TAX)
-                .setTotalPrice(tax)
-                .build());
-
+    private static List<LineItem> buildLineItems(ShoppingCart cart, boolean isEstimate) {
+        final List<LineItem> list = new ArrayList<LineItem>(cart.getEntryCount() + 2);
+        cart.forEachLineItem(isEstimate, new ShoppingCart.LineItemVisitor() {
+            @Override
+            public void visitItem(ItemInfo itemInfo, String quantity, String unitPrice,
+                    String totalPrice) {
+                list.add(LineItem.newBuilder()
+                        .setCurrencyCode(Constants.CURRENCY_CODE_USD)
+                        .setDescription(itemInfo.name)
+                        .setQuantity(quantity)
+                        .setUnitPrice(unitPrice)
+                        .setTotalPrice(totalPrice)
+                        .build());
+            }
+
+            @Override
+            public void visitShipping(String totalPrice) {
+                list.add(LineItem.newBuilder()
+                        .setCurrencyCode(Constants.CURRENCY_CODE_USD)
+                        .setDescription(Constants.DESCRIPTION_LINE_ITEM_SHIPPING)
+                        .setRole(LineItem.Role.SHIPPING)
+                        .setTotalPrice(totalPrice)
+                        .build());
+            }
+
+            @Override
+            public void visitTax(String totalPrice) {
+                list.add(LineItem.newBuilder()
+                        .setCurrencyCode(Constants.CURRENCY_CODE_USD)
+                        .setDescription(Constants.DESCRIPTION_LINE_ITEM_TAX)
+                        .setRole(LineItem.Role.TAX)
+                        .setTotalPrice(totalPrice)
+                        .build());
+            }
+        });
         return list;
     }
 
     /**
      *
-     * @param lineItems List of {@link com.google.android.gms.wallet.LineItem} used for calculating
-     *                  the cart total.
-     * @return cart total.
+     * @param itemInfo {@link com.google.android.gms.samples.wallet.ItemInfo} to use for creating
+     *                 the {@link com.google.android.gms.wallet.FullWalletRequest}
+     * @param googleTransactionId
+     * @return {@link FullWalletRequest} instance
      */
-    private static String calculateCartTotal(List<LineItem> lineItems) {
-        BigDecimal cartTotal = BigDecimal.ZERO;
-
-        // Calculate the total price by adding up each of the line items
-        for (LineItem lineItem: lineItems) {
-            BigDecimal lineItemTotal = lineItem.getTotalPrice() == null ?
-                    new BigDecimal(lineItem.getUnitPrice())
-                            .multiply(new BigDecimal(lineItem.getQuantity())) :
-                    new BigDecimal(lineItem.getTotalPrice());
-
-            cartTotal = cartTotal.add(lineItemTotal);
-        }
-
-        return cartTotal.setScale(2, RoundingMode.HALF_EVEN).toString();
+    public static FullWalletRequest createFullWalletRequest(ItemInfo itemInfo,
+            String googleTransactionId) {
+        return createFullWalletRequest(ShoppingCart.of(itemInfo), googleTransactionId);
     }
 
     /**
      *
-     * @param itemInfo {@link com.google.android.gms.samples.wallet.ItemInfo} to use for creating
-     *                 the {@link com.google.android.gms.wallet.FullWalletRequest}
+     * @param cart {@link ShoppingCart} to use for creating the
+     *             {@link com.google.android.gms.wallet.FullWalletRequest}
      * @param googleTransactionId
      * @return {@link FullWalletRequest} instance
      */
-    public static FullWalletRequest createFullWalletRequest(ItemInfo itemInfo,
+    public static FullWalletRequest createFullWalletRequest(ShoppingCart cart,
             String googleTransactionId) {
 
-        List<LineItem> lineItems = buildLineItems(itemInfo, false);
+        List<LineItem> lineItems = buildLineItems(cart, false);
 
-        String cartTotal = calculateCartTotal(lineItems);
+        String cartTotal = PriceUtil.formatCents(cart.getTotalCents(false));
 
         // [START full_wallet_request]
         FullWalletRequest request = FullWalletRequest.newBuilder()
@@ -235,13 +276,4 @@ public class WalletUtil {
                 .setStatus(status)
                 .build();
     }
-
-    /**
-     * @param micros Amount micros
-     * @return string formatted as "0.00" required by the Instant Buy API.
-     */
-    private static String toDollars(long micros) {
-        return new BigDecimal(micros).divide(MICROS)
-                .setScale(2, RoundingMode.HALF_EVEN).toString();
-    }
 }
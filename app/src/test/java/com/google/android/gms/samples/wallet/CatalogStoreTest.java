@@ -0,0 +1,99 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class CatalogStoreTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("catalog", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void copiesItemsOfAnotherCatalogUnchanged() throws Exception {
+        File original = new File(mDirectory, "original");
+        CatalogStore.Writer writer = new CatalogStore.Writer(original).setVersion(41);
+        try {
+            writer.add("bike-0", new ItemInfo("Simple Bike", "Features", 300000000, 9990000,
+                    "USD", "seller data 0", 0), "bike000");
+            writer.add("bike-1", new ItemInfo("V\u00e9lo r\u00e9glable", null, 400000000, 9990000,
+                    "EUR", "seller data 1", 0), "https://example.com/bike001.png");
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        CatalogStore originalStore = CatalogStore.open(original, null);
+
+        File copy = new File(mDirectory, "copy");
+        writer = new CatalogStore.Writer(copy).setVersion(42);
+        try {
+            writer.add(originalStore, 1);
+            writer.add(originalStore, 0);
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        CatalogStore copyStore = CatalogStore.open(copy, null);
+
+        assertEquals(42, copyStore.getVersion());
+        assertEquals(2, copyStore.getCount());
+        assertEquals("bike-1", copyStore.getSku(0));
+        ItemInfo item = copyStore.getItem(0);
+        assertEquals("V\u00e9lo r\u00e9glable", item.name);
+        assertEquals("", item.description);
+        assertEquals(400000000, item.priceMicros);
+        assertEquals(9990000, item.shippingPriceMicros);
+        assertEquals("EUR", item.currencyCode);
+        assertEquals("https://example.com/bike001.png", item.imageUrl);
+        assertEquals("Simple Bike", copyStore.getItem(1).name);
+    }
+
+    @Test
+    public void deletesScratchFilesWithoutReplacingUncommittedCatalog() throws Exception {
+        File file = new File(mDirectory, "catalog");
+        CatalogStore.Writer writer = new CatalogStore.Writer(file);
+        writer.add("bike-0", new ItemInfo("Simple Bike", "Features", 300000000, 9990000, "USD",
+                "seller data 0", 0), "bike000");
+        writer.close();
+
+        assertEquals(0, mDirectory.listFiles().length);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.samples.wallet;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+public class EventLogTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("events", ".log");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void truncatesLongValues() throws Exception {
+        char[] chars = new char[100000];
+        Arrays.fill(chars, '\u20ac');
+        EventLog log = new EventLog(16);
+        log.start(mFile);
+        log.log(EventLog.EVENT_FULL_WALLET, 1, new String(chars));
+        log.log(EventLog.EVENT_READY_TO_PAY, 1);
+        log.close();
+
+        List<EventLog.Event> events = EventLog.readAll(mFile);
+        assertEquals(2, events.size());
+        assertEquals(4096, events.get(0).value.length());
+        assertEquals(EventLog.EVENT_READY_TO_PAY, events.get(1).type);
+        assertEquals(0, log.getDroppedCount());
+    }
+
+    @Test
+    public void appendsAfterBatchCutShort() throws Exception {
+        EventLog log = new EventLog(16);
+        log.start(mFile);
+        log.log(EventLog.EVENT_READY_TO_PAY, 1);
+        log.close();
+        // the process died while writing the next batch
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(new byte[] {0x45, 0x56, 0x4c, 0x47, 0, 0});
+        } finally {
+            out.close();
+        }
+
+        log = new EventLog(16);
+        log.start(mFile);
+        log.log(EventLog.EVENT_READY_TO_PAY, 0);
+        log.close();
+
+        List<EventLog.Event> events = EventLog.readAll(mFile);
+        assertEquals(2, events.size());
+        assertEquals(1, events.get(0).arg0);
+        assertEquals(0, events.get(1).arg0);
+    }
+}
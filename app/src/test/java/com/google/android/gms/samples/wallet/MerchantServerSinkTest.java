@@ -0,0 +1,52 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class MerchantServerSinkTest {
+
+    @Test
+    public void encodesPaymentsWithQuotesAndCommas() throws Exception {
+        String payment = new JSONObject()
+                .put("itemName", "Bike, \"deluxe\"\n")
+                .put("totalPrice", "330.98")
+                .toString();
+        String json = MerchantServerSink.toJson(Arrays.asList(new TransactionOutbox.Entry(
+                7, TransactionOutbox.TYPE_SUBMIT, "txn-\"1\"", payment, 0)));
+
+        JSONObject entry = new JSONArray(json).getJSONObject(0);
+        assertEquals(7, entry.getLong("id"));
+        assertEquals("txn-\"1\"", entry.getString("googleTransactionId"));
+        assertEquals("Bike, \"deluxe\"\n",
+                entry.getJSONObject("payment").getString("itemName"));
+    }
+
+    @Test
+    public void parsesStatuses() throws Exception {
+        assertArrayEquals(new int[] {1, 7, -1},
+                MerchantServerSink.parseStatuses(" [1, 7,\n-1] "));
+        assertArrayEquals(new int[0], MerchantServerSink.parseStatuses("[]"));
+    }
+}
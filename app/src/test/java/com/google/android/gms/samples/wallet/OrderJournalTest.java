@@ -0,0 +1,150 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.samples.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OrderJournalTest {
+
+    private static final long RETENTION_MILLIS = 60 * 60 * 1000L;
+    private static final long MAX_SEGMENT_BYTES = 4096;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("journal", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void keepsRecordsAppendedAfterHeaderlessSegment() throws Exception {
+        // the process died before the header of a new segment was written
+        assertTrue(new File(mDirectory, String.format("%016d.seg", 0)).createNewFile());
+
+        OrderJournal journal = new OrderJournal(mDirectory, RETENTION_MILLIS, MAX_SEGMENT_BYTES);
+        journal.start();
+        journal.appendAndWait(createRecord("txn-1", System.currentTimeMillis()));
+        journal.close();
+
+        List<OrderJournal.Record> records = OrderJournal.readAll(mDirectory);
+        assertEquals(1, records.size());
+        assertEquals("txn-1", records.get(0).googleTransactionId);
+    }
+
+    @Test
+    public void compactionDropsExpiredRecordsOnly() throws Exception {
+        long now = System.currentTimeMillis();
+        OrderJournal journal = new OrderJournal(mDirectory, RETENTION_MILLIS, MAX_SEGMENT_BYTES);
+        journal.start();
+        for (int i = 0; i < 200; i++) {
+            journal.appendAndWait(createRecord("old-" + i, now - 2 * RETENTION_MILLIS));
+        }
+        for (int i = 0; i < 200; i++) {
+            journal.appendAndWait(createRecord("new-" + i, now));
+        }
+        journal.close();
+
+        assertTrue(journal.getCompactionCount() > 0);
+        List<String> ids = new ArrayList<String>();
+        for (OrderJournal.Record record : OrderJournal.readAll(mDirectory)) {
+            ids.add(record.googleTransactionId);
+        }
+        assertEquals(200, ids.size());
+        assertEquals("new-0", ids.get(0));
+        assertEquals("new-199", ids.get(199));
+        // segments are rewritten one by one, never merged past the size limit
+        for (File segment : mDirectory.listFiles()) {
+            assertTrue(segment.getName(), segment.length() < 2 * MAX_SEGMENT_BYTES);
+        }
+    }
+
+    @Test
+    public void keepsRecordsAppendedAfterFailedWrite() throws Exception {
+        long now = System.currentTimeMillis();
+        OrderJournal journal = new OrderJournal(mDirectory, RETENTION_MILLIS, MAX_SEGMENT_BYTES) {
+            private int mWriteCount;
+
+            @Override
+            void writeToSegment(ByteArrayOutputStream bytes, FileOutputStream out)
+                    throws IOException {
+                if (++mWriteCount == 2) {
+                    // the disk filled up half way through the second batch
+                    out.write(bytes.toByteArray(), 0, bytes.size() / 2);
+                    throw new IOException("No space left on device");
+                }
+                super.writeToSegment(bytes, out);
+            }
+        };
+        journal.start();
+        journal.appendAndWait(createRecord("before", now));
+        try {
+            journal.appendAndWait(createRecord("failed", now));
+            fail("The write should have failed");
+        } catch (IOException expected) {
+        }
+        journal.appendAndWait(createRecord("after", now));
+        journal.close();
+
+        // reopening runs recovery, which must keep the record acknowledged after the failure
+        journal = new OrderJournal(mDirectory, RETENTION_MILLIS, MAX_SEGMENT_BYTES);
+        journal.start();
+        journal.awaitRecovery();
+        assertEquals(0, journal.getTruncatedBytes());
+        assertEquals(2, journal.getRecordCount());
+        journal.close();
+
+        List<String> ids = new ArrayList<String>();
+        for (OrderJournal.Record record : OrderJournal.readAll(mDirectory)) {
+            ids.add(record.googleTransactionId);
+        }
+        assertEquals(2, ids.size());
+        assertEquals("before", ids.get(0));
+        assertEquals("after", ids.get(1));
+    }
+
+    private static OrderJournal.Record createRecord(String googleTransactionId,
+            long timestampMillis) {
+        return new OrderJournal.Record(timestampMillis, googleTransactionId, "Simple Bike", "USD",
+                30000, 999, 2400, 33399, OrderJournal.fingerprint(googleTransactionId));
+    }
+}
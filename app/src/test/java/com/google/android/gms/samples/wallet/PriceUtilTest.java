@@ -0,0 +1,147 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+/**
+ * Checks that {@link PriceUtil} formats amounts exactly like the {@link BigDecimal} code it
+ * replaced in {@link WalletUtil}.
+ */
+public class PriceUtilTest {
+
+    private static final BigDecimal MICROS = new BigDecimal(1000000d);
+
+    private static final long[] EDGE_MICROS = {
+            0, 1, -1, 4999, 5000, 5001, -4999, -5000, -5001,
+            // half a cent above an even and an odd number of cents, on both sides of zero
+            15000, 25000, -15000, -25000, 1005000, 1015000, -1005000, -1015000,
+            9999, 10000, 10001, -9999, -10000, -10001,
+            999999, 1000000, 1000001, -999999, -1000000, -1000001,
+            Integer.MAX_VALUE, Integer.MIN_VALUE,
+            Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 5000, Long.MIN_VALUE + 5000,
+            Long.MAX_VALUE / PriceUtil.MICROS_PER_CENT * PriceUtil.MICROS_PER_CENT + 5000,
+    };
+
+    private static final long[] EDGE_CENTS = {
+            0, 1, -1, 9, 10, -9, -10, 99, 100, 101, -99, -100, -101,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE,
+            Long.MAX_VALUE - 1, Long.MIN_VALUE + 1,
+    };
+
+    @Test
+    public void toDollarsMatchesBigDecimalAtEdges() {
+        for (long micros : EDGE_MICROS) {
+            assertEquals("micros " + micros, legacyToDollars(micros),
+                    PriceUtil.toDollars(micros));
+        }
+    }
+
+    @Test
+    public void toDollarsMatchesBigDecimalAroundZero() {
+        for (long micros = -100000; micros <= 100000; micros++) {
+            assertEquals("micros " + micros, legacyToDollars(micros),
+                    PriceUtil.toDollars(micros));
+        }
+    }
+
+    @Test
+    public void toDollarsMatchesBigDecimalForRandomAmounts() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            long micros = random.nextLong();
+            // every fourth amount is half a cent, where half-even rounding matters
+            if ((i & 3) == 0) {
+                micros = micros / PriceUtil.MICROS_PER_CENT * PriceUtil.MICROS_PER_CENT
+                        + (micros < 0 ? -5000 : 5000);
+            }
+            assertEquals("micros " + micros, legacyToDollars(micros),
+                    PriceUtil.toDollars(micros));
+        }
+    }
+
+    @Test
+    public void formatCentsMatchesBigDecimal() {
+        for (long cents : EDGE_CENTS) {
+            assertEquals("cents " + cents, legacyFormatCents(cents), PriceUtil.formatCents(cents));
+        }
+        Random random = new Random(43);
+        for (int i = 0; i < 200000; i++) {
+            long cents = random.nextLong() >> random.nextInt(64);
+            assertEquals("cents " + cents, legacyFormatCents(cents), PriceUtil.formatCents(cents));
+        }
+    }
+
+    @Test
+    public void toCentsRoundsHalfEven() {
+        assertEquals(0, PriceUtil.toCents(5000));
+        assertEquals(2, PriceUtil.toCents(15000));
+        assertEquals(2, PriceUtil.toCents(25000));
+        assertEquals(0, PriceUtil.toCents(-5000));
+        assertEquals(-2, PriceUtil.toCents(-15000));
+        assertEquals(-2, PriceUtil.toCents(-25000));
+        for (long micros : EDGE_MICROS) {
+            assertEquals("micros " + micros, legacyToCents(micros), PriceUtil.toCents(micros));
+        }
+    }
+
+    @Test
+    public void cartTotalMatchesSumOfLineItems() {
+        Random random = new Random(44);
+        for (int i = 0; i < 20000; i++) {
+            ShoppingCart cart = new ShoppingCart();
+            int itemCount = 1 + random.nextInt(3);
+            for (int j = 0; j < itemCount; j++) {
+                cart.add(new ItemInfo("item-" + j, "Item " + j, "", random.nextInt(100000000),
+                        random.nextInt(10000000), "USD", "", 0, null), 1 + random.nextInt(3));
+            }
+            // the sum of the formatted line items, as WalletUtil used to compute the total
+            BigDecimal total = BigDecimal.ZERO;
+            for (int j = 0; j < cart.getEntryCount(); j++) {
+                total = total.add(new BigDecimal(PriceUtil.formatCents(cart.getUnitPriceCents(j)))
+                        .multiply(new BigDecimal(cart.getQuantity(j))));
+            }
+            total = total.add(new BigDecimal(PriceUtil.formatCents(cart.getShippingCents(false))))
+                    .add(new BigDecimal(PriceUtil.formatCents(cart.getTaxCents(false))));
+            assertEquals(total.setScale(2, RoundingMode.HALF_EVEN).toString(),
+                    PriceUtil.formatCents(cart.getTotalCents(false)));
+        }
+    }
+
+    /**
+     * {@code WalletUtil.toDollars} before it moved to {@link PriceUtil}.
+     */
+    private static String legacyToDollars(long micros) {
+        return new BigDecimal(micros).divide(MICROS)
+                .setScale(2, RoundingMode.HALF_EVEN).toString();
+    }
+
+    private static long legacyToCents(long micros) {
+        return new BigDecimal(micros).divide(MICROS)
+                .setScale(2, RoundingMode.HALF_EVEN).unscaledValue().longValue();
+    }
+
+    private static String legacyFormatCents(long cents) {
+        return BigDecimal.valueOf(cents, 2).toString();
+    }
+}
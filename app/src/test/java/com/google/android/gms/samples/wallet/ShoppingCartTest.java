@@ -0,0 +1,63 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ShoppingCartTest {
+
+    @Test
+    public void mergesItemsWithTheSameSku() {
+        ShoppingCart cart = new ShoppingCart();
+        // two decodings of the same catalog item are different objects
+        cart.add(createItem("bike-1", 10000000), 1);
+        cart.add(createItem("bike-1", 10000000), 2);
+
+        assertEquals(1, cart.getEntryCount());
+        assertEquals(3, cart.getQuantity(0));
+        assertEquals(3000, cart.getSubtotalCents());
+    }
+
+    @Test
+    public void keepsOrderWhenItemsAreRemoved() {
+        ShoppingCart cart = new ShoppingCart();
+        cart.add(createItem("bike-0", 10000000), 1);
+        cart.add(createItem("bike-1", 20000000), 1);
+        cart.add(createItem("bike-2", 30000000), 1);
+        cart.setQuantity(createItem("bike-1", 20000000), 0);
+
+        assertEquals(2, cart.getEntryCount());
+        assertEquals("bike-0", cart.getItem(0).sku);
+        assertEquals("bike-2", cart.getItem(1).sku);
+        assertEquals(4000, cart.getSubtotalCents());
+
+        cart.add(createItem("bike-1", 20000000), 1);
+        assertEquals("bike-1", cart.getItem(2).sku);
+        assertEquals(6000, cart.getSubtotalCents());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsItemsWithoutSku() {
+        new ShoppingCart().add(createItem(null, 10000000), 1);
+    }
+
+    private static ItemInfo createItem(String sku, long priceMicros) {
+        return new ItemInfo(sku, "Bike", "", priceMicros, 0, "USD", "", 0, null);
+    }
+}
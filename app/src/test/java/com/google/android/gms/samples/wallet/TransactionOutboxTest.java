@@ -0,0 +1,208 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.gms.samples.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TransactionOutboxTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("outbox", ".log");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void deliversSubmittedPaymentsAfterRestart() throws Exception {
+        submitUndelivered("txn-1", "txn-2");
+
+        assertEquals(Arrays.asList("txn-1", "txn-2"), deliverAll());
+    }
+
+    @Test
+    public void dropsZeroFilledTail() throws Exception {
+        submitUndelivered("txn-1", "txn-2");
+        byte[] bytes = readFile();
+        writeFile(Arrays.copyOf(bytes, bytes.length + 64));
+
+        RecordingSink sink = new RecordingSink();
+        TransactionOutbox outbox = startAndWait(sink, 2);
+        assertEquals(64, outbox.getTruncatedByteCount());
+        outbox.close();
+        assertEquals(Arrays.asList("txn-1", "txn-2"), sink.mDelivered);
+    }
+
+    @Test
+    public void dropsRecordWithBadCrc() throws Exception {
+        submitUndelivered("txn-1");
+        long length = mFile.length();
+        submitUndelivered("txn-2");
+        // flip a bit in the last record, the status of the second payment
+        byte[] bytes = readFile();
+        bytes[bytes.length - 1] ^= 1;
+        writeFile(bytes);
+
+        RecordingSink sink = new RecordingSink();
+        TransactionOutbox outbox = startAndWait(sink, 1);
+        assertEquals(bytes.length - length, outbox.getTruncatedByteCount());
+        outbox.close();
+        assertEquals(Arrays.asList("txn-1"), sink.mDelivered);
+    }
+
+    @Test
+    public void startsOverWhenHeaderIsMissing() throws Exception {
+        writeFile(new byte[] {0, 0, 0, 0, 1, 2, 3});
+
+        assertEquals(0, deliverAll().size());
+        submitUndelivered("txn-1");
+        assertEquals(Arrays.asList("txn-1"), deliverAll());
+    }
+
+    /**
+     * Submits payments to an outbox whose merchant server is down, so they stay in the file.
+     */
+    private void submitUndelivered(String... googleTransactionIds) throws Exception {
+        TransactionOutbox outbox = new TransactionOutbox(mFile, new FailingSink(),
+                new RecordingSink());
+        outbox.start();
+        SubmitLatch submitted = new SubmitLatch(googleTransactionIds.length);
+        for (String googleTransactionId : googleTransactionIds) {
+            outbox.submit(googleTransactionId, "{}", submitted);
+        }
+        assertTrue(submitted.await());
+        outbox.close();
+    }
+
+    /**
+     * @return Google transaction ids of the payments left in the file, in delivery order.
+     */
+    private List<String> deliverAll() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        startAndWait(sink, 0).close();
+        return sink.mDelivered;
+    }
+
+    /**
+     * Starts an outbox and waits until it has loaded the file and delivered {@code count}
+     * payments.
+     */
+    private TransactionOutbox startAndWait(RecordingSink sink, int count) throws Exception {
+        TransactionOutbox outbox = new TransactionOutbox(mFile, sink, new RecordingSink());
+        outbox.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outbox.getSubmittedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // runs after the load, on the same worker thread
+        SubmitLatch loaded = new SubmitLatch(1);
+        outbox.submit("barrier", "{}", loaded);
+        assertTrue(loaded.await());
+        deadline = System.currentTimeMillis() + 5000;
+        while (outbox.getSubmittedCount() < count + 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        sink.mDelivered.remove("barrier");
+        return outbox;
+    }
+
+    private byte[] readFile() throws IOException {
+        byte[] bytes = new byte[(int) mFile.length()];
+        FileInputStream in = new FileInputStream(mFile);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                read += in.read(bytes, read, bytes.length - read);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private void writeFile(byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class SubmitLatch implements TransactionOutbox.SubmitCallback {
+        private final CountDownLatch mLatch;
+
+        SubmitLatch(int count) {
+            mLatch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onSubmitted(String googleTransactionId) {
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onError(String googleTransactionId, IOException e) {
+        }
+
+        boolean await() throws InterruptedException {
+            return mLatch.await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static class FailingSink implements TransactionOutbox.Sink {
+        @Override
+        public int[] deliver(List<TransactionOutbox.Entry> entries) throws IOException {
+            throw new IOException("Merchant server unavailable");
+        }
+    }
+
+    private static class RecordingSink implements TransactionOutbox.Sink {
+        final List<String> mDelivered = new ArrayList<String>();
+
+        @Override
+        public int[] deliver(List<TransactionOutbox.Entry> entries) {
+            int[] statuses = new int[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                mDelivered.add(entries.get(i).googleTransactionId);
+            }
+            return statuses;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.ItemInfo;
+import com.google.android.gms.samples.wallet.ShoppingCart;
+
+import java.util.Random;
+
+/**
+ * Deterministic catalog items and carts shared by the benchmarks.
+ */
+public final class CartFixtures {
+
+    private static final long SEED = 0x5eedL;
+
+    private CartFixtures() {}
+
+    /**
+     * @return {@code count} items with prices between $1 and $2000, including odd micros so that
+     *         rounding to cents is exercised.
+     */
+    public static ItemInfo[] createItems(int count) {
+        Random random = new Random(SEED);
+        ItemInfo[] items = new ItemInfo[count];
+        for (int i = 0; i < count; i++) {
+            long price = 1000000L + (long) (random.nextDouble() * 1999000000L);
+            long shipping = random.nextInt(20) * 500000L + random.nextInt(10000);
+            items[i] = new ItemInfo("item-" + i, "Item " + i, "Description " + i, price,
+                    shipping, "USD", "seller data " + i, 0, null);
+        }
+        return items;
+    }
+
+    /**
+     * @return a cart holding every item in {@code items} with a quantity between 1 and 5.
+     */
+    public static ShoppingCart createCart(ItemInfo[] items) {
+        Random random = new Random(SEED);
+        ShoppingCart cart = new ShoppingCart();
+        for (ItemInfo item : items) {
+            cart.add(item, 1 + random.nextInt(5));
+        }
+        return cart;
+    }
+}
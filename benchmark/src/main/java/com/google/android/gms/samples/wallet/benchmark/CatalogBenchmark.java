@@ -0,0 +1,99 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.CatalogStore;
+import com.google.android.gms.samples.wallet.ItemInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures opening a catalog file, and looking up items both in the cache of decoded items and
+ * spread over the whole catalog, so that almost every lookup decodes the item from the file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CatalogBenchmark {
+
+    private static final int HOT_ITEMS = 64;
+
+    @Param({"100000"})
+    public int itemCount;
+
+    private File mFile;
+    private CatalogStore mCatalogStore;
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ItemInfo[] items = CartFixtures.createItems(itemCount);
+        mFile = File.createTempFile("catalog", ".bin");
+        CatalogStore.Writer writer = new CatalogStore.Writer(mFile);
+        try {
+            for (int i = 0; i < items.length; i++) {
+                writer.add("sku-" + i, items[i], "bike00" + (i % 3));
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        mCatalogStore = CatalogStore.open(mFile, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public CatalogStore open() throws IOException {
+        return CatalogStore.open(mFile, null);
+    }
+
+    @Benchmark
+    public ItemInfo cachedItem() {
+        mIndex = (mIndex + 1) % HOT_ITEMS;
+        return mCatalogStore.getItem(mIndex);
+    }
+
+    @Benchmark
+    public ItemInfo uncachedItem() {
+        // a stride larger than the cache walks the whole catalog
+        mIndex = (mIndex + 7919) % itemCount;
+        return mCatalogStore.getItem(mIndex);
+    }
+}
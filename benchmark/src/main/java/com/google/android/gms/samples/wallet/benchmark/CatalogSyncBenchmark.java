@@ -0,0 +1,125 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.CatalogStore;
+import com.google.android.gms.samples.wallet.CatalogSync;
+import com.google.android.gms.samples.wallet.server.CatalogFeed;
+import com.google.android.gms.samples.wallet.server.FakePaymentProcessor;
+import com.google.android.gms.samples.wallet.server.MerchantServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures syncing a catalog with the feed of a local {@link MerchantServer}: downloading the
+ * whole catalog, applying the changes to 1% of the prices, and finding out that the catalog is
+ * up to date.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CatalogSyncBenchmark {
+
+    @Param({"100000"})
+    public int itemCount;
+
+    private MerchantServer mServer;
+    private File mDirectory;
+    private CatalogStore mEmptyCatalog;
+    private CatalogStore mPreviousCatalog;
+    private CatalogStore mCurrentCatalog;
+    private CatalogSync mSync;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        CatalogFeed feed = CatalogFeed.createGenerated(itemCount, 0x5eedL);
+        mServer = new MerchantServer(0, new FakePaymentProcessor(0, 0), null);
+        mServer.serveCatalog(feed);
+        mServer.start();
+        URL url = new URL("http://127.0.0.1:" + mServer.getPort() + MerchantServer.CATALOG_PATH);
+
+        mDirectory = File.createTempFile("catalog", "");
+        mDirectory.delete();
+        mDirectory.mkdir();
+        File emptyFile = new File(mDirectory, "empty");
+        CatalogStore.Writer writer = new CatalogStore.Writer(emptyFile);
+        try {
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        mEmptyCatalog = CatalogStore.open(emptyFile, null);
+
+        // the catalog before and after the price changes, each in a file of its own
+        mPreviousCatalog = new CatalogSync(url, new File(mDirectory, "previous"), null)
+                .sync(mEmptyCatalog).catalogStore;
+        feed.changePrices(0.01, new Random(0x5eedL));
+        mCurrentCatalog = new CatalogSync(url, new File(mDirectory, "current"), null)
+                .sync(mPreviousCatalog).catalogStore;
+
+        mSync = new CatalogSync(url, new File(mDirectory, "synced"), null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mServer.stop();
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public CatalogSync.Result fullSync() throws IOException {
+        return mSync.sync(mEmptyCatalog);
+    }
+
+    @Benchmark
+    public CatalogSync.Result deltaSync() throws IOException {
+        return mSync.sync(mPreviousCatalog);
+    }
+
+    @Benchmark
+    public CatalogSync.Result notModified() throws IOException {
+        CatalogSync.Result result = mSync.sync(mCurrentCatalog);
+        if (result != null) {
+            throw new IllegalStateException("The catalog should be up to date");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.FakePaymentsProvider;
+import com.google.android.gms.samples.wallet.ItemInfo;
+import com.google.android.gms.samples.wallet.LatencyHistogram;
+import com.google.android.gms.samples.wallet.MerchantServerSink;
+import com.google.android.gms.samples.wallet.PaymentJson;
+import com.google.android.gms.samples.wallet.PaymentsProvider;
+import com.google.android.gms.samples.wallet.ShoppingCart;
+import com.google.android.gms.samples.wallet.TransactionOutbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many concurrent checkout sessions against a {@link FakePaymentsProvider} and reports
+ * throughput, p50/p99/p99.9 latency and the bytes allocated per session.
+ *
+ * Usage: {@code CheckoutLoadTest [sessions] [seconds] [walletLatencyMillis] [errorRate]
+ * [serverDelayMillis]}
+ *
+ * Each session checks whether the user is ready to pay, loads a masked wallet and a full wallet
+ * for a one-item cart, builds the payment with {@link PaymentJson} as the app does and submits
+ * it to a {@link TransactionOutbox}. Like the app, a session ends once the payment is on disk;
+ * the outbox then sends it to a {@link StandInMerchantServer} and notifies the fake of the
+ * transaction status in the background. A session runs on a thread of its own and starts over as
+ * soon as it ends, so that {@code sessions} is the number of checkouts in flight; it defaults
+ * to the number of cores, which keeps every core busy when the Wallet answers right away. With a
+ * latency, answers come from a scheduler and sessions wait for them, so more sessions than cores
+ * are needed to saturate the machine.
+ *
+ * Allocation is measured on the session threads with
+ * {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes}, so it leaves out what the
+ * scheduler allocates to deliver delayed answers and what the outbox worker allocates.
+ */
+public class CheckoutLoadTest {
+
+    private static final int ITEM_COUNT = 64;
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : cores;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long walletLatencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        double errorRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        long serverDelayMillis = args.length > 4 ? Long.parseLong(args[4]) : 5;
+
+        ScheduledExecutorService scheduler = walletLatencyMillis > 0
+                ? Executors.newScheduledThreadPool(cores) : null;
+        final FakePaymentsProvider provider = new FakePaymentsProvider(0x5eedL, scheduler);
+        int[] calls = {
+                FakePaymentsProvider.CALL_IS_READY_TO_PAY,
+                FakePaymentsProvider.CALL_LOAD_MASKED_WALLET,
+                FakePaymentsProvider.CALL_LOAD_FULL_WALLET
+        };
+        for (int call : calls) {
+            // sigma 0.5 puts the 99th percentile at about three times the median
+            provider.setLatency(call, walletLatencyMillis * 1000, 0.5);
+            provider.injectError(call, PaymentsProvider.ERROR_CODE_SPENDING_LIMIT_EXCEEDED,
+                    errorRate);
+        }
+        final ItemInfo[] items = CartFixtures.createItems(ITEM_COUNT);
+
+        StandInMerchantServer server = new StandInMerchantServer(serverDelayMillis);
+        server.start();
+        File file = File.createTempFile("outbox", ".log");
+        file.deleteOnExit();
+        // statuses go to the fake, as WalletNotifySink sends them to Google Play services
+        TransactionOutbox.Sink notifySink = new TransactionOutbox.Sink() {
+            @Override
+            public int[] deliver(List<TransactionOutbox.Entry> entries) throws IOException {
+                int[] statuses = new int[entries.size()];
+                for (int i = 0; i < statuses.length; i++) {
+                    TransactionOutbox.Entry entry = entries.get(i);
+                    provider.notifyTransactionStatus(entry.googleTransactionId, entry.status);
+                    statuses[i] = entry.status;
+                }
+                return statuses;
+            }
+        };
+        final TransactionOutbox outbox = new TransactionOutbox(file,
+                new MerchantServerSink(server.getTransactionsUrl()), notifySink);
+        outbox.start();
+
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final boolean measureAllocation = threads.isThreadAllocatedMemorySupported();
+        if (measureAllocation) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+
+        System.out.printf("sessions=%d cores=%d walletLatency=%dms errorRate=%.3f "
+                        + "serverDelay=%dms%n",
+                sessions, cores, walletLatencyMillis, errorRate, serverDelayMillis);
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong allocatedBytes = new AtomicLong();
+        final AtomicLong nextSession = new AtomicLong();
+        final long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        final long end = warmupEnd + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch done = new CountDownLatch(sessions);
+
+        ExecutorService sessionThreads = Executors.newFixedThreadPool(sessions);
+        for (int i = 0; i < sessions; i++) {
+            sessionThreads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long threadId = Thread.currentThread().getId();
+                    long allocatedAtWarmupEnd = -1;
+                    try {
+                        long now;
+                        while ((now = System.nanoTime()) < end) {
+                            if (now >= warmupEnd && allocatedAtWarmupEnd < 0) {
+                                allocatedAtWarmupEnd = measureAllocation
+                                        ? threads.getThreadAllocatedBytes(threadId) : 0;
+                            }
+                            long session = nextSession.incrementAndGet();
+                            boolean completed = runSession(provider, outbox,
+                                    items[(int) (session % items.length)]);
+                            if (now < warmupEnd) {
+                                continue;
+                            }
+                            if (completed) {
+                                latency.record(System.nanoTime() - now);
+                            } else {
+                                failures.incrementAndGet();
+                            }
+                        }
+                        if (measureAllocation && allocatedAtWarmupEnd >= 0) {
+                            allocatedBytes.addAndGet(threads.getThreadAllocatedBytes(threadId)
+                                    - allocatedAtWarmupEnd);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        done.await();
+        sessionThreads.shutdown();
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+
+        long measured = latency.getCount() + failures.get();
+        System.out.printf("%.0f sessions/s, %d completed, %d failed%n",
+                measured / (double) seconds, latency.getCount(), failures.get());
+        System.out.printf("p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms%n",
+                latency.getPercentileNanos(50) / 1e6, latency.getPercentileNanos(99) / 1e6,
+                latency.getPercentileNanos(99.9) / 1e6, latency.getMaxNanos() / 1e6);
+        if (measureAllocation && measured > 0) {
+            System.out.printf("%d bytes allocated per session%n", allocatedBytes.get() / measured);
+        } else {
+            System.out.println("allocation per session is not supported by this JVM");
+        }
+        System.out.printf("outbox: delivered=%d notified=%d pending=%d failedBatches=%d%n",
+                outbox.getSubmittedCount(), outbox.getNotifiedCount(), outbox.getPendingCount(),
+                outbox.getFailedBatchCount());
+
+        outbox.close();
+        server.stop();
+    }
+
+    /**
+     * Runs one checkout of {@code item}.
+     *
+     * @return whether the checkout completed, {@code false} if the Wallet returned an error or
+     *         the payment could not be written to the outbox.
+     */
+    static boolean runSession(FakePaymentsProvider provider, TransactionOutbox outbox,
+            ItemInfo item)
+            throws InterruptedException {
+        Answer<Boolean> readyToPay = new Answer<Boolean>();
+        provider.isReadyToPay(readyToPay);
+        if (!readyToPay.await() || !readyToPay.mResult) {
+            return false;
+        }
+
+        ShoppingCart cart = ShoppingCart.of(item);
+        Answer<FakePaymentsProvider.MaskedWalletInfo> maskedWallet =
+                new Answer<FakePaymentsProvider.MaskedWalletInfo>();
+        provider.loadMaskedWallet(cart, maskedWallet);
+        if (!maskedWallet.await()) {
+            return false;
+        }
+
+        Answer<FakePaymentsProvider.FullWalletInfo> fullWallet =
+                new Answer<FakePaymentsProvider.FullWalletInfo>();
+        provider.loadFullWallet(cart, maskedWallet.mResult.googleTransactionId, fullWallet);
+        if (!fullWallet.await()) {
+            return false;
+        }
+
+        FakePaymentsProvider.FullWalletInfo result = fullWallet.mResult;
+        Submission submission = new Submission();
+        outbox.submit(result.googleTransactionId, PaymentJson.create(result.googleTransactionId,
+                result.merchantTransactionId, item, result.paymentMethodToken), submission);
+        return submission.await();
+    }
+
+    /**
+     * Waits for the answer to one call, which may be delivered on the calling thread or on the
+     * provider's scheduler.
+     */
+    private static class Answer<T> implements PaymentsProvider.Callback<T> {
+
+        private boolean mDone;
+        private T mResult;
+        private int mErrorCode;
+
+        @Override
+        public synchronized void onResult(T result) {
+            mResult = result;
+            mDone = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onError(int errorCode) {
+            mErrorCode = errorCode;
+            mDone = true;
+            notifyAll();
+        }
+
+        /**
+         * @return whether the call succeeded.
+         */
+        synchronized boolean await() throws InterruptedException {
+            while (!mDone) {
+                wait();
+            }
+            return mErrorCode == 0;
+        }
+    }
+
+    /**
+     * Waits for a payment to be written to the outbox.
+     */
+    private static class Submission implements TransactionOutbox.SubmitCallback {
+
+        private boolean mDone;
+        private boolean mSubmitted;
+
+        @Override
+        public synchronized void onSubmitted(String googleTransactionId) {
+            mSubmitted = true;
+            mDone = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onError(String googleTransactionId, IOException e) {
+            mDone = true;
+            notifyAll();
+        }
+
+        /**
+         * @return whether the payment was written.
+         */
+        synchronized boolean await() throws InterruptedException {
+            while (!mDone) {
+                wait();
+            }
+            return mSubmitted;
+        }
+    }
+}
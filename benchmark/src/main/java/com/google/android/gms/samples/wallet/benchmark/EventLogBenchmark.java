@@ -0,0 +1,97 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.EventLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures logging a burst of {@value #BURST} events while the drain thread writes the log to a
+ * file, on one thread and on one thread per core. Every iteration starts with an empty log large
+ * enough for all the bursts, so that no event is dropped, which would cost less than logging it.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = EventLogBenchmark.BURST)
+@Measurement(iterations = 50, batchSize = EventLogBenchmark.BURST)
+@Fork(1)
+public class EventLogBenchmark {
+
+    static final int BURST = 10000;
+    private static final int CAPACITY = 1 << 20;
+
+    private static final String GOOGLE_TRANSACTION_ID = "8a9ba9d2-5bd3-4b5b-a38c-3a9ab6c9f6d3";
+
+    @State(Scope.Benchmark)
+    public static class Log {
+        EventLog mEventLog;
+        File mFile;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            mFile = File.createTempFile("events", ".log");
+            mEventLog = new EventLog(CAPACITY);
+            mEventLog.start(mFile);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws InterruptedException {
+            mEventLog.close();
+            if (mEventLog.getDroppedCount() > 0) {
+                throw new IllegalStateException(
+                        "Dropped " + mEventLog.getDroppedCount() + " events");
+            }
+            new File(mFile.getPath() + ".1").delete();
+            mFile.delete();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void logArgs(Log log) {
+        log.mEventLog.log(EventLog.EVENT_READY_TO_PAY, 1, 0);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void logArgsAllCores(Log log) {
+        log.mEventLog.log(EventLog.EVENT_READY_TO_PAY, 1, 0);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void logString(Log log) {
+        log.mEventLog.log(EventLog.EVENT_FULL_WALLET, 128, GOOGLE_TRANSACTION_ID);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.server.IdempotencyCache;
+import com.google.android.gms.samples.wallet.server.TransactionStatus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the merchant server's idempotency cache with one thread per core: looking up
+ * duplicates of payments already charged, and inserting new payments into a full cache, which
+ * evicts the oldest one each time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class IdempotencyCacheBenchmark {
+
+    private static final int MAX_ENTRIES = 100000;
+    private static final int CONCURRENCY_LEVEL = 64;
+
+    private static final IdempotencyCache.Loader<Integer> CHARGE =
+            new IdempotencyCache.Loader<Integer>() {
+                @Override
+                public Integer load() {
+                    return TransactionStatus.SUCCESS;
+                }
+            };
+
+    @State(Scope.Benchmark)
+    public static class Cache {
+        IdempotencyCache<Integer> mCache;
+        String[] mKeys;
+        final AtomicLong mNextKey = new AtomicLong();
+
+        @Setup
+        public void setUp() throws InterruptedException {
+            mCache = new IdempotencyCache<Integer>(MAX_ENTRIES, 1, TimeUnit.HOURS,
+                    CONCURRENCY_LEVEL);
+            mKeys = new String[MAX_ENTRIES];
+            for (int i = 0; i < MAX_ENTRIES; i++) {
+                mKeys[i] = newKey();
+                mCache.get(mKeys[i], CHARGE);
+            }
+        }
+
+        String newKey() {
+            return "GTID-" + mNextKey.getAndIncrement() + ":0123456789abcdef0123456789abcdef";
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int mIndex;
+
+        String next(Cache cache) {
+            // a stride spreads the threads over the table
+            mIndex = (mIndex + 7919) % MAX_ENTRIES;
+            return cache.mKeys[mIndex];
+        }
+    }
+
+    @Benchmark
+    public Integer duplicate(Cache cache, Cursor cursor) throws InterruptedException {
+        return cache.mCache.get(cursor.next(cache), CHARGE);
+    }
+
+    @Benchmark
+    public Integer newPayment(Cache cache) throws InterruptedException {
+        return cache.mCache.get(cache.newKey(), CHARGE);
+    }
+}
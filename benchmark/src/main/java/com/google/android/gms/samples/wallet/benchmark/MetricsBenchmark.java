@@ -0,0 +1,75 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.MetricsRegistry;
+import com.google.android.gms.samples.wallet.StripedCounter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures recording metrics with one thread per core: incrementing a {@link StripedCounter}
+ * compared with a single {@link AtomicLong}, and counting a result code through the
+ * {@link MetricsRegistry}, which also looks the counter up by name.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class MetricsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Metrics {
+        final StripedCounter mStripedCounter = new StripedCounter();
+        final AtomicLong mAtomicCounter = new AtomicLong();
+        final MetricsRegistry mRegistry = new MetricsRegistry();
+    }
+
+    @Benchmark
+    public void stripedCounter(Metrics metrics) {
+        metrics.mStripedCounter.increment();
+    }
+
+    @Benchmark
+    public long atomicCounter(Metrics metrics) {
+        return metrics.mAtomicCounter.incrementAndGet();
+    }
+
+    @Benchmark
+    public void registryResultCode(Metrics metrics) {
+        metrics.mRegistry.increment(MetricsRegistry.FULL_WALLET_RESULT, -1);
+    }
+
+    @Benchmark
+    public void registryLatency(Metrics metrics) {
+        metrics.mRegistry.histogram("checkout.loadFullWallet").record(1234567);
+    }
+}
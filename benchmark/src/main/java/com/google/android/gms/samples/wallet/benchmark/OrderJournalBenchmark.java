@@ -0,0 +1,151 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.OrderJournal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the {@link OrderJournal}: durable appends from one and from several concurrent
+ * writers, which share fsyncs through group commit, and the time to recover a journal of a
+ * given size when it is opened.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OrderJournalBenchmark {
+
+    private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(365);
+
+    @State(Scope.Benchmark)
+    public static class AppendState {
+        final AtomicLong mNextId = new AtomicLong();
+        File mDirectory;
+        OrderJournal mJournal;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, InterruptedException {
+            mDirectory = createTempDirectory();
+            mJournal = new OrderJournal(mDirectory, RETENTION_MILLIS);
+            mJournal.start();
+            mJournal.awaitRecovery();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            System.out.printf("%n%d records, %.1f records per fsync%n", mJournal.getRecordCount(),
+                    mJournal.getRecordCount() / (double) Math.max(1, mJournal.getSyncCount()));
+            mJournal.close();
+            deleteDirectory(mDirectory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RecoveryState {
+        @Param({"10000", "100000"})
+        public int recordCount;
+
+        File mDirectory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, InterruptedException {
+            mDirectory = createTempDirectory();
+            OrderJournal journal = new OrderJournal(mDirectory, RETENTION_MILLIS);
+            journal.start();
+            for (int i = 0; i < recordCount; i++) {
+                journal.append(createRecord(i));
+            }
+            journal.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            deleteDirectory(mDirectory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    public void appendSingleWriter(AppendState state) throws IOException, InterruptedException {
+        state.mJournal.appendAndWait(createRecord(state.mNextId.getAndIncrement()));
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(8)
+    public void appendEightWriters(AppendState state) throws IOException, InterruptedException {
+        state.mJournal.appendAndWait(createRecord(state.mNextId.getAndIncrement()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long recover(RecoveryState state) throws IOException, InterruptedException {
+        OrderJournal journal = new OrderJournal(state.mDirectory, RETENTION_MILLIS);
+        journal.start();
+        journal.awaitRecovery();
+        journal.close();
+        return journal.getRecordCount();
+    }
+
+    static OrderJournal.Record createRecord(long id) {
+        String googleTransactionId = "txn-" + id;
+        return new OrderJournal.Record(System.currentTimeMillis(), googleTransactionId,
+                "Simple Bike", "USD", 30000, 999, 2400, 33399,
+                OrderJournal.fingerprint(googleTransactionId));
+    }
+
+    static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("journal", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return directory;
+    }
+
+    static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
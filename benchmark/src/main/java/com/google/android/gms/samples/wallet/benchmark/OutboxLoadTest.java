@@ -0,0 +1,104 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.MerchantServerSink;
+import com.google.android.gms.samples.wallet.TransactionOutbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many payments per second the {@link TransactionOutbox} sustains against a
+ * {@link StandInMerchantServer}, including the status notifications that follow them.
+ *
+ * Usage: {@code OutboxLoadTest [seconds] [batchSize] [serverDelayMillis] [maxPending]}
+ */
+public class OutboxLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        long serverDelayMillis = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        int maxPending = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+
+        StandInMerchantServer server = new StandInMerchantServer(serverDelayMillis);
+        server.start();
+
+        File file = File.createTempFile("outbox", ".log");
+        file.deleteOnExit();
+        // statuses are acknowledged locally, Google Play services is not available on the JVM
+        TransactionOutbox.Sink notifySink = new TransactionOutbox.Sink() {
+            @Override
+            public int[] deliver(List<TransactionOutbox.Entry> entries) throws IOException {
+                int[] statuses = new int[entries.size()];
+                for (int i = 0; i < statuses.length; i++) {
+                    statuses[i] = entries.get(i).status;
+                }
+                return statuses;
+            }
+        };
+        TransactionOutbox outbox = new TransactionOutbox(file,
+                new MerchantServerSink(server.getTransactionsUrl()), notifySink, batchSize);
+        outbox.start();
+
+        System.out.printf("batchSize=%d serverDelay=%dms maxPending=%d%n",
+                batchSize, serverDelayMillis, maxPending);
+
+        String payload = "{\"itemName\":\"Simple Bike\",\"currencyCode\":\"USD\","
+                + "\"totalPrice\":\"330.98\",\"paymentMethodToken\":\"{\\\"encryptedMessage\\\":"
+                + "\\\"ZW5jcnlwdGVkTWVzc2FnZQ==\\\",\\\"ephemeralPublicKey\\\":"
+                + "\\\"ZXBoZW1lcmFsUHVibGljS2V5\\\",\\\"tag\\\":\\\"dGFn\\\"}\"}";
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(1);
+        long submitted = 0;
+        long lastNotified = 0;
+        while (System.nanoTime() < end) {
+            // keep the outbox loaded without letting it grow without bounds
+            if (outbox.getPendingCount() < maxPending) {
+                outbox.submit("txn-" + submitted++, payload);
+            } else {
+                Thread.sleep(1);
+            }
+
+            long now = System.nanoTime();
+            if (now >= nextReport) {
+                long notified = outbox.getNotifiedCount();
+                System.out.printf("%6d payments/s, %6d pending%n",
+                        notified - lastNotified, outbox.getPendingCount());
+                lastNotified = notified;
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+            }
+        }
+
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        long notified = outbox.getNotifiedCount();
+        System.out.printf("submitted=%d delivered=%d notified=%d failedBatches=%d%n",
+                submitted, outbox.getSubmittedCount(), notified, outbox.getFailedBatchCount());
+        System.out.printf("sustained %.0f payments/s, %.1f payments per request, "
+                        + "outbox file %d bytes%n",
+                notified / elapsedSeconds,
+                server.getPaymentCount() / (double) Math.max(1, server.getRequestCount()),
+                file.length());
+
+        outbox.close();
+        server.stop();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.CatalogStore;
+import com.google.android.gms.samples.wallet.ItemInfo;
+import com.google.android.gms.samples.wallet.PagedItemSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the work of one frame of a list scrolling through a large catalog: moving the visible
+ * rows by a few positions and binding them. Pages are loaded on the calling thread, so the time
+ * includes decoding the pages scrolled into, as a share of the frames that need them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PagedItemSourceBenchmark {
+
+    private static final int VISIBLE_ROWS = 12;
+    private static final int ROWS_PER_FRAME = 3;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    @Param({"100000"})
+    public int itemCount;
+
+    private File mFile;
+    private PagedItemSource mItemSource;
+    private int mFirstVisiblePosition;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ItemInfo[] items = CartFixtures.createItems(itemCount);
+        mFile = File.createTempFile("catalog", ".bin");
+        CatalogStore.Writer writer = new CatalogStore.Writer(mFile);
+        try {
+            for (int i = 0; i < items.length; i++) {
+                writer.add("sku-" + i, items[i], "bike00" + (i % 3));
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        mItemSource = new PagedItemSource(CatalogStore.open(mFile, null), 50, 2, DIRECT, DIRECT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        // memory must not grow with the distance scrolled
+        if (mItemSource.getLoadedPageCount() > 8) {
+            throw new IllegalStateException(mItemSource.getLoadedPageCount() + " pages loaded");
+        }
+        mFile.delete();
+    }
+
+    @Benchmark
+    public void scrollFrame(Blackhole blackhole) {
+        mFirstVisiblePosition += ROWS_PER_FRAME;
+        if (mFirstVisiblePosition + VISIBLE_ROWS > itemCount) {
+            mFirstVisiblePosition = 0;
+        }
+        mItemSource.onVisibleRangeChanged(mFirstVisiblePosition, VISIBLE_ROWS);
+        for (int i = 0; i < VISIBLE_ROWS; i++) {
+            ItemInfo item = mItemSource.getItem(mFirstVisiblePosition + i);
+            if (item == null) {
+                throw new IllegalStateException("Row " + (mFirstVisiblePosition + i)
+                        + " was not prefetched");
+            }
+            blackhole.consume(item.name);
+            blackhole.consume(item.priceMicros);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.ItemInfo;
+import com.google.android.gms.samples.wallet.PriceUtil;
+import com.google.android.gms.samples.wallet.ShoppingCart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the checkout pricing hot path: building a cart, the line item pass
+ * {@code WalletUtil.buildLineItems} makes over it with {@link ShoppingCart#forEachLineItem}
+ * (minus the Play Services builders, which need a device), {@link ItemInfo#getTotalPrice()} and
+ * the price formatting done by {@code Util.formatPrice}. {@link #legacyBigDecimalLineItems}
+ * keeps the BigDecimal implementation WalletUtil used before as a baseline.
+ *
+ * Both throughput and the sampled latency distribution are reported; run through
+ * {@code ./gradlew :benchmark:jmh} to add the allocation rate from the GC profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PricingBenchmark {
+
+    private static final BigDecimal MICROS = new BigDecimal(1000000d);
+
+    // A single item as in the sample, a realistic basket and a huge one
+    @Param({"1", "30", "5000"})
+    public int cartSize;
+
+    private ItemInfo[] mItems;
+    private ShoppingCart mCart;
+
+    @Setup
+    public void setUp() {
+        mItems = CartFixtures.createItems(cartSize);
+        mCart = CartFixtures.createCart(mItems);
+    }
+
+    @Benchmark
+    public ShoppingCart buildCart() {
+        return CartFixtures.createCart(mItems);
+    }
+
+    @Benchmark
+    public String lineItems(final Blackhole blackhole) {
+        mCart.forEachLineItem(false, new ShoppingCart.LineItemVisitor() {
+            @Override
+            public void visitItem(ItemInfo itemInfo, String quantity, String unitPrice,
+                    String totalPrice) {
+                blackhole.consume(itemInfo.name);
+                blackhole.consume(quantity);
+                blackhole.consume(unitPrice);
+                blackhole.consume(totalPrice);
+            }
+
+            @Override
+            public void visitShipping(String totalPrice) {
+                blackhole.consume(totalPrice);
+            }
+
+            @Override
+            public void visitTax(String totalPrice) {
+                blackhole.consume(totalPrice);
+            }
+        });
+        return PriceUtil.formatCents(mCart.getTotalCents(false));
+    }
+
+    @Benchmark
+    public String legacyBigDecimalLineItems(Blackhole blackhole) {
+        ShoppingCart cart = mCart;
+        int entryCount = cart.getEntryCount();
+        BigDecimal cartTotal = BigDecimal.ZERO;
+        long shippingMicros = 0;
+        long taxMicros = 0;
+        for (int i = 0; i < entryCount; i++) {
+            ItemInfo item = cart.getItem(i);
+            int quantity = cart.getQuantity(i);
+            String quantityString = Integer.toString(quantity);
+            String unitPrice = legacyToDollars(item.priceMicros);
+            BigDecimal totalPrice = new BigDecimal(unitPrice).multiply(new BigDecimal(quantityString));
+            blackhole.consume(item.name);
+            blackhole.consume(unitPrice);
+            cartTotal = cartTotal.add(new BigDecimal(totalPrice.toString()));
+            shippingMicros += item.shippingPriceMicros * quantity;
+            taxMicros += item.taxMicros * quantity;
+        }
+        cartTotal = cartTotal.add(new BigDecimal(legacyToDollars(shippingMicros)));
+        cartTotal = cartTotal.add(new BigDecimal(legacyToDollars(taxMicros)));
+        return cartTotal.setScale(2, RoundingMode.HALF_EVEN).toString();
+    }
+
+    @Benchmark
+    public long itemTotalPrice() {
+        long total = 0;
+        for (ItemInfo item : mItems) {
+            total += item.getTotalPrice();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public void formatPrice(Blackhole blackhole) {
+        // Same format and arithmetic as Util.formatPrice with R.string.price_format
+        for (ItemInfo item : mItems) {
+            blackhole.consume(String.format(Locale.US, "$%.2f", item.priceMicros / 1000000d));
+        }
+    }
+
+    private static String legacyToDollars(long micros) {
+        return new BigDecimal(micros).divide(MICROS)
+                .setScale(2, RoundingMode.HALF_EVEN).toString();
+    }
+}
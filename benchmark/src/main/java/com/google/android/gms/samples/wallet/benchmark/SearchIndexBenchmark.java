@@ -0,0 +1,102 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.CatalogStore;
+import com.google.android.gms.samples.wallet.ItemInfo;
+import com.google.android.gms.samples.wallet.SearchIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the search index of a large catalog, and searching it with a query matching
+ * most items, one matching a handful, and one whose last word is a prefix of many words.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchIndexBenchmark {
+
+    private static final int SEGMENT_SIZE = 10000;
+    private static final int MAX_RESULTS = 200;
+
+    @Param({"100000"})
+    public int itemCount;
+
+    @Param({"item", "item 4217", "description 99"})
+    public String query;
+
+    private File mFile;
+    private CatalogStore mCatalogStore;
+    private SearchIndex mSearchIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ItemInfo[] items = CartFixtures.createItems(itemCount);
+        mFile = File.createTempFile("catalog", ".bin");
+        CatalogStore.Writer writer = new CatalogStore.Writer(mFile);
+        try {
+            for (int i = 0; i < items.length; i++) {
+                writer.add("sku-" + i, items[i], "bike00" + (i % 3));
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        mCatalogStore = CatalogStore.open(mFile, null);
+        mSearchIndex = new SearchIndex(mCatalogStore);
+        mSearchIndex.build(SEGMENT_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public int[] search() {
+        return mSearchIndex.search(query, MAX_RESULTS);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SearchIndex build() {
+        SearchIndex searchIndex = new SearchIndex(mCatalogStore);
+        searchIndex.build(SEGMENT_SIZE);
+        return searchIndex;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.LatencyHistogram;
+import com.google.android.gms.samples.wallet.server.FakePaymentProcessor;
+import com.google.android.gms.samples.wallet.server.MerchantServer;
+import com.google.android.gms.samples.wallet.server.PaymentKeys;
+import com.google.android.gms.samples.wallet.server.PaymentMethodTokenDecryptor;
+import com.google.android.gms.samples.wallet.server.PaymentMethodTokenEncryptor;
+import com.google.android.gms.samples.wallet.server.VirtualThreads;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.interfaces.ECPublicKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a {@link MerchantServer} with many concurrent checkouts, each submitting one payment at
+ * a time as the app does, and reports throughput and p50/p99 latency.
+ *
+ * Usage: {@code ServerLoadTest [concurrency] [seconds] [processorLatencyMillis] [decrypt]}
+ *
+ * The server runs in the same JVM with a {@link FakePaymentProcessor}. With {@code decrypt} set
+ * to {@code true}, every payment carries a token encrypted for the server's key, and the server
+ * decrypts it with its derived key cache disabled.
+ */
+public class ServerLoadTest {
+
+    private static final int TOKEN_COUNT = 256;
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long processorLatencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 50;
+        boolean decrypt = args.length <= 3 || Boolean.parseBoolean(args[3]);
+
+        // every checkout keeps its connection open
+        System.setProperty("http.maxConnections", Integer.toString(concurrency));
+
+        KeyPair keyPair = PaymentKeys.generateKeyPair();
+        final String[] payments = createPayments(keyPair, decrypt);
+        MerchantServer server = new MerchantServer(0,
+                new FakePaymentProcessor(processorLatencyMillis, 0.05),
+                decrypt ? new PaymentMethodTokenDecryptor(keyPair.getPrivate(), 0) : null);
+        server.start();
+        final URL url = new URL("http://127.0.0.1:" + server.getPort()
+                + MerchantServer.TRANSACTIONS_PATH);
+
+        System.out.printf("concurrency=%d processorLatency=%dms decrypt=%b virtualThreads=%b%n",
+                concurrency, processorLatencyMillis, decrypt, VirtualThreads.isSupported());
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong nextTransaction = new AtomicLong();
+        final long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        final long end = warmupEnd + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch done = new CountDownLatch(concurrency);
+
+        // the checkouts use platform threads: HttpURLConnection blocks while holding monitors,
+        // which pins virtual threads to their carriers
+        ExecutorService checkouts = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            checkouts.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long now;
+                        while ((now = System.nanoTime()) < end) {
+                            long id = nextTransaction.incrementAndGet();
+                            String body = "[{\"id\":" + id + ",\"googleTransactionId\":\"txn-"
+                                    + id + "\",\"payment\":"
+                                    + payments[(int) (id % payments.length)] + "}]";
+                            try {
+                                post(url, body);
+                                if (now >= warmupEnd) {
+                                    latency.record(System.nanoTime() - now);
+                                }
+                            } catch (IOException e) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        done.await();
+        checkouts.shutdown();
+        server.stop();
+
+        System.out.printf("%.0f checkouts/s, %d errors, invalid tokens %d%n",
+                latency.getCount() / (double) seconds, errors.get(),
+                server.getInvalidTokenCount());
+        System.out.printf("p50=%.1fms p99=%.1fms max=%.1fms%n",
+                latency.getPercentileNanos(50) / 1e6, latency.getPercentileNanos(99) / 1e6,
+                latency.getMaxNanos() / 1e6);
+    }
+
+    private static String[] createPayments(KeyPair keyPair, boolean withToken)
+            throws GeneralSecurityException {
+        PaymentMethodTokenEncryptor encryptor =
+                new PaymentMethodTokenEncryptor((ECPublicKey) keyPair.getPublic());
+        String[] payments = new String[TOKEN_COUNT];
+        for (int i = 0; i < payments.length; i++) {
+            StringBuilder payment = new StringBuilder("{\"merchantTransactionId\":\"m-")
+                    .append(i).append("\",\"itemName\":\"Simple Bike\",\"currencyCode\":\"USD\","
+                            + "\"totalPrice\":\"330.98\",\"paymentMethodToken\":\"");
+            if (withToken) {
+                String token = encryptor.encrypt("{\"dpan\":\"4444444444444448\","
+                        + "\"expirationMonth\":12,\"expirationYear\":2020}");
+                payment.append(token.replace("\\", "\\\\").replace("\"", "\\\""));
+            } else {
+                payment.append("-");
+            }
+            payments[i] = payment.append("\"}").toString();
+        }
+        return payments;
+    }
+
+    private static void post(URL url, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        OutputStream out = connection.getOutputStream();
+        out.write(bytes);
+        out.close();
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("HTTP " + connection.getResponseCode());
+        }
+        // read the whole response so that the connection can be reused
+        InputStream in = connection.getInputStream();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            response.write(buffer, 0, count);
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the merchant server, accepting the batches sent by
+ * {@code MerchantServerSink} and answering SUCCESS for every payment after an optional delay.
+ */
+public class StandInMerchantServer {
+
+    // NotifyTransactionStatusRequest.Status.SUCCESS
+    private static final int STATUS_SUCCESS = 1;
+
+    static {
+        // send responses right away instead of waiting for the request to be acknowledged,
+        // otherwise every round trip takes as long as the delayed ACK timeout
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+    private final long mDelayMillis;
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mPaymentCount = new AtomicLong();
+
+    /**
+     * @param delayMillis time to wait before answering each request, standing in for the time
+     *                    the payment processor takes.
+     */
+    public StandInMerchantServer(long delayMillis) throws IOException {
+        mDelayMillis = delayMillis;
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mExecutor = Executors.newFixedThreadPool(4);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/transactions", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleTransactions(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdown();
+    }
+
+    public URL getTransactionsUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/transactions");
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getPaymentCount() {
+        return mPaymentCount.get();
+    }
+
+    private void handleTransactions(HttpExchange exchange) throws IOException {
+        try {
+            int count = countTopLevelObjects(readFully(exchange.getRequestBody()));
+            if (mDelayMillis > 0) {
+                Thread.sleep(mDelayMillis);
+            }
+
+            StringBuilder builder = new StringBuilder(count * 2 + 2).append('[');
+            for (int i = 0; i < count; i++) {
+                builder.append(i == 0 ? "" : ",").append(STATUS_SUCCESS);
+            }
+            byte[] response = builder.append(']').toString().getBytes("UTF-8");
+
+            mRequestCount.incrementAndGet();
+            mPaymentCount.addAndGet(count);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(response);
+            out.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return number of objects in a JSON array of objects.
+     */
+    static int countTopLevelObjects(String json) {
+        int count = 0;
+        int depth = 0;
+        boolean inString = false;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                if (c == '{' && depth == 1) {
+                    count++;
+                }
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        }
+        return count;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.benchmark;
+
+import com.google.android.gms.samples.wallet.server.PaymentKeys;
+import com.google.android.gms.samples.wallet.server.PaymentMethodTokenDecryptor;
+import com.google.android.gms.samples.wallet.server.PaymentMethodTokenEncryptor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.interfaces.ECPublicKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures payment method token decryption on the merchant server, on one thread and on one
+ * thread per core. Decryptions per second per core are the {@link #decryptAllCores} score
+ * divided by the number of cores printed when the benchmark starts.
+ *
+ * The tokens outnumber the derived key cache, so every decryption performs the key agreement,
+ * as for tokens seen for the first time. {@link #decryptRepeatedToken} decrypts the same token
+ * again, as for a retried submission, and hits the cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenDecryptionBenchmark {
+
+    private static final int TOKEN_COUNT = 4096;
+    private static final int DERIVED_KEY_CACHE_SIZE = 256;
+
+    private static final String MESSAGE = "{\"dpan\":\"4444444444444448\","
+            + "\"expirationMonth\":12,\"expirationYear\":2020,\"authMethod\":\"3DS\","
+            + "\"3dsCryptogram\":\"AAAAAA==\",\"3dsEciIndicator\":\"eci indicator\"}";
+
+    @State(Scope.Benchmark)
+    public static class Tokens {
+        PaymentMethodTokenDecryptor mDecryptor;
+        String[] mTokens;
+
+        @Setup
+        public void setUp() throws GeneralSecurityException {
+            System.out.println();
+            System.out.println("cores: " + Runtime.getRuntime().availableProcessors());
+
+            KeyPair keyPair = PaymentKeys.generateKeyPair();
+            mDecryptor = new PaymentMethodTokenDecryptor(keyPair.getPrivate(),
+                    DERIVED_KEY_CACHE_SIZE);
+            PaymentMethodTokenEncryptor encryptor =
+                    new PaymentMethodTokenEncryptor((ECPublicKey) keyPair.getPublic());
+            mTokens = new String[TOKEN_COUNT];
+            for (int i = 0; i < TOKEN_COUNT; i++) {
+                mTokens[i] = encryptor.encrypt(MESSAGE);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int mIndex;
+
+        String next(Tokens tokens) {
+            mIndex = (mIndex + 1) % TOKEN_COUNT;
+            return tokens.mTokens[mIndex];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String decrypt(Tokens tokens, Cursor cursor) throws GeneralSecurityException {
+        return tokens.mDecryptor.decrypt(cursor.next(tokens));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String decryptAllCores(Tokens tokens, Cursor cursor)
+            throws GeneralSecurityException {
+        return tokens.mDecryptor.decrypt(cursor.next(tokens));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String decryptRepeatedToken(Tokens tokens) throws GeneralSecurityException {
+        return tokens.mDecryptor.decrypt(tokens.mTokens[0]);
+    }
+}
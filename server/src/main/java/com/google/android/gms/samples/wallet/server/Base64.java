@@ -0,0 +1,90 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+import java.util.Arrays;
+
+/**
+ * Base64 encoding with the standard alphabet and padding, as used by the fields of a payment
+ * method token. Whitespace is ignored when decoding.
+ */
+public final class Base64 {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64() {}
+
+    public static String encode(byte[] bytes) {
+        StringBuilder builder = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = bytes.length - i;
+            int chunk = (bytes[i] & 0xff) << 16
+                    | (remaining > 1 ? (bytes[i + 1] & 0xff) << 8 : 0)
+                    | (remaining > 2 ? bytes[i + 2] & 0xff : 0);
+            builder.append(ALPHABET[chunk >>> 18 & 0x3f])
+                    .append(ALPHABET[chunk >>> 12 & 0x3f])
+                    .append(remaining > 1 ? ALPHABET[chunk >>> 6 & 0x3f] : '=')
+                    .append(remaining > 2 ? ALPHABET[chunk & 0x3f] : '=');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code value} is not valid Base64.
+     */
+    public static byte[] decode(String value) {
+        byte[] buffer = new byte[value.length() / 4 * 3 + 3];
+        int length = 0;
+        int chunk = 0;
+        int count = 0;
+        int padding = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            int bits;
+            if (c == '=') {
+                padding++;
+                bits = 0;
+            } else if (padding > 0 || c >= 128 || (bits = VALUES[c]) < 0) {
+                throw new IllegalArgumentException("Invalid Base64: " + value);
+            }
+            chunk = chunk << 6 | bits;
+            if (++count == 4) {
+                buffer[length++] = (byte) (chunk >>> 16);
+                buffer[length++] = (byte) (chunk >>> 8);
+                buffer[length++] = (byte) chunk;
+                chunk = 0;
+                count = 0;
+            }
+        }
+        if (count != 0 || padding > 2) {
+            throw new IllegalArgumentException("Invalid Base64 length: " + value);
+        }
+        return Arrays.copyOf(buffer, length - padding);
+    }
+}
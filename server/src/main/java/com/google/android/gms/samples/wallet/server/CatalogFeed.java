@@ -0,0 +1,256 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The merchant's catalog, versioned so that apps can fetch only the changes since the version
+ * they have.
+ *
+ * Every change increments the version of the catalog and stamps the item it touches with it.
+ * Removed items are remembered as tombstones, so that a delta since any earlier version can
+ * tell apps to remove them. The feed is newline-delimited JSON, written one item at a time:
+ * <pre>
+ * {"version": 42, "since": 40}
+ * {"sku": "bike-0", "name": "...", "description": "...", "priceMicros": 300000000,
+ *  "shippingPriceMicros": 9990000, "currencyCode": "USD", "sellerData": "...", "image": "..."}
+ * {"sku": "bike-1", "removed": true}
+ * </pre>
+ * where {@code since} is 0 for a full feed holding every item, which apps write in order.
+ */
+public class CatalogFeed {
+
+    /**
+     * An item for sale.
+     */
+    public static class Item {
+        public final String sku;
+        public final String name;
+        public final String description;
+        public final long priceMicros;
+        public final long shippingPriceMicros;
+        public final String currencyCode;
+        public final String sellerData;
+        public final String image;
+
+        public Item(String sku, String name, String description, long priceMicros,
+                long shippingPriceMicros, String currencyCode, String sellerData, String image) {
+            this.sku = sku;
+            this.name = name;
+            this.description = description;
+            this.priceMicros = priceMicros;
+            this.shippingPriceMicros = shippingPriceMicros;
+            this.currencyCode = currencyCode;
+            this.sellerData = sellerData;
+            this.image = image;
+        }
+
+        /**
+         * @return a copy of this item at another price.
+         */
+        public Item withPriceMicros(long priceMicros) {
+            return new Item(sku, name, description, priceMicros, shippingPriceMicros,
+                    currencyCode, sellerData, image);
+        }
+    }
+
+    private static class Entry {
+        final String mSku;
+        final Item mItem; // null for a removed item
+        final long mVersion;
+
+        Entry(String sku, Item item, long version) {
+            mSku = sku;
+            mItem = item;
+            mVersion = version;
+        }
+    }
+
+    // in the order items were first added, which is the order of the app's item ids
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>();
+    private long mVersion;
+
+    /**
+     * @return the bikes bundled with the app, at version 1.
+     */
+    public static CatalogFeed createBundled() {
+        CatalogFeed feed = new CatalogFeed();
+        feed.putAll(new Item[] {
+                new Item("bike-0", "Simple Bike", "Features", 300000000, 9990000, "USD",
+                        "seller data 0", "bike000"),
+                new Item("bike-1", "Adjustable Bike", "More features", 400000000, 9990000,
+                        "USD", "seller data 1", "bike001"),
+                new Item("bike-2", "Conference Bike", "Even more features", 600000000, 9990000,
+                        "USD", "seller data 2", "bike002")
+        });
+        return feed;
+    }
+
+    /**
+     * @return a catalog of {@code count} generated items, at version 1, to test apps with large
+     *         catalogs.
+     */
+    public static CatalogFeed createGenerated(int count, long seed) {
+        Random random = new Random(seed);
+        Item[] items = new Item[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = new Item("sku-" + i, "Bike " + i, "Generated bike number " + i,
+                    1000000L * (50 + random.nextInt(2000)), 9990000, "USD", "seller data " + i,
+                    "bike00" + (i % 3));
+        }
+        CatalogFeed feed = new CatalogFeed();
+        feed.putAll(items);
+        return feed;
+    }
+
+    /**
+     * Adds or replaces items, as one new version.
+     */
+    public synchronized void putAll(Item[] items) {
+        mVersion++;
+        for (Item item : items) {
+            mEntries.put(item.sku, new Entry(item.sku, item, mVersion));
+        }
+    }
+
+    /**
+     * Removes items, as one new version.
+     */
+    public synchronized void removeAll(String[] skus) {
+        mVersion++;
+        for (String sku : skus) {
+            if (mEntries.containsKey(sku)) {
+                mEntries.put(sku, new Entry(sku, null, mVersion));
+            }
+        }
+    }
+
+    /**
+     * Changes the price of a share of the items by up to 10%, as one new version.
+     *
+     * @return the number of items changed.
+     */
+    public synchronized int changePrices(double share, Random random) {
+        List<Item> changed = new ArrayList<Item>();
+        for (Entry entry : mEntries.values()) {
+            if (entry.mItem != null && random.nextDouble() < share) {
+                double factor = 0.9 + random.nextDouble() * 0.2;
+                long price = (long) (entry.mItem.priceMicros * factor) / 10000 * 10000;
+                changed.add(entry.mItem.withPriceMicros(price));
+            }
+        }
+        putAll(changed.toArray(new Item[changed.size()]));
+        return changed.size();
+    }
+
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the current item with the given SKU, or {@code null} if there is none.
+     */
+    public synchronized Item getItem(String sku) {
+        Entry entry = mEntries.get(sku);
+        return entry != null ? entry.mItem : null;
+    }
+
+    /**
+     * @return the items that changed since {@code sinceVersion}, or every item if
+     *         {@code sinceVersion} is 0 or not a version of this catalog.
+     */
+    public synchronized Changes getChanges(long sinceVersion) {
+        if (sinceVersion <= 0 || sinceVersion > mVersion) {
+            sinceVersion = 0;
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        for (Entry entry : mEntries.values()) {
+            if (sinceVersion == 0 ? entry.mItem != null : entry.mVersion > sinceVersion) {
+                entries.add(entry);
+            }
+        }
+        return new Changes(mVersion, sinceVersion, entries);
+    }
+
+    /**
+     * A consistent view of the changes between two versions, written without holding the lock
+     * of the catalog.
+     */
+    public static class Changes {
+        public final long version;
+        public final long sinceVersion;
+        private final List<Entry> mEntries;
+
+        Changes(long version, long sinceVersion, List<Entry> entries) {
+            this.version = version;
+            this.sinceVersion = sinceVersion;
+            mEntries = entries;
+        }
+
+        /**
+         * @return the number of items added, changed or removed.
+         */
+        public int size() {
+            return mEntries.size();
+        }
+
+        /**
+         * Writes the changes as a feed.
+         */
+        public void writeTo(Writer out) throws IOException {
+            try {
+                out.write(new JSONObject()
+                        .put("version", version)
+                        .put("since", sinceVersion)
+                        .toString());
+                out.write('\n');
+                for (Entry entry : mEntries) {
+                    out.write(toJson(entry).toString());
+                    out.write('\n');
+                }
+            } catch (JSONException e) {
+                throw new IOException("Cannot write the catalog feed", e);
+            }
+        }
+    }
+
+    private static JSONObject toJson(Entry entry) throws JSONException {
+        Item item = entry.mItem;
+        if (item == null) {
+            return new JSONObject().put("sku", entry.mSku).put("removed", true);
+        }
+        return new JSONObject()
+                .put("sku", item.sku)
+                .put("name", item.name)
+                .put("description", item.description)
+                .put("priceMicros", item.priceMicros)
+                .put("shippingPriceMicros", item.shippingPriceMicros)
+                .put("currencyCode", item.currencyCode)
+                .put("sellerData", item.sellerData)
+                .put("image", item.image);
+    }
+}
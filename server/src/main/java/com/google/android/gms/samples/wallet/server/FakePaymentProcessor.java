@@ -0,0 +1,54 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A {@link PaymentProcessor} that takes a random time to answer and declines a share of the
+ * payments, standing in for a real payment processor in load tests.
+ */
+public class FakePaymentProcessor implements PaymentProcessor {
+
+    private final long mMeanLatencyMillis;
+    private final double mDeclineRate;
+
+    /**
+     * @param meanLatencyMillis mean time to charge a payment. Latencies are exponentially
+     *                          distributed, as for a processor serving many merchants.
+     * @param declineRate share of payments declined, between 0 and 1.
+     */
+    public FakePaymentProcessor(long meanLatencyMillis, double declineRate) {
+        mMeanLatencyMillis = meanLatencyMillis;
+        mDeclineRate = declineRate;
+    }
+
+    @Override
+    public int charge(Payment payment) throws InterruptedException {
+        Random random = ThreadLocalRandom.current();
+        if (mMeanLatencyMillis > 0) {
+            long latency = (long) (-Math.log(1 - random.nextDouble()) * mMeanLatencyMillis);
+            Thread.sleep(Math.min(latency, 20 * mMeanLatencyMillis));
+        }
+        if (payment.credentials == null) {
+            return TransactionStatus.ERROR_BAD_CARD;
+        }
+        return random.nextDouble() < mDeclineRate
+                ? TransactionStatus.ERROR_DECLINED : TransactionStatus.SUCCESS;
+    }
+}
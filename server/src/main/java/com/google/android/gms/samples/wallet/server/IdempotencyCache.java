@@ -0,0 +1,207 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the outcome of recent requests by idempotency key, so that a request submitted again
+ * gets the outcome of the first submission instead of being processed twice.
+ *
+ * Outcomes are kept in a {@link ConcurrentHashMap}, so a lookup is a lock-free hash probe and
+ * inserts for different keys only contend within the same stripe. A duplicate arriving while the
+ * first request is still being processed waits for its outcome rather than starting over.
+ * Entries also go into a queue in insertion order, which makes evicting the oldest entry, when the
+ * cache is full or the entry has expired, a constant time operation.
+ *
+ * A request that fails with an exception is forgotten, so that it can be retried.
+ */
+public class IdempotencyCache<V> {
+
+    /**
+     * Processes a request the first time its key is seen.
+     */
+    public interface Loader<V> {
+        V load() throws InterruptedException;
+    }
+
+    private final int mMaxEntries;
+    private final long mTimeToLiveNanos;
+
+    private final ConcurrentHashMap<String, Record<V>> mRecords;
+    private final ConcurrentLinkedQueue<Record<V>> mInsertionOrder =
+            new ConcurrentLinkedQueue<Record<V>>();
+    // counts the records in mInsertionOrder, ConcurrentLinkedQueue.size() is not constant time
+    private final AtomicInteger mSize = new AtomicInteger();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    /**
+     * @param maxEntries maximum number of outcomes kept.
+     * @param timeToLive how long an outcome is kept.
+     * @param unit unit of {@code timeToLive}.
+     * @param concurrencyLevel estimated number of threads updating the cache at the same time.
+     */
+    public IdempotencyCache(int maxEntries, long timeToLive, TimeUnit unit, int concurrencyLevel) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        mMaxEntries = maxEntries;
+        mTimeToLiveNanos = unit.toNanos(timeToLive);
+        // sized so that the table never has to grow while requests contend for it
+        mRecords = new ConcurrentHashMap<String, Record<V>>(
+                (int) Math.min(Integer.MAX_VALUE, maxEntries * 4L / 3 + 1), 0.75f,
+                concurrencyLevel);
+    }
+
+    /**
+     * Returns the outcome for {@code key}, calling {@code loader} only if the key was not seen
+     * within the time to live. Duplicates of a request still being processed wait for it.
+     *
+     * @throws InterruptedException if interrupted while waiting, or if the request being waited
+     *         for was interrupted.
+     */
+    public V get(String key, final Loader<V> loader) throws InterruptedException {
+        long now = System.nanoTime();
+        Record<V> created = null;
+        while (true) {
+            Record<V> record = mRecords.get(key);
+            if (record != null && !isExpired(record, now)) {
+                mHitCount.incrementAndGet();
+                return await(record);
+            }
+
+            if (created == null) {
+                created = new Record<V>(key, now, new Callable<V>() {
+                    @Override
+                    public V call() throws Exception {
+                        return loader.load();
+                    }
+                });
+            }
+            if (record == null
+                    ? mRecords.putIfAbsent(key, created) == null
+                    : mRecords.replace(key, record, created)) {
+                break;
+            }
+            // another thread won the race for this key, use its record
+        }
+
+        mMissCount.incrementAndGet();
+        mInsertionOrder.add(created);
+        mSize.incrementAndGet();
+        evict(now);
+
+        created.run();
+        try {
+            return await(created);
+        } catch (RuntimeException e) {
+            mRecords.remove(key, created);
+            throw e;
+        } catch (InterruptedException e) {
+            mRecords.remove(key, created);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of outcomes currently kept, including expired ones not yet evicted.
+     */
+    public int size() {
+        return mSize.get();
+    }
+
+    /**
+     * @return the number of requests answered with a remembered outcome.
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return the number of requests processed.
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    private boolean isExpired(Record<V> record, long now) {
+        return now - record.createdNanos > mTimeToLiveNanos;
+    }
+
+    /**
+     * Evicts from the head of the insertion order, which holds the oldest records, until the cache
+     * is within its size and the oldest record has not expired.
+     */
+    private void evict(long now) {
+        while (true) {
+            Record<V> oldest = mInsertionOrder.peek();
+            if (oldest == null || (mSize.get() <= mMaxEntries && !isExpired(oldest, now))) {
+                return;
+            }
+            // only one thread succeeds in removing a given record, the head is found right away
+            if (mInsertionOrder.remove(oldest)) {
+                mSize.decrementAndGet();
+                // the key may already map to a newer record, which must stay
+                if (mRecords.remove(oldest.key, oldest)) {
+                    mEvictionCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static <V> V await(Record<V> record) throws InterruptedException {
+        try {
+            return record.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InterruptedException) {
+                throw new InterruptedException("Interrupted while processing the request");
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static class Record<V> extends FutureTask<V> {
+
+        final String key;
+        final long createdNanos;
+
+        Record(String key, long createdNanos, Callable<V> callable) {
+            super(callable);
+            this.key = key;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
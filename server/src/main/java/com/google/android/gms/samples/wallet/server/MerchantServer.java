@@ -0,0 +1,358 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local merchant backend for the app, serving the {@code /transactions} endpoint that
+ * {@code MerchantServerSink} posts payments to, and optionally the {@code /catalog} feed that
+ * {@code CatalogSync} fetches items from, see {@link #serveCatalog(CatalogFeed)}.
+ *
+ * A request is a JSON array of payments:
+ * <pre>
+ * [{"id": 1, "googleTransactionId": "...", "payment": {"merchantTransactionId": "...",
+ *   "itemName": "...", "currencyCode": "USD", "totalPrice": "330.98",
+ *   "paymentMethodToken": "..."}}, ...]
+ * </pre>
+ * Each payment token is decrypted, if the server has the merchant's private key, and the
+ * payment is charged by the {@link PaymentProcessor}. The response holds one
+ * {@link TransactionStatus} per payment, which the app passes on to Google with
+ * {@code NotifyTransactionStatusRequest}.
+ *
+ * A payment carrying an {@code idempotencyKey} is charged only once: submitting it again, e.g.
+ * when the app retries a batch whose response was lost, returns the status of the first charge
+ * from an {@link IdempotencyCache}.
+ *
+ * Requests are handled on virtual threads when the JVM supports them, see
+ * {@link VirtualThreads}, so thousands of checkouts waiting on the processor at the same time
+ * do not need thousands of platform threads.
+ */
+public class MerchantServer {
+
+    public static final String TRANSACTIONS_PATH = "/transactions";
+    public static final String CATALOG_PATH = "/catalog";
+
+    private static final int IDEMPOTENCY_CACHE_MAX_ENTRIES = 100000;
+    private static final long IDEMPOTENCY_CACHE_TIME_TO_LIVE_HOURS = 24;
+    private static final int IDEMPOTENCY_CACHE_CONCURRENCY_LEVEL = 64;
+
+    static {
+        // send responses right away instead of waiting for the request to be acknowledged,
+        // otherwise every round trip takes as long as the delayed ACK timeout
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final PaymentProcessor mProcessor;
+    private final PaymentMethodTokenDecryptor mDecryptor;
+    private final IdempotencyCache<Integer> mIdempotencyCache;
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mPaymentCount = new AtomicLong();
+    private final AtomicLong mInvalidTokenCount = new AtomicLong();
+
+    /**
+     * @param port port to listen on, 0 for any free port.
+     * @param processor charges the payments.
+     * @param decryptor decrypts payment method tokens, or {@code null} to pass the tokens to the
+     *                  processor as they are.
+     */
+    public MerchantServer(int port, PaymentProcessor processor,
+            PaymentMethodTokenDecryptor decryptor) throws IOException {
+        this(port, processor, decryptor, new IdempotencyCache<Integer>(
+                IDEMPOTENCY_CACHE_MAX_ENTRIES, IDEMPOTENCY_CACHE_TIME_TO_LIVE_HOURS, TimeUnit.HOURS,
+                IDEMPOTENCY_CACHE_CONCURRENCY_LEVEL));
+    }
+
+    /**
+     * @param port port to listen on, 0 for any free port.
+     * @param processor charges the payments.
+     * @param decryptor decrypts payment method tokens, or {@code null} to pass the tokens to the
+     *                  processor as they are.
+     * @param idempotencyCache remembers the statuses of payments by idempotency key.
+     */
+    public MerchantServer(int port, PaymentProcessor processor,
+            PaymentMethodTokenDecryptor decryptor, IdempotencyCache<Integer> idempotencyCache)
+            throws IOException {
+        mProcessor = processor;
+        mDecryptor = decryptor;
+        mIdempotencyCache = idempotencyCache;
+        mExecutor = VirtualThreads.newExecutor("MerchantServer");
+        mServer = HttpServer.create(new InetSocketAddress(port), 1024);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext(TRANSACTIONS_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleTransactions(exchange);
+            }
+        });
+    }
+
+    /**
+     * Serves {@code feed} at {@link #CATALOG_PATH}. A {@code GET} with a {@code since} query
+     * parameter returns the changes since that version, and a request whose
+     * {@code If-None-Match} header matches the current version, as in the {@code ETag} of the
+     * previous response, returns 304 Not Modified. Feeds are gzipped for clients that accept it.
+     */
+    public void serveCatalog(final CatalogFeed feed) {
+        mServer.createContext(CATALOG_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleCatalog(feed, exchange);
+            }
+        });
+    }
+
+    public void start() {
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    public int getPort() {
+        return mServer.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getPaymentCount() {
+        return mPaymentCount.get();
+    }
+
+    public long getInvalidTokenCount() {
+        return mInvalidTokenCount.get();
+    }
+
+    /**
+     * @return the number of payments answered with the status of an earlier submission.
+     */
+    public long getDuplicateCount() {
+        return mIdempotencyCache.getHitCount();
+    }
+
+    private void handleTransactions(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            JSONArray statuses;
+            try {
+                statuses = process(new JSONArray(readFully(exchange.getRequestBody())));
+            } catch (JSONException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            byte[] response = statuses.toString().getBytes(PaymentMethodTokenDecryptor.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, response.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(response);
+            out.close();
+            mRequestCount.incrementAndGet();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleCatalog(CatalogFeed feed, HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            mRequestCount.incrementAndGet();
+
+            long sinceVersion;
+            try {
+                sinceVersion = parseSinceVersion(exchange.getRequestURI().getRawQuery());
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (ifNoneMatch != null && ifNoneMatch.equals(toETag(feed.getVersion()))) {
+                exchange.getResponseHeaders().set("ETag", ifNoneMatch);
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            CatalogFeed.Changes changes = feed.getChanges(sinceVersion);
+            exchange.getResponseHeaders().set("ETag", toETag(changes.version));
+
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            exchange.getResponseHeaders().set("Content-Type",
+                    "application/x-ndjson; charset=utf-8");
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            // large feeds are streamed with chunked encoding rather than built in memory
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            if (gzip) {
+                out = new GZIPOutputStream(out, 8192);
+            }
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(out, PaymentMethodTokenDecryptor.UTF_8), 8192);
+            changes.writeTo(writer);
+            writer.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String toETag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    private static long parseSinceVersion(String query) {
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("since=")) {
+                    return Long.parseLong(parameter.substring("since=".length()));
+                }
+            }
+        }
+        return 0;
+    }
+
+    JSONArray process(JSONArray entries) throws JSONException, InterruptedException {
+        JSONArray statuses = new JSONArray();
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            final JSONObject payment = entry.getJSONObject("payment");
+            final String googleTransactionId = entry.getString("googleTransactionId");
+            String idempotencyKey = payment.optString("idempotencyKey", null);
+            if (idempotencyKey != null) {
+                statuses.put(mIdempotencyCache.get(idempotencyKey,
+                        new IdempotencyCache.Loader<Integer>() {
+                            @Override
+                            public Integer load() throws InterruptedException {
+                                return mProcessor.charge(
+                                        parsePayment(googleTransactionId, payment));
+                            }
+                        }).intValue());
+            } else {
+                statuses.put(mProcessor.charge(parsePayment(googleTransactionId, payment)));
+            }
+            mPaymentCount.incrementAndGet();
+        }
+        return statuses;
+    }
+
+    private Payment parsePayment(String googleTransactionId, JSONObject payment) {
+        String credentials = payment.optString("paymentMethodToken", null);
+        if (credentials != null && mDecryptor != null) {
+            try {
+                credentials = mDecryptor.decrypt(credentials);
+            } catch (GeneralSecurityException e) {
+                // the processor declines a payment without credentials
+                mInvalidTokenCount.incrementAndGet();
+                credentials = null;
+            }
+        }
+        return new Payment(googleTransactionId,
+                payment.optString("merchantTransactionId", null),
+                payment.optString("itemName", null),
+                payment.optString("currencyCode", null),
+                payment.optString("totalPrice", null),
+                credentials);
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Runs the server.
+     *
+     * Usage: {@code MerchantServer [port] [privateKey] [processorLatencyMillis] [declineRate]
+     * [catalogItems]} where {@code privateKey} is the Base64 PKCS#8 key matching the app's
+     * {@code public_key}, or {@code -} to pass payment method tokens to the processor
+     * undecrypted. The catalog holds the bikes bundled with the app, or {@code catalogItems}
+     * generated items if more than 0, and the prices of 1% of the items change every minute.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        String privateKey = args.length > 1 && !"-".equals(args[1]) ? args[1] : null;
+        long processorLatencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 50;
+        double declineRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.05;
+        int catalogItems = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+
+        MerchantServer server = new MerchantServer(port,
+                new FakePaymentProcessor(processorLatencyMillis, declineRate),
+                privateKey != null ? new PaymentMethodTokenDecryptor(privateKey) : null);
+        final CatalogFeed catalog = catalogItems > 0
+                ? CatalogFeed.createGenerated(catalogItems, 0x5eedL) : CatalogFeed.createBundled();
+        server.serveCatalog(catalog);
+        ScheduledExecutorService priceChanges = Executors.newSingleThreadScheduledExecutor();
+        priceChanges.scheduleAtFixedRate(new Runnable() {
+            private final Random mRandom = new Random();
+
+            @Override
+            public void run() {
+                catalog.changePrices(0.01, mRandom);
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+        server.start();
+        System.out.println("Merchant server listening on port " + server.getPort()
+                + (VirtualThreads.isSupported() ? " (virtual threads)" : ""));
+    }
+}
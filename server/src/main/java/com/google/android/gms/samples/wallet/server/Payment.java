@@ -0,0 +1,45 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+/**
+ * A payment submitted by the app, as sent by {@code MerchantServerSink}.
+ */
+public class Payment {
+
+    public final String googleTransactionId;
+    public final String merchantTransactionId;
+    public final String itemName;
+    public final String currencyCode;
+    public final String totalPrice;
+
+    /**
+     * The decrypted payment credentials, or the payment method token as received if the server
+     * has no key to decrypt it, {@code null} if the payment has no token.
+     */
+    public final String credentials;
+
+    public Payment(String googleTransactionId, String merchantTransactionId, String itemName,
+            String currencyCode, String totalPrice, String credentials) {
+        this.googleTransactionId = googleTransactionId;
+        this.merchantTransactionId = merchantTransactionId;
+        this.itemName = itemName;
+        this.currencyCode = currencyCode;
+        this.totalPrice = totalPrice;
+        this.credentials = credentials;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+
+/**
+ * Helpers for the NIST P-256 keys used to encrypt payment method tokens.
+ *
+ * The merchant's public key, and the ephemeral public key of each token, are encoded as Base64
+ * uncompressed points (0x04 || x || y). This is the {@code publicKey} parameter passed to
+ * {@code WalletUtil.createMaskedWalletRequest}. The merchant's private key is kept as Base64
+ * PKCS#8.
+ *
+ * Run {@link #main(String[])} to generate a new key pair.
+ */
+public final class PaymentKeys {
+
+    private static final int COORDINATE_LENGTH = 32;
+    private static final int POINT_LENGTH = 1 + 2 * COORDINATE_LENGTH;
+
+    private static final ECParameterSpec P256;
+
+    static {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            P256 = ((ECPublicKey) generator.generateKeyPair().getPublic()).getParams();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("P-256 is not supported", e);
+        }
+    }
+
+    private PaymentKeys() {}
+
+    public static KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(P256);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * @return {@code key} as an uncompressed point.
+     */
+    public static byte[] encodePublicKey(ECPublicKey key) {
+        byte[] point = new byte[POINT_LENGTH];
+        point[0] = 0x04;
+        writeCoordinate(key.getW().getAffineX(), point, 1);
+        writeCoordinate(key.getW().getAffineY(), point, 1 + COORDINATE_LENGTH);
+        return point;
+    }
+
+    /**
+     * @param point an uncompressed point on P-256.
+     * @throws GeneralSecurityException if {@code point} is not a valid P-256 public key.
+     */
+    public static ECPublicKey decodePublicKey(byte[] point, KeyFactory keyFactory)
+            throws GeneralSecurityException {
+        if (point.length != POINT_LENGTH || point[0] != 0x04) {
+            throw new GeneralSecurityException("Expected an uncompressed P-256 point");
+        }
+        BigInteger x = new BigInteger(1, Arrays.copyOfRange(point, 1, 1 + COORDINATE_LENGTH));
+        BigInteger y = new BigInteger(1, Arrays.copyOfRange(point, 1 + COORDINATE_LENGTH,
+                POINT_LENGTH));
+        return (ECPublicKey) keyFactory.generatePublic(
+                new ECPublicKeySpec(new ECPoint(x, y), P256));
+    }
+
+    /**
+     * @param pkcs8 Base64 PKCS#8 encoding of an EC private key.
+     */
+    public static PrivateKey decodePrivateKey(String pkcs8) throws GeneralSecurityException {
+        return KeyFactory.getInstance("EC").generatePrivate(
+                new PKCS8EncodedKeySpec(Base64.decode(pkcs8)));
+    }
+
+    private static void writeCoordinate(BigInteger value, byte[] out, int offset) {
+        byte[] bytes = value.toByteArray();
+        // toByteArray() may add a sign byte or omit leading zeros
+        int length = Math.min(bytes.length, COORDINATE_LENGTH);
+        System.arraycopy(bytes, bytes.length - length, out,
+                offset + COORDINATE_LENGTH - length, length);
+    }
+
+    /**
+     * Prints a new key pair: the public key to put in {@code R.string.public_key} of the app and
+     * the private key to give to the server.
+     */
+    public static void main(String[] args) throws GeneralSecurityException {
+        KeyPair keyPair = generateKeyPair();
+        System.out.println("Public key (app):      "
+                + Base64.encode(encodePublicKey((ECPublicKey) keyPair.getPublic())));
+        System.out.println("Private key (server):  "
+                + Base64.encode(keyPair.getPrivate().getEncoded()));
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Decrypts the payment method tokens the app receives for a {@code NETWORK_TOKEN} Masked Wallet
+ * request, i.e. the JSON object sent by {@code fetchTransactionStatus}:
+ * <pre>
+ * {
+ *   "encryptedMessage": &lt;string,base64&gt;,
+ *   "ephemeralPublicKey": &lt;string,base64&gt;,
+ *   "tag": &lt;string,base64&gt;
+ * }
+ * </pre>
+ *
+ * The shared secret of ECDH between the ephemeral public key and the merchant's private key is
+ * turned into 32 bytes of key material with HKDF-SHA256, using the ephemeral public key followed
+ * by the shared secret as input, 32 zero bytes as salt and "Android" as info. The first 16 bytes
+ * are the AES-128-CTR key (zero IV) of the message, the last 16 the HMAC-SHA256 key of the tag.
+ * The tag is verified before the message is decrypted.
+ *
+ * Instances are thread safe. Every thread keeps its own {@link Cipher}, {@link Mac} and
+ * {@link KeyAgreement}, parsed private keys are shared by all decryptors, and the key material
+ * derived for recent ephemeral keys is cached, so a token submitted again, e.g. on a retry, skips
+ * the key agreement. The cache is a {@link ConcurrentHashMap} evicting the oldest keys first, so
+ * concurrent decrypts never wait for each other to look up key material.
+ */
+public class PaymentMethodTokenDecryptor {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    static final byte[] HKDF_INFO = "Android".getBytes(UTF_8);
+    static final byte[] HKDF_SALT = new byte[32];
+    static final int SYMMETRIC_KEY_LENGTH = 16;
+    static final int MAC_KEY_LENGTH = 16;
+    static final int DERIVED_KEY_LENGTH = SYMMETRIC_KEY_LENGTH + MAC_KEY_LENGTH;
+
+    private static final int DEFAULT_DERIVED_KEY_CACHE_SIZE = 1024;
+
+    // Parsed private keys, by their Base64 PKCS#8 encoding
+    private static final ConcurrentMap<String, PrivateKey> sPrivateKeys =
+            new ConcurrentHashMap<String, PrivateKey>();
+
+    static final ThreadLocal<Mac> sMac = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance("HmacSHA256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    static final ThreadLocal<Cipher> sCipher = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/CTR/NoPadding");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    static final ThreadLocal<KeyAgreement> sKeyAgreement = new ThreadLocal<KeyAgreement>() {
+        @Override
+        protected KeyAgreement initialValue() {
+            try {
+                return KeyAgreement.getInstance("ECDH");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    static final ThreadLocal<KeyFactory> sKeyFactory = new ThreadLocal<KeyFactory>() {
+        @Override
+        protected KeyFactory initialValue() {
+            try {
+                return KeyFactory.getInstance("EC");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final PrivateKey mPrivateKey;
+    private final int mDerivedKeyCacheSize;
+    private final ConcurrentMap<String, byte[]> mDerivedKeys =
+            new ConcurrentHashMap<String, byte[]>();
+    // Keys of mDerivedKeys, oldest first
+    private final Queue<String> mDerivedKeyOrder = new ConcurrentLinkedQueue<String>();
+
+    private final AtomicLong mDecryptCount = new AtomicLong();
+    private final AtomicLong mDerivedKeyHitCount = new AtomicLong();
+    private final AtomicLong mInvalidTagCount = new AtomicLong();
+
+    /**
+     * @param privateKey Base64 PKCS#8 encoding of the merchant's private key.
+     */
+    public PaymentMethodTokenDecryptor(String privateKey) throws GeneralSecurityException {
+        this(parsePrivateKey(privateKey), DEFAULT_DERIVED_KEY_CACHE_SIZE);
+    }
+
+    /**
+     * @param derivedKeyCacheSize number of ephemeral keys to keep derived key material for.
+     */
+    public PaymentMethodTokenDecryptor(PrivateKey privateKey, int derivedKeyCacheSize) {
+        mPrivateKey = privateKey;
+        mDerivedKeyCacheSize = derivedKeyCacheSize;
+    }
+
+    /**
+     * @param token the payment method token, as returned by {@code PaymentMethodToken.getToken}.
+     * @return the decrypted message, a JSON object with the payment credentials.
+     * @throws GeneralSecurityException if the token is malformed or its tag does not match.
+     */
+    public String decrypt(String token) throws GeneralSecurityException {
+        String encryptedMessage;
+        String ephemeralPublicKey;
+        String tag;
+        try {
+            JSONObject json = new JSONObject(token);
+            encryptedMessage = json.getString("encryptedMessage");
+            ephemeralPublicKey = json.getString("ephemeralPublicKey");
+            tag = json.getString("tag");
+        } catch (JSONException e) {
+            throw new GeneralSecurityException("Malformed payment method token", e);
+        }
+
+        byte[] ciphertext;
+        byte[] expectedTag;
+        try {
+            ciphertext = Base64.decode(encryptedMessage);
+            expectedTag = Base64.decode(tag);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Malformed payment method token", e);
+        }
+
+        byte[] derivedKey = getDerivedKey(ephemeralPublicKey);
+
+        Mac mac = sMac.get();
+        mac.init(new SecretKeySpec(derivedKey, SYMMETRIC_KEY_LENGTH, MAC_KEY_LENGTH, "HmacSHA256"));
+        if (!MessageDigest.isEqual(mac.doFinal(ciphertext), expectedTag)) {
+            mInvalidTagCount.incrementAndGet();
+            throw new GeneralSecurityException("Payment method token tag does not match");
+        }
+
+        Cipher cipher = sCipher.get();
+        cipher.init(Cipher.DECRYPT_MODE,
+                new SecretKeySpec(derivedKey, 0, SYMMETRIC_KEY_LENGTH, "AES"),
+                new IvParameterSpec(new byte[16]));
+        String message = new String(cipher.doFinal(ciphertext), UTF_8);
+        mDecryptCount.incrementAndGet();
+        return message;
+    }
+
+    public long getDecryptCount() {
+        return mDecryptCount.get();
+    }
+
+    /**
+     * @return number of tokens whose key material was found in the cache.
+     */
+    public long getDerivedKeyHitCount() {
+        return mDerivedKeyHitCount.get();
+    }
+
+    public long getInvalidTagCount() {
+        return mInvalidTagCount.get();
+    }
+
+    private byte[] getDerivedKey(String ephemeralPublicKey) throws GeneralSecurityException {
+        byte[] cachedKey = mDerivedKeys.get(ephemeralPublicKey);
+        if (cachedKey != null) {
+            mDerivedKeyHitCount.incrementAndGet();
+            return cachedKey;
+        }
+
+        // the key agreement is the expensive part of decrypting
+        byte[] ephemeralPoint;
+        try {
+            ephemeralPoint = Base64.decode(ephemeralPublicKey);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Malformed ephemeral public key", e);
+        }
+        KeyAgreement keyAgreement = sKeyAgreement.get();
+        keyAgreement.init(mPrivateKey);
+        keyAgreement.doPhase(PaymentKeys.decodePublicKey(ephemeralPoint, sKeyFactory.get()), true);
+        byte[] derivedKey = deriveKey(ephemeralPoint, keyAgreement.generateSecret());
+
+        if (mDerivedKeys.putIfAbsent(ephemeralPublicKey, derivedKey) == null) {
+            mDerivedKeyOrder.add(ephemeralPublicKey);
+            // the size is only approximate while other threads add keys, which is fine for a cache
+            while (mDerivedKeys.size() > mDerivedKeyCacheSize) {
+                String eldest = mDerivedKeyOrder.poll();
+                if (eldest == null) {
+                    break;
+                }
+                mDerivedKeys.remove(eldest);
+            }
+        }
+        return derivedKey;
+    }
+
+    /**
+     * HKDF-SHA256 of {@code ephemeralPublicKey || sharedSecret}, see the class documentation.
+     */
+    static byte[] deriveKey(byte[] ephemeralPublicKey, byte[] sharedSecret)
+            throws GeneralSecurityException {
+        Mac mac = sMac.get();
+
+        // extract
+        mac.init(new SecretKeySpec(HKDF_SALT, "HmacSHA256"));
+        mac.update(ephemeralPublicKey);
+        mac.update(sharedSecret);
+        byte[] pseudoRandomKey = mac.doFinal();
+
+        // expand, a single block of SHA-256 covers the 32 bytes needed
+        mac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+        mac.update(HKDF_INFO);
+        mac.update((byte) 1);
+        return mac.doFinal();
+    }
+
+    private static PrivateKey parsePrivateKey(String privateKey)
+            throws GeneralSecurityException {
+        PrivateKey key = sPrivateKeys.get(privateKey);
+        if (key == null) {
+            key = PaymentKeys.decodePrivateKey(privateKey);
+            sPrivateKeys.putIfAbsent(privateKey, key);
+        }
+        return key;
+    }
+}
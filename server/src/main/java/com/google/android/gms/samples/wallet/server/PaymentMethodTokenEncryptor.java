@@ -0,0 +1,83 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.interfaces.ECPublicKey;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Creates payment method tokens the way Android Pay does, for exercising
+ * {@link PaymentMethodTokenDecryptor} and the merchant server without a device.
+ */
+public class PaymentMethodTokenEncryptor {
+
+    private final ECPublicKey mPublicKey;
+
+    /**
+     * @param publicKey the merchant's public key.
+     */
+    public PaymentMethodTokenEncryptor(ECPublicKey publicKey) {
+        mPublicKey = publicKey;
+    }
+
+    /**
+     * @param message the payment credentials, a JSON object.
+     * @return a payment method token for {@code message}, encrypted with a new ephemeral key.
+     */
+    public String encrypt(String message) throws GeneralSecurityException {
+        KeyPair ephemeralKeyPair = PaymentKeys.generateKeyPair();
+        byte[] ephemeralPublicKey =
+                PaymentKeys.encodePublicKey((ECPublicKey) ephemeralKeyPair.getPublic());
+
+        KeyAgreement keyAgreement = PaymentMethodTokenDecryptor.sKeyAgreement.get();
+        keyAgreement.init(ephemeralKeyPair.getPrivate());
+        keyAgreement.doPhase(mPublicKey, true);
+        byte[] derivedKey = PaymentMethodTokenDecryptor.deriveKey(ephemeralPublicKey,
+                keyAgreement.generateSecret());
+
+        Cipher cipher = PaymentMethodTokenDecryptor.sCipher.get();
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(derivedKey, 0,
+                        PaymentMethodTokenDecryptor.SYMMETRIC_KEY_LENGTH, "AES"),
+                new IvParameterSpec(new byte[16]));
+        byte[] ciphertext = cipher.doFinal(message.getBytes(PaymentMethodTokenDecryptor.UTF_8));
+
+        Mac mac = PaymentMethodTokenDecryptor.sMac.get();
+        mac.init(new SecretKeySpec(derivedKey, PaymentMethodTokenDecryptor.SYMMETRIC_KEY_LENGTH,
+                PaymentMethodTokenDecryptor.MAC_KEY_LENGTH, "HmacSHA256"));
+        byte[] tag = mac.doFinal(ciphertext);
+
+        try {
+            return new JSONObject()
+                    .put("encryptedMessage", Base64.encode(ciphertext))
+                    .put("ephemeralPublicKey", Base64.encode(ephemeralPublicKey))
+                    .put("tag", Base64.encode(tag))
+                    .toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
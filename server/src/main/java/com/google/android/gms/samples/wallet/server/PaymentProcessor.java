@@ -0,0 +1,30 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+/**
+ * Charges payments, e.g. by calling a payment processor.
+ */
+public interface PaymentProcessor {
+
+    /**
+     * Called concurrently for different payments, and may block.
+     *
+     * @return a {@link TransactionStatus}.
+     */
+    int charge(Payment payment) throws InterruptedException;
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+/**
+ * Transaction statuses returned by the merchant server, with the values of
+ * {@code NotifyTransactionStatusRequest.Status} so that the app can pass them on to Google as
+ * they are.
+ */
+public final class TransactionStatus {
+
+    public static final int SUCCESS = 1;
+
+    // NotifyTransactionStatusRequest.Status.Error
+    public static final int ERROR_UNKNOWN = 4;
+    public static final int ERROR_BAD_CVC = 5;
+    public static final int ERROR_BAD_CARD = 6;
+    public static final int ERROR_DECLINED = 7;
+    public static final int ERROR_OTHER = 8;
+    public static final int ERROR_AVS_DECLINE = 9;
+    public static final int ERROR_FRAUD_DECLINE = 10;
+
+    private TransactionStatus() {}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.samples.wallet.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors running each task on a virtual thread when the JVM supports them (Java 21
+ * and later), so that blocking request handlers do not each hold a platform thread. The module
+ * targets Java 7, so the factory method is looked up reflectively.
+ *
+ * Run with {@code -D}{@value #DISABLE_PROPERTY}{@code =true} to compare with platform threads.
+ */
+public final class VirtualThreads {
+
+    public static final String DISABLE_PROPERTY = "merchant.disableVirtualThreads";
+
+    private VirtualThreads() {}
+
+    /**
+     * @return whether {@link #newExecutor(String)} returns a virtual thread executor.
+     */
+    public static boolean isSupported() {
+        return findFactoryMethod() != null;
+    }
+
+    /**
+     * @param name prefix of the names of the platform threads used without virtual threads.
+     * @return an executor starting a virtual thread per task, or a cached thread pool.
+     */
+    public static ExecutorService newExecutor(final String name) {
+        Method factoryMethod = findFactoryMethod();
+        if (factoryMethod != null) {
+            try {
+                return (ExecutorService) factoryMethod.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // fall back to platform threads
+            }
+        }
+
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static Method findFactoryMethod() {
+        if (Boolean.getBoolean(DISABLE_PROPERTY)) {
+            return null;
+        }
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}